@@ -1,15 +1,29 @@
 package com.beyond.jgit;
 
+import com.beyond.jgit.bitmap.ReachabilityWalker;
+import com.beyond.jgit.chunk.ChunkManifest;
+import com.beyond.jgit.chunk.ChunkedBlobs;
+import com.beyond.jgit.chunk.FastCdcChunker;
+import com.beyond.jgit.graph.MergeBase;
+import com.beyond.jgit.index.FileStat;
 import com.beyond.jgit.index.Index;
 import com.beyond.jgit.index.IndexDiffResult;
 import com.beyond.jgit.index.IndexDiffer;
+import com.beyond.jgit.index.IndexFile;
 import com.beyond.jgit.index.IndexManager;
 import com.beyond.jgit.log.LogItem;
 import com.beyond.jgit.log.LogManager;
+import com.beyond.jgit.maintenance.Fsck;
+import com.beyond.jgit.maintenance.FsckResult;
+import com.beyond.jgit.maintenance.GarbageCollector;
+import com.beyond.jgit.maintenance.GcResult;
 import com.beyond.jgit.object.ObjectEntity;
+import com.beyond.jgit.object.ObjectId;
+import com.beyond.jgit.object.ObjectIdSet;
+import com.beyond.jgit.object.ObjectLoader;
 import com.beyond.jgit.object.ObjectManager;
-import com.beyond.jgit.object.data.BlobObjectData;
 import com.beyond.jgit.object.data.CommitObjectData;
+import com.beyond.jgit.object.data.TreeCursor;
 import com.beyond.jgit.object.data.TreeObjectData;
 import com.beyond.jgit.storage.FileStorage;
 import com.beyond.jgit.storage.SardineStorage;
@@ -17,7 +31,6 @@ import com.beyond.jgit.storage.Storage;
 import com.beyond.jgit.storage.TransportMapping;
 import com.beyond.jgit.util.*;
 import com.beyond.jgit.util.commitchain.CommitChainItem;
-import com.beyond.jgit.util.commitchain.CommitChainItemLazy;
 import com.beyond.jgit.util.commitchain.CommitChainItemSingleParent;
 import com.beyond.jgit.util.commitchain.CommitChainUtils;
 import lombok.Data;
@@ -26,12 +39,15 @@ import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import static com.beyond.jgit.util.commitchain.CommitChainUtils.*;
@@ -51,18 +67,24 @@ public class GitLite {
     private final Map<String, Storage> remoteStorageMap;
 
     private final GitLiteConfig config;
+    /**
+     * 未开启分块存储时为null
+     */
+    private final FastCdcChunker chunker;
 
     public GitLite(GitLiteConfig config) {
         this.config = config;
-        this.objectManager = new ObjectManager(config.getObjectsDir());
-        this.indexManager = new IndexManager(config.getIndexPath());
-        this.localLogManager = new LogManager(PathUtils.concat(config.getLogsHeadsDir(), "master.json"));
+        this.objectManager = new ObjectManager(config.getObjectsDir(), config);
+        this.chunker = config.getChunkedBlobThreshold() > 0 ? new FastCdcChunker(config.getChunkAverageSize()) : null;
+        boolean fsync = config.getDurability() != GitLiteConfig.Durability.NONE;
+        this.indexManager = new IndexManager(config.getIndexPath(), fsync);
+        this.localLogManager = new LogManager(PathUtils.concat(config.getLogsHeadsDir(), "master.json"), fsync);
 
         this.remoteLogManagerMap = new HashMap<>();
         this.remoteStorageMap = new HashMap<>();
 
         for (GitLiteConfig.RemoteConfig remoteConfig : config.getRemoteConfigs()) {
-            remoteLogManagerMap.put(remoteConfig.getRemoteName(), new LogManager(PathUtils.concat(config.getLogsRemotesDir(), remoteConfig.getRemoteName(), "master.json")));
+            remoteLogManagerMap.put(remoteConfig.getRemoteName(), new LogManager(PathUtils.concat(config.getLogsRemotesDir(), remoteConfig.getRemoteName(), "master.json"), fsync));
             if (remoteConfig.getRemoteUrl().startsWith("http://") || remoteConfig.getRemoteUrl().startsWith("https://")) {
                 if (StringUtils.isNotBlank(remoteConfig.getRemoteTmpDir())) {
                     remoteStorageMap.put(remoteConfig.getRemoteName(),
@@ -83,6 +105,14 @@ public class GitLite {
         }
     }
 
+    public GitLiteConfig getConfig() {
+        return config;
+    }
+
+    public ObjectManager getObjectManager() {
+        return objectManager;
+    }
+
     public void init() throws IOException {
         mkdirIfNotExists(config.getLocalDir());
         mkdirIfNotExists(config.getGitDir());
@@ -119,20 +149,83 @@ public class GitLite {
             }
         }
 
-        Index index = new Index();
+        List<File> blobFiles = new ArrayList<>();
         for (File file : Objects.requireNonNull(files)) {
             if (file.isFile()) {
-                ObjectEntity objectEntity = addBlobObject(file);
-                String objectId = ObjectUtils.sha1hash(objectEntity);
-                Index.Entry entry = new Index.Entry();
-                entry.setPath(PathUtils.getRelativePath(config.getLocalDir(), file.getAbsolutePath()));
-                entry.setObjectId(objectId);
-                index.getEntries().add(entry);
+                blobFiles.add(file);
+            }
+        }
+
+        Index index = new Index();
+        IndexFile statCache = IndexManager.openStatCache(config.getIndexPath());
+        int threads = Math.min(config.getAddThreads(), blobFiles.size());
+        if (threads <= 1) {
+            for (File file : blobFiles) {
+                index.getEntries().add(addIndexEntry(file, statCache));
+            }
+        } else {
+            // 每个文件的hash和压缩互不依赖, 分给多个线程, 每个文件只读一遍
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Index.Entry>> futures = new ArrayList<>(blobFiles.size());
+                for (File file : blobFiles) {
+                    futures.add(executor.submit(() -> addIndexEntry(file, statCache)));
+                }
+                for (Future<Index.Entry> future : futures) {
+                    index.getEntries().add(getAddResult(future));
+                }
+            } finally {
+                executor.shutdownNow();
             }
         }
+        index.getEntries().sort(Comparator.comparing(Index.Entry::getPath));
+        // index也是发布点, commit可能在另一个实例中执行, 它只会刷自己写入的object
+        objectManager.sync();
         indexManager.save(index);
     }
 
+    /**
+     * stat与上次add时一致且object还在的文件不再hash
+     */
+    private Index.Entry addIndexEntry(File file, IndexFile statCache) throws IOException {
+        String path = PathUtils.getRelativePath(config.getLocalDir(), file.getAbsolutePath());
+        FileStat stat = FileStat.of(file);
+        boolean chunked = chunker != null && stat.getSize() >= config.getChunkedBlobThreshold();
+        Index.Entry cached = statCache == null ? null : statCache.findCleanEntry(path, stat);
+        if (cached != null && (cached.getFlag() == Index.Entry.Flag.CHUNKED) == chunked && objectManager.exists(cached.getObjectId())) {
+            return cached;
+        }
+        Index.Entry entry = new Index.Entry();
+        entry.setPath(path);
+        entry.setStat(stat);
+        if (chunked) {
+            entry.setObjectId(ChunkedBlobs.write(objectManager, file, chunker));
+            entry.setFlag(Index.Entry.Flag.CHUNKED);
+            log.debug(file.getName() + " chunked " + entry.getObjectId());
+        } else {
+            entry.setObjectId(addBlobObject(file));
+        }
+        return entry;
+    }
+
+    private static Index.Entry getAddResult(Future<Index.Entry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("add interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
     public String commit(String message) throws IOException {
         return commit(IndexManager.parseIndex(config.getIndexPath()), message);
     }
@@ -148,8 +241,13 @@ public class GitLite {
 
         ObjectEntity tree = addTreeFromIndex(index);
         ObjectEntity commit = addCommitObject(tree, message);
+        // ref发布前, 本次写入的object必须已落盘
+        objectManager.sync();
         File headRefFile = getHeadRefFile();
-        FileUtils.writeStringToFile(headRefFile, ObjectUtils.sha1hash(commit), StandardCharsets.UTF_8);
+        File headRefLockFile = new File(headRefFile.getAbsolutePath() + ".lock");
+        FileUtils.writeStringToFile(headRefLockFile, ObjectUtils.sha1hash(commit), StandardCharsets.UTF_8);
+        publishRef(headRefLockFile, headRefFile);
+        objectManager.updateCommitGraph(ObjectUtils.sha1hash(commit));
 
         // log
         CommitObjectData commitObjectData = CommitObjectData.parseFrom(commit.getData());
@@ -159,16 +257,10 @@ public class GitLite {
         return new String(commit.getData());
     }
 
-    private ObjectEntity addBlobObject(File file) throws IOException {
-        BlobObjectData blobObjectData = new BlobObjectData();
-        blobObjectData.setData(FileUtils.readFileToByteArray(file));
-
-        ObjectEntity objectEntity = new ObjectEntity();
-        objectEntity.setType(ObjectEntity.Type.blob);
-        objectEntity.setData(blobObjectData.toBytes());
-        String objectId = objectManager.write(objectEntity);
+    private String addBlobObject(File file) throws IOException {
+        String objectId = objectManager.writeBlob(file);
         log.debug(file.getName() + " " + objectId);
-        return objectEntity;
+        return objectId;
     }
 
     private ObjectEntity addTreeFromIndex(Index index) throws IOException {
@@ -182,6 +274,7 @@ public class GitLite {
             File file = new File(config.getLocalDir(), entry.getPath());
             FileNode fileNode = new FileNode(file);
             fileNode.setObjectId(entry.getObjectId());
+            fileNode.setChunked(entry.getFlag() == Index.Entry.Flag.CHUNKED);
             walkUp(fileNode, root, nodes);
         }
 
@@ -208,7 +301,7 @@ public class GitLite {
             TreeObjectData.TreeEntry treeEntry = new TreeObjectData.TreeEntry();
             treeEntry.setType(child.getType());
             treeEntry.setName(child.getFileName());
-            treeEntry.setMode(ObjectUtils.getModeByType(child.getType()));
+            treeEntry.setMode(child.isChunked() ? ObjectUtils.CHUNKED_BLOB_MODE : ObjectUtils.getModeByType(child.getType()));
             treeEntry.setObjectId(child.getObjectId());
             entries.add(treeEntry);
         }
@@ -264,6 +357,36 @@ public class GitLite {
     }
 
 
+    /**
+     * 将loose object打包, 减少objects目录下的小文件, 同时为当前head保存可达性bitmap
+     */
+    public void repack() throws IOException {
+        File packFile = objectManager.packLooseObjects();
+        if (packFile == null) {
+            log.info("no loose objects, no repack");
+        }
+        String localCommitObjectId = findLocalCommitObjectId();
+        if (localCommitObjectId != null && !objectManager.getBitmapIndex().hasBitmap(ObjectId.fromString(localCommitObjectId))) {
+            objectManager.saveBitmaps(new ReachabilityWalker(objectManager), localCommitObjectId);
+        }
+    }
+
+
+    /**
+     * 删除refs/logs/index都不可达且超过保护期的object, 并将其余object重新打包为一个pack
+     */
+    public GcResult gc() throws IOException {
+        return new GarbageCollector(config, objectManager).run();
+    }
+
+    /**
+     * 校验所有object的hash和结构, 以及refs/logs指向的commit是否存在, 只读不修复
+     */
+    public FsckResult fsck() throws IOException {
+        return new Fsck(config, objectManager).run();
+    }
+
+
     //todo
     public void clone(String remoteName) throws IOException {
         Storage remoteStorage = remoteStorageMap.get(remoteName);
@@ -297,8 +420,7 @@ public class GitLite {
             }
         });
 
-        ObjectEntity commitObjectEntity = objectManager.read(webRemoteLatestCommitObjectId);
-        CommitObjectData commitObjectData = CommitObjectData.parseFrom(commitObjectEntity.getData());
+        CommitObjectData commitObjectData = objectManager.readCommit(webRemoteLatestCommitObjectId);
 
         LogItem logItem = new LogItem();
         logItem.setParentCommitObjectId(EMPTY_OBJECT_ID);
@@ -316,9 +438,11 @@ public class GitLite {
             localLogManager.writeToLock(Collections.singletonList(logItem));
             FileUtils.write(refsHeadLockFile, webRemoteLatestCommitObjectId, StandardCharsets.UTF_8);
 
+            objectManager.sync();
             remoteLogManager.commit();
             localLogManager.commit();
-            Files.move(refsHeadLockFile.toPath(), new File(PathUtils.concat(config.getRefsHeadsDir(), "master")).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            publishRef(refsHeadLockFile, new File(PathUtils.concat(config.getRefsHeadsDir(), "master")));
+            objectManager.updateCommitGraph(webRemoteLatestCommitObjectId);
 
         } catch (Exception e) {
             log.error("clone fail", e);
@@ -362,10 +486,13 @@ public class GitLite {
         if (remoteHeadFile.exists() && logs != null) {
             String remoteHeadObjectId = FileUtils.readFileToString(remoteHeadFile, StandardCharsets.UTF_8);
             String remoteHeadLockObjectId = FileUtils.readFileToString(remoteHeadLockFile, StandardCharsets.UTF_8);
-            Set<String> remotePushedObjectIds = logs.stream().map(LogItem::getCommitObjectId).collect(Collectors.toSet());
+            ObjectIdSet remotePushedObjectIds = new ObjectIdSet(logs.size());
+            for (LogItem logItem : logs) {
+                remotePushedObjectIds.add(logItem.getCommitObjectId());
+            }
             if (Objects.equals(remoteHeadObjectId, remoteHeadLockObjectId) || remotePushedObjectIds.contains(remoteHeadLockObjectId)) {
                 log.warn("Already up to date.");
-                Files.move(remoteHeadLockFile.toPath(), remoteHeadFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                publishRef(remoteHeadLockFile, remoteHeadFile);
                 return;
             }
         }
@@ -375,7 +502,7 @@ public class GitLite {
         String remoteLockCommitObjectId = findRemoteLockCommitObjectId(remoteName);
         if (!remoteHeadFile.exists() || logs == null) {
             log.warn("local/remote log is empty, no fetch");
-            Files.move(remoteHeadLockFile.toPath(), remoteHeadFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            publishRef(remoteHeadLockFile, remoteHeadFile);
             return;
         }
         // 去remoteLog, remoteLog只在本地存,不上传. 改用commitObject中的parent获取提交链
@@ -389,7 +516,9 @@ public class GitLite {
 
 
         // update head
-        Files.move(remoteHeadLockFile.toPath(), remoteHeadFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        objectManager.sync();
+        publishRef(remoteHeadLockFile, remoteHeadFile);
+        objectManager.updateCommitGraph(remoteLockCommitObjectId);
 
     }
 
@@ -407,37 +536,49 @@ public class GitLite {
         if (Objects.equals(newerCommitObjectId, EMPTY_OBJECT_ID)) {
             return;
         }
-        File objectFile = ObjectUtils.getObjectFile(config.getObjectsDir(), newerCommitObjectId);
-        if (!objectFile.exists()) {
-            FileUtils.forceMkdirParent(objectFile);
-            remoteStorage.download(PathUtils.concat("objects", ObjectUtils.path(newerCommitObjectId)), objectFile);
+        if (!objectManager.exists(newerCommitObjectId)) {
+            downloadObject(newerCommitObjectId, remoteStorage);
         }
-        ObjectEntity commitObjectEntity = objectManager.read(newerCommitObjectId);
-        List<String> parents = CommitObjectData.parseFrom(commitObjectEntity.getData()).getParents();
+        List<String> parents = objectManager.readCommitHeader(newerCommitObjectId).getParents();
         //  merge时会有多个
         for (String parent : parents) {
             downloadCommitObjectsBetween(parent, olderCommitObjectId, remoteStorage);
         }
     }
 
+    /**
+     * 先下载到临时文件, 完整后再放入objects目录, 同时更新objectManager的存在性过滤器
+     */
+    private void downloadObject(String objectId, Storage remoteStorage) throws IOException {
+        File objectsDir = new File(config.getObjectsDir());
+        FileUtils.forceMkdir(objectsDir);
+        File tmpFile = File.createTempFile("tmp_obj_", ".tmp", objectsDir);
+        try {
+            remoteStorage.download(PathUtils.concat("objects", ObjectUtils.path(objectId)), tmpFile);
+            objectManager.addLooseObjectFile(objectId, tmpFile);
+        } finally {
+            FileUtils.deleteQuietly(tmpFile);
+        }
+    }
+
     private void downloadByObjectIdRecursive(String objectId, Storage remoteStorage) throws IOException {
-        File objectFile = ObjectUtils.getObjectFile(config.getObjectsDir(), objectId);
-        if (!objectFile.exists()) {
-            FileUtils.forceMkdirParent(objectFile);
-            remoteStorage.download(PathUtils.concat("objects", ObjectUtils.path(objectId)), objectFile);
+        if (!objectManager.exists(objectId)) {
+            downloadObject(objectId, remoteStorage);
         }
         ObjectEntity objectEntity = objectManager.read(objectId);
         switch (objectEntity.getType()) {
             case commit:
-                CommitObjectData commitObjectData = CommitObjectData.parseFrom(objectEntity.getData());
-                String tree = commitObjectData.getTree();
+                String tree = objectManager.readCommitHeader(objectId).getTree();
                 downloadByObjectIdRecursive(tree, remoteStorage);
                 break;
             case tree:
-                TreeObjectData treeObjectData = TreeObjectData.parseFrom(objectEntity.getData());
-                List<TreeObjectData.TreeEntry> entries = treeObjectData.getEntries();
-                for (TreeObjectData.TreeEntry entry : entries) {
-                    downloadByObjectIdRecursive(entry.getObjectId(), remoteStorage);
+                TreeCursor cursor = objectManager.openTree(objectId);
+                while (cursor.next()) {
+                    if (cursor.isChunkedBlob()) {
+                        downloadChunkedBlob(cursor.getObjectIdString(), remoteStorage);
+                    } else {
+                        downloadByObjectIdRecursive(cursor.getObjectIdString(), remoteStorage);
+                    }
                 }
                 break;
             case blob:
@@ -449,9 +590,24 @@ public class GitLite {
 
     }
 
+    /**
+     * 下载manifest和本地还没有的块, 中断后重新fetch时会补齐缺少的块
+     */
+    private void downloadChunkedBlob(String manifestObjectId, Storage remoteStorage) throws IOException {
+        if (!objectManager.exists(manifestObjectId)) {
+            downloadObject(manifestObjectId, remoteStorage);
+        }
+        for (ChunkManifest.Chunk chunk : objectManager.readChunkManifest(manifestObjectId).getChunks()) {
+            if (!objectManager.exists(chunk.getObjectId())) {
+                downloadObject(chunk.getObjectId(), remoteStorage);
+            }
+        }
+    }
+
     public void checkout(String commitObjectId) throws IOException {
         Index targetIndex = Index.generateFromCommit(commitObjectId, objectManager);
-        Index localIndex = Index.generateFromLocalDir(config.getLocalDir());
+        Index localIndex = Index.generateFromLocalDir(config.getLocalDir(), chunker, config.getChunkedBlobThreshold(),
+                IndexManager.openStatCache(config.getIndexPath()));
 
         IndexDiffResult diff = IndexDiffer.diff(targetIndex, localIndex);
         Set<Index.Entry> removed = diff.getRemoved();
@@ -462,16 +618,44 @@ public class GitLite {
         List<Index.Entry> changedEntries = new ArrayList<>();
         changedEntries.addAll(diff.getAdded());
         changedEntries.addAll(diff.getUpdated());
+        Set<String> writtenPaths = new HashSet<>();
         for (Index.Entry entry : changedEntries) {
             String absPath = PathUtils.concat(config.getLocalDir(), entry.getPath());
-            ObjectEntity objectEntity = objectManager.read(entry.getObjectId());
-            if (objectEntity.getType() == ObjectEntity.Type.blob) {
-                BlobObjectData blobObjectData = BlobObjectData.parseFrom(objectEntity.getData());
-                FileUtils.writeByteArrayToFile(new File(absPath), blobObjectData.getData());
+            if (entry.getFlag() == Index.Entry.Flag.CHUNKED) {
+                File file = new File(absPath);
+                FileUtils.forceMkdirParent(file);
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                    ChunkedBlobs.copyTo(objectManager, entry.getObjectId(), out);
+                }
+                writtenPaths.add(entry.getPath());
+                continue;
+            }
+            ObjectLoader loader = objectManager.open(entry.getObjectId());
+            if (loader.getType() == ObjectEntity.Type.blob) {
+                File file = new File(absPath);
+                FileUtils.forceMkdirParent(file);
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                    loader.copyTo(out);
+                }
+                writtenPaths.add(entry.getPath());
             }
         }
 
+        // 记录工作区文件的stat, 下次add/checkout时未变的文件不必再hash
         Index index = Index.generateFromCommit(commitObjectId, objectManager);
+        if (index != null) {
+            Map<String, Index.Entry> localEntries = localIndex.getEntries().stream().collect(Collectors.toMap(Index.Entry::getPath, x -> x));
+            for (Index.Entry entry : index.getEntries()) {
+                if (writtenPaths.contains(entry.getPath())) {
+                    entry.setStat(FileStat.of(new File(PathUtils.concat(config.getLocalDir(), entry.getPath()))));
+                    continue;
+                }
+                Index.Entry localEntry = localEntries.get(entry.getPath());
+                if (localEntry != null && localEntry.equals(entry)) {
+                    entry.copyStat(localEntry);
+                }
+            }
+        }
         indexManager.save(index);
     }
 
@@ -493,52 +677,7 @@ public class GitLite {
             return;
         }
 
-        String intersectionCommitObjectId = null;
-
-        if (localCommitObjectId != null && remoteCommitObjectId != null) {
-            Set<String> localCommitObjectIds = new HashSet<>();
-            localCommitObjectIds.add(localCommitObjectId);
-            Set<String> remoteCommitObjectIds = new HashSet<>();
-            remoteCommitObjectIds.add(remoteCommitObjectId);
-
-            List<CommitChainItemLazy> localCommitChainItemLazys = new ArrayList<>();
-            localCommitChainItemLazys.add(new CommitChainItemLazy(localCommitObjectId, objectManager));
-            List<CommitChainItemLazy> remoteCommitChainItemLazys = new ArrayList<>();
-            remoteCommitChainItemLazys.add(new CommitChainItemLazy(remoteCommitObjectId, objectManager));
-            for (; ; ) {
-                List<CommitChainItemLazy> newLocalCommitChainItemLazys = new ArrayList<>();
-                for (CommitChainItemLazy localLazy : localCommitChainItemLazys) {
-                    Set<String> localParents = localLazy.getParents().stream().map(CommitChainItem::getCommitObjectId).collect(Collectors.toSet());
-                    for (String localParent : localParents) {
-                        if (remoteCommitObjectIds.contains(localParent)) {
-                            intersectionCommitObjectId = localParent;
-                            break;
-                        }
-                        localCommitObjectIds.add(localParent);
-                        newLocalCommitChainItemLazys.add(new CommitChainItemLazy(localParent, objectManager));
-                    }
-                }
-                localCommitChainItemLazys = newLocalCommitChainItemLazys;
-
-                List<CommitChainItemLazy> newRemoteCommitChainItemLazys = new ArrayList<>();
-                for (CommitChainItemLazy remoteLazy : remoteCommitChainItemLazys) {
-                    Set<String> remoteParents = remoteLazy.getParents().stream().map(CommitChainItem::getCommitObjectId).collect(Collectors.toSet());
-                    for (String remoteParent : remoteParents) {
-                        if (localCommitObjectIds.contains(remoteParent)) {
-                            intersectionCommitObjectId = remoteParent;
-                            break;
-                        }
-                        remoteCommitObjectIds.add(remoteParent);
-                        newLocalCommitChainItemLazys.add(new CommitChainItemLazy(remoteParent, objectManager));
-                    }
-                }
-                remoteCommitChainItemLazys = newRemoteCommitChainItemLazys;
-
-                if (CollectionUtils.isEmpty(localCommitChainItemLazys) && CollectionUtils.isEmpty(remoteCommitChainItemLazys)) {
-                    break;
-                }
-            }
-        }
+        String intersectionCommitObjectId = MergeBase.find(objectManager, localCommitObjectId, remoteCommitObjectId);
 
         if (intersectionCommitObjectId == null) {
             log.warn("no intersectionCommitObjectId, remote log is empty, cover.");
@@ -599,6 +738,7 @@ public class GitLite {
         log.debug(JsonUtils.writeValueAsString(committedHeadIndex));
         log.debug(JsonUtils.writeValueAsString(remoteHeadIndex));
 
+        objectManager.sync();
         indexManager.save(committedHeadIndex);
 
         commit("merge");
@@ -614,6 +754,17 @@ public class GitLite {
         return StringUtils.trim(FileUtils.readFileToString(file, StandardCharsets.UTF_8));
     }
 
+    /**
+     * 将lock文件rename为ref, BATCH模式下rename前后fsync
+     */
+    private void publishRef(File lockFile, File refFile) throws IOException {
+        if (config.getDurability() == GitLiteConfig.Durability.NONE) {
+            Files.move(lockFile.toPath(), refFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            FileUtil.fsyncAndMove(lockFile, refFile);
+        }
+    }
+
     private File getHeadRefFile() throws IOException {
         String headPath = config.getHeadPath();
         String ref = FileUtils.readFileToString(new File(headPath), StandardCharsets.UTF_8);
@@ -671,6 +822,106 @@ public class GitLite {
 //        checkWebRemoteStatus(remoteName, remoteStorage, remoteLogManager);
 
 
+        ReachabilityWalker walker = new ReachabilityWalker(objectManager);
+        List<String> objectIdsToUpload = findObjectIdsToPushByBitmap(walker, localCommitObjectId, remoteCommitObjectId);
+        if (objectIdsToUpload == null) {
+            objectIdsToUpload = findObjectIdsToPushByIndexDiff(localCommitObjectId, remoteCommitObjectId);
+        }
+        if (objectIdsToUpload.isEmpty()) {
+            log.info("nothing changed, no push");
+            return;
+        }
+        Set<String> dirs = objectIdsToUpload.stream().map(x -> PathUtils.parent(ObjectUtils.path(x))).map(x -> PathUtils.concat("objects", x)).collect(Collectors.toSet());
+        remoteStorage.mkdir(dirs);
+
+        // upload with session, dont resort
+        // 没有loose文件的object先写出临时文件再上传, 上传后删除
+        List<TransportMapping> mappings = new ArrayList<>();
+        List<File> tmpFiles = new ArrayList<>();
+        try {
+            for (String objectId : objectIdsToUpload) {
+                File file = objectManager.findLooseObjectFile(objectId);
+                if (file == null) {
+                    file = objectManager.writeTempObjectFile(objectId);
+                    tmpFiles.add(file);
+                }
+                mappings.add(TransportMapping.of(file.getAbsolutePath(), PathUtils.concat("objects", ObjectUtils.path(objectId))));
+            }
+            remoteStorage.uploadBatch(mappings);
+        } finally {
+            tmpFiles.forEach(FileUtils::deleteQuietly);
+        }
+
+        // 3. 写remote日志(异常回退)
+        LogItem localCommitLogItem = localLogManager.getLogs().stream().filter(x -> Objects.equals(x.getCommitObjectId(), localCommitObjectId)).findFirst().orElse(null);
+        if (localCommitLogItem == null) {
+            throw new RuntimeException("log file error, maybe missing some commit");
+        }
+        List<LogItem> remoteLogs = remoteLogManager.getLogs();
+        LogItem remoteLogItem = new LogItem();
+        if (remoteLogs == null) {
+            remoteLogItem.setParentCommitObjectId(EMPTY_OBJECT_ID);
+        } else {
+            remoteLogItem.setParentCommitObjectId(remoteCommitObjectId);
+        }
+        remoteLogItem.setCommitObjectId(localCommitLogItem.getCommitObjectId());
+        remoteLogItem.setCommitterName(localCommitLogItem.getCommitterName());
+        remoteLogItem.setCommitterEmail(localCommitLogItem.getCommitterEmail());
+        remoteLogItem.setMessage("push");
+        remoteLogItem.setMtime(System.currentTimeMillis());
+
+        String currRemoteRefsDir = PathUtils.concat(config.getRefsRemotesDir(), remoteName);
+        File remoteHeadFile = new File(currRemoteRefsDir, "master");
+        File remoteHeadLockFile = new File(remoteHeadFile.getAbsolutePath() + ".lock");
+
+        try {
+            remoteLogManager.lock();
+            remoteLogManager.appendToLock(remoteLogItem);
+
+            // 5. 修改本地remote的head(异常回退)
+            FileUtils.copyFile(new File(PathUtils.concat(config.getRefsHeadsDir(), "master")), remoteHeadLockFile);
+            FileUtils.writeStringToFile(remoteHeadLockFile, localCommitObjectId, StandardCharsets.UTF_8);
+
+            // 6. 上传remote的head
+            //  upload remote head lock to remote head
+            remoteStorage.upload(new File(PathUtils.concat(config.getRefsHeadsDir(), "master")),
+                    PathUtils.concat("refs", "remotes", remoteName, "master"));
+
+            publishRef(remoteHeadLockFile, remoteHeadFile);
+            remoteLogManager.commit();
+            objectManager.saveBitmaps(walker, localCommitObjectId);
+        } catch (Exception e) {
+            log.error("上传head失败", e);
+            FileUtils.deleteQuietly(remoteHeadLockFile);
+            remoteLogManager.rollback();
+            throw e;
+        }
+    }
+
+
+    /**
+     * 用可达性bitmap计算需要上传的object: 从local可达但从remote不可达的. 不是快进或遍历失败时返回null
+     */
+    private List<String> findObjectIdsToPushByBitmap(ReachabilityWalker walker, String localCommitObjectId, String remoteCommitObjectId) {
+        try {
+            if (remoteCommitObjectId != null && !Objects.equals(MergeBase.find(objectManager, localCommitObjectId, remoteCommitObjectId), remoteCommitObjectId)) {
+                return null;
+            }
+            BitSet toPush = walker.reachable(localCommitObjectId);
+            if (remoteCommitObjectId != null) {
+                toPush.andNot(walker.reachable(remoteCommitObjectId));
+            }
+            return walker.toObjectIds(toPush);
+        } catch (IOException | RuntimeException e) {
+            log.warn("find objects to push by bitmap fail, fallback to index diff", e);
+            return null;
+        }
+    }
+
+    /**
+     * 逐个commit生成index并对比, 得到变化的blob, tree和commit
+     */
+    private List<String> findObjectIdsToPushByIndexDiff(String localCommitObjectId, String remoteCommitObjectId) throws IOException {
         // fixme: clone 之后这里找不到parent的object, clone的时候要下载所有objects? 上传时再上传一个压缩包？
         CommitChainItem chainHead = getCommitChainHead(localCommitObjectId, remoteCommitObjectId, objectManager);
         List<List<CommitChainItem>> chains = getChainPaths(chainHead);
@@ -686,6 +937,8 @@ public class GitLite {
         }
 
         IndexDiffResult combinedDiff = new IndexDiffResult();
+        // 被更新的分块文件的旧版本, 它们的块remote已经有了
+        Set<String> baseChunkedObjectIds = new HashSet<>();
         for (List<CommitChainItemSingleParent> chainPath : singleParentChainPaths) {
             for (CommitChainItemSingleParent commitChainItem : chainPath) {
                 Index thisIndex = Index.generateFromCommit(commitChainItem.getCommitObjectId(), objectManager);
@@ -697,6 +950,14 @@ public class GitLite {
                 }
                 IndexDiffResult committedDiff = IndexDiffer.diff(thisIndex, parentIndex);
                 log.debug("committedDiff to push: {}", JsonUtils.writeValueAsString(committedDiff));
+                if (parentIndex != null) {
+                    Set<String> updatedPaths = committedDiff.getUpdated().stream().map(Index.Entry::getPath).collect(Collectors.toSet());
+                    for (Index.Entry entry : parentIndex.getEntries()) {
+                        if (entry.getFlag() == Index.Entry.Flag.CHUNKED && updatedPaths.contains(entry.getPath())) {
+                            baseChunkedObjectIds.add(entry.getObjectId());
+                        }
+                    }
+                }
 
                 // 2. 上传objects
                 combinedDiff.getAdded().addAll(committedDiff.getAdded());
@@ -706,8 +967,7 @@ public class GitLite {
         }
 
         if (!combinedDiff.isChanged()) {
-            log.info("nothing changed, no push");
-            return;
+            return Collections.emptyList();
         }
 
         Set<Index.Entry> changedEntries = new HashSet<>();
@@ -716,8 +976,24 @@ public class GitLite {
 
         //  upload
         List<String> objectIdsToUpload = new ArrayList<>();
-        Set<String> dirs = changedEntries.stream().map(x -> PathUtils.parent(ObjectUtils.path(x.getObjectId()))).map(x -> PathUtils.concat("objects", x)).collect(Collectors.toSet());
-        remoteStorage.mkdir(dirs);
+        Set<String> baseChunkObjectIds = new HashSet<>();
+        for (String baseChunkedObjectId : baseChunkedObjectIds) {
+            for (ChunkManifest.Chunk chunk : objectManager.readChunkManifest(baseChunkedObjectId).getChunks()) {
+                baseChunkObjectIds.add(chunk.getObjectId());
+            }
+        }
+        Set<String> chunkObjectIdsToUpload = new LinkedHashSet<>();
+        for (Index.Entry changedEntry : changedEntries) {
+            if (changedEntry.getFlag() == Index.Entry.Flag.CHUNKED) {
+                for (ChunkManifest.Chunk chunk : objectManager.readChunkManifest(changedEntry.getObjectId()).getChunks()) {
+                    if (!baseChunkObjectIds.contains(chunk.getObjectId())) {
+                        chunkObjectIdsToUpload.add(chunk.getObjectId());
+                    }
+                }
+            }
+        }
+        // 块在manifest之前上传
+        objectIdsToUpload.addAll(chunkObjectIdsToUpload);
         for (Index.Entry changedEntry : changedEntries) {
             objectIdsToUpload.add(changedEntry.getObjectId());
         }
@@ -747,73 +1023,39 @@ public class GitLite {
             }
         }
 
-        // upload with session, dont resort
-        remoteStorage.uploadBatch(objectIdsToUpload.stream().map(x -> TransportMapping.of(ObjectUtils.getObjectPath(config.getObjectsDir(), x), PathUtils.concat("objects", ObjectUtils.path(x)))).collect(Collectors.toList()));
-
-        // 3. 写remote日志(异常回退)
-        LogItem localCommitLogItem = localLogManager.getLogs().stream().filter(x -> Objects.equals(x.getCommitObjectId(), localCommitObjectId)).findFirst().orElse(null);
-        if (localCommitLogItem == null) {
-            throw new RuntimeException("log file error, maybe missing some commit");
-        }
-        List<LogItem> remoteLogs = remoteLogManager.getLogs();
-        LogItem remoteLogItem = new LogItem();
-        if (remoteLogs == null) {
-            remoteLogItem.setParentCommitObjectId(EMPTY_OBJECT_ID);
-        } else {
-            remoteLogItem.setParentCommitObjectId(remoteCommitObjectId);
-        }
-        remoteLogItem.setCommitObjectId(localCommitLogItem.getCommitObjectId());
-        remoteLogItem.setCommitterName(localCommitLogItem.getCommitterName());
-        remoteLogItem.setCommitterEmail(localCommitLogItem.getCommitterEmail());
-        remoteLogItem.setMessage("push");
-        remoteLogItem.setMtime(System.currentTimeMillis());
-
-        String currRemoteRefsDir = PathUtils.concat(config.getRefsRemotesDir(), remoteName);
-        File remoteHeadFile = new File(currRemoteRefsDir, "master");
-        File remoteHeadLockFile = new File(remoteHeadFile.getAbsolutePath() + ".lock");
-
-        try {
-            remoteLogManager.lock();
-            remoteLogManager.appendToLock(remoteLogItem);
-
-            // 5. 修改本地remote的head(异常回退)
-            FileUtils.copyFile(new File(PathUtils.concat(config.getRefsHeadsDir(), "master")), remoteHeadLockFile);
-            FileUtils.writeStringToFile(remoteHeadLockFile, localCommitObjectId, StandardCharsets.UTF_8);
-
-            // 6. 上传remote的head
-            //  upload remote head lock to remote head
-            remoteStorage.upload(new File(PathUtils.concat(config.getRefsHeadsDir(), "master")),
-                    PathUtils.concat("refs", "remotes", remoteName, "master"));
-
-            Files.move(remoteHeadLockFile.toPath(), remoteHeadFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-            remoteLogManager.commit();
-        } catch (Exception e) {
-            log.error("上传head失败", e);
-            FileUtils.deleteQuietly(remoteHeadLockFile);
-            remoteLogManager.rollback();
-            throw e;
-        }
+        return objectIdsToUpload;
     }
 
-
     private void getChangedTreeObjectRecursive(String objectId, String path, Map<String, String> path2TreeObjectIdMap) throws IOException {
         ObjectEntity objectEntity = objectManager.read(objectId);
         switch (objectEntity.getType()) {
             case commit:
-                CommitObjectData commitObjectData = CommitObjectData.parseFrom(objectEntity.getData());
-                String tree = commitObjectData.getTree();
+                String tree = objectManager.readCommitHeader(objectId).getTree();
                 path2TreeObjectIdMap.put("", tree);
                 getChangedTreeObjectRecursive(tree, "", path2TreeObjectIdMap);
                 break;
             case tree:
-                TreeObjectData treeObjectData = TreeObjectData.parseFrom(objectEntity.getData());
-                List<TreeObjectData.TreeEntry> entries = treeObjectData.getEntries();
-                for (TreeObjectData.TreeEntry entry : entries) {
-                    if (entry.getType() == ObjectEntity.Type.tree) {
-                        String treePath = PathUtils.concat(path, entry.getName());
-                        path2TreeObjectIdMap.put(treePath, entry.getObjectId());
-                        getChangedTreeObjectRecursive(entry.getObjectId(), treePath, path2TreeObjectIdMap);
+                // 按层遍历, 同一层的tree并发读取
+                List<String> treeObjectIds = Collections.singletonList(objectId);
+                List<String> treePaths = Collections.singletonList(path);
+                while (!treeObjectIds.isEmpty()) {
+                    List<TreeCursor> cursors = objectManager.openTrees(treeObjectIds);
+                    List<String> nextTreeObjectIds = new ArrayList<>();
+                    List<String> nextTreePaths = new ArrayList<>();
+                    for (int i = 0; i < cursors.size(); i++) {
+                        TreeCursor cursor = cursors.get(i);
+                        while (cursor.next()) {
+                            if (cursor.isTree()) {
+                                String treePath = PathUtils.concat(treePaths.get(i), cursor.getName());
+                                String treeObjectId = cursor.getObjectIdString();
+                                path2TreeObjectIdMap.put(treePath, treeObjectId);
+                                nextTreeObjectIds.add(treeObjectId);
+                                nextTreePaths.add(treePath);
+                            }
+                        }
                     }
+                    treeObjectIds = nextTreeObjectIds;
+                    treePaths = nextTreePaths;
                 }
                 break;
             case blob:
@@ -848,6 +1090,7 @@ public class GitLite {
         private List<FileNode> children = new ArrayList<>();
         private String objectId;
         private ObjectEntity.Type type;
+        private boolean chunked;
 
         public FileNode(File file) {
             this.file = file;
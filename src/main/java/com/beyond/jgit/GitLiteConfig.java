@@ -4,6 +4,7 @@ import lombok.Data;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.Deflater;
 
 
 @Data
@@ -25,6 +26,121 @@ public class GitLiteConfig {
 
     private List<RemoteConfig> remoteConfigs = new ArrayList<>();
 
+    /**
+     * pack文件内存映射的窗口大小, 以及最多同时打开的窗口数
+     */
+    private int packedGitWindowSize = 8 * 1024 * 1024;
+    private int packedGitOpenWindows = 64;
+
+    /**
+     * 打包时delta相似度搜索的窗口大小(为0时不做delta), 以及delta链的最大长度
+     */
+    private int packDeltaWindow = 10;
+    private int packDeltaDepth = 50;
+
+    /**
+     * ObjectManager中解压后object缓存的最大字节数, 为0时不缓存
+     */
+    private long objectCacheBytes = 16 * 1024 * 1024;
+
+    /**
+     * 解析后的commit header缓存的最大条数, 为0时不缓存
+     */
+    private int parsedObjectCacheSize = 4096;
+
+    /**
+     * loose object的压缩级别(0-9, -1为zlib默认), 默认最快, add大量文件时压缩不成为瓶颈
+     */
+    private int looseCompressionLevel = Deflater.BEST_SPEED;
+
+    /**
+     * 打包时的压缩级别, 打包不在前台操作的关键路径上, 可以设为9换取更小的pack
+     */
+    private int packCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * 写入loose object和pack时先对开头一段试压缩, 压缩率差的(已压缩的图片, zip等)以level 0存储
+     */
+    private boolean adaptiveCompression = true;
+
+    /**
+     * add时并行hash和压缩文件的线程数, 为1时在调用线程中顺序执行
+     */
+    private int addThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * readAsync的io线程数, 线程空闲1分钟后退出; 为1时在调用线程中同步读取.
+     * 网络文件系统或冷缓存时调大, 让tree遍历同时发出多个读取
+     */
+    private int readThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 不小于这个大小(字节)的文件分块存储(FastCDC), 各版本间共享未变化的块; 为0时不分块
+     */
+    private long chunkedBlobThreshold = 0;
+
+    /**
+     * 分块的平均大小, 2的幂; 最小为1/4, 最大为4倍. 修改后已有的块无法与新版本共享
+     */
+    private int chunkAverageSize = 1024 * 1024;
+
+    /**
+     * object存储的后端, 默认为loose文件 + pack
+     */
+    private ObjectStorage objectStorage = ObjectStorage.LOOSE;
+
+    /**
+     * 写入的持久化保证, 默认不fsync
+     */
+    private Durability durability = Durability.NONE;
+
+    /**
+     * gc时不可达object的保护期(毫秒), mtime在此之内的不删除, 防止删掉并发的add/commit刚写入还未被引用的object
+     */
+    private long gcPruneExpire = 14L * 24 * 60 * 60 * 1000;
+
+    /**
+     * gc标记阶段并行遍历tree的线程数
+     */
+    private int gcThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 后台维护(MaintenanceScheduler)检查阈值的间隔(毫秒)
+     */
+    private long maintenanceCheckInterval = 60 * 1000;
+
+    /**
+     * loose object达到这个数量时做增量打包, 每次最多打包maintenanceRepackBatchSize个, 限制单次的io和cpu
+     */
+    private int maintenanceLooseObjectLimit = 1000;
+    private int maintenanceRepackBatchSize = 10000;
+
+    /**
+     * pack数超过maintenancePackLimit时合并最小的几个pack, 每次合并的pack总大小不超过maintenanceRepackMaxBytes
+     */
+    private int maintenancePackLimit = 50;
+    private long maintenanceRepackMaxBytes = 128L * 1024 * 1024;
+
+    /**
+     * 距上次gc超过这个时间(毫秒, 为0时不做)时做完整的gc
+     */
+    private long maintenanceGcInterval = 24L * 60 * 60 * 1000;
+
+    /**
+     * index/ref/log超过这个时间(毫秒)没有变化才视为空闲, 打包和gc只在空闲时执行, 不影响前台的commit
+     */
+    private long maintenanceIdleTime = 30 * 1000;
+
+    /**
+     * fsck校验object的线程数
+     */
+    private int fsckThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * fsck同时读入内存校验的tree/commit内容的总字节数上限, blob流式校验不计入
+     */
+    private int fsckMaxBytesInFlight = 64 * 1024 * 1024;
+
 
     @Data
     public static class RemoteConfig {
@@ -46,4 +162,30 @@ public class GitLiteConfig {
             this.remotePassword = remotePassword;
         }
     }
+
+    public enum ObjectStorage {
+        /**
+         * loose文件 + pack, 与git的目录结构相同
+         */
+        LOOSE,
+        /**
+         * 只在内存中, 用于测试和临时仓库
+         */
+        MEMORY,
+        /**
+         * 追加写入objects/objects.log单个文件, 只支持单进程访问
+         */
+        APPEND_LOG
+    }
+
+    public enum Durability {
+        /**
+         * 不主动fsync, 断电可能丢失最近写入的object, 且ref可能指向不完整的object
+         */
+        NONE,
+        /**
+         * 一次操作写入的object先不刷盘, 在发布ref/log之前统一fsync(先文件后目录), 每次commit只付出一批fsync的代价
+         */
+        BATCH
+    }
 }
@@ -0,0 +1,261 @@
+package com.beyond.jgit.bitmap;
+
+import com.beyond.jgit.object.ObjectId;
+import com.beyond.jgit.object.ObjectIdMap;
+import com.beyond.jgit.util.FileUtil;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 可达性bitmap文件, 为选中的commit保存从它可达的所有object. 结构:
+ * <pre>
+ * magic(4) | version(4) | objectCount(4) | objectIds(n * 20) | commitType(ewah) | treeType(ewah)
+ * | bitmapCount(4) | (commitId(20) | bitmap(ewah)) * m | checksum(20)
+ * ewah: wordCount(4) | words(wordCount * 8)
+ * </pre>
+ * bit的位置是object在objectIds中的下标. objectIds按第一次遍历到的顺序追加, 已有object的位置在遍历时不变.
+ * 写入时去掉不在任何bitmap中的object(丢弃的旧bitmap, gc删除的object), 其余的保持顺序重新编号, 编号只在同一个文件内有效.
+ * 不属于commitType和treeType的object都是blob.
+ */
+public class BitmapIndex {
+
+    static final byte[] MAGIC = {'B', 'I', 'T', 'M'};
+    static final int VERSION = 1;
+
+    private static final BitmapIndex EMPTY = new BitmapIndex(Collections.emptyList(), new BitSet(), new BitSet(), new LinkedHashMap<>());
+
+    private final List<ObjectId> objectIds;
+    private final ObjectIdMap<Integer> positions;
+    private final BitSet commitType;
+    private final BitSet treeType;
+    /**
+     * 按写入顺序, 越后面的越新
+     */
+    private final LinkedHashMap<ObjectId, long[]> bitmaps;
+    private final ObjectIdMap<long[]> bitmapLookup;
+
+    private BitmapIndex(List<ObjectId> objectIds, BitSet commitType, BitSet treeType, LinkedHashMap<ObjectId, long[]> bitmaps) {
+        this.objectIds = objectIds;
+        this.positions = new ObjectIdMap<>(objectIds.size());
+        for (int i = 0; i < objectIds.size(); i++) {
+            positions.put(objectIds.get(i), i);
+        }
+        this.commitType = commitType;
+        this.treeType = treeType;
+        this.bitmaps = bitmaps;
+        this.bitmapLookup = new ObjectIdMap<>(bitmaps.size());
+        bitmaps.forEach(bitmapLookup::put);
+    }
+
+    public static BitmapIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 文件不存在时返回空的index
+     */
+    public static BitmapIndex load(File file) throws IOException {
+        if (!file.exists()) {
+            return EMPTY;
+        }
+        byte[] data = FileUtils.readFileToByteArray(file);
+        if (data.length < 20) {
+            throw new IOException("bitmap index too short");
+        }
+        byte[] checksum = DigestUtils.getSha1Digest().digest(Arrays.copyOf(data, data.length - 20));
+        if (!Arrays.equals(checksum, Arrays.copyOfRange(data, data.length - 20, data.length))) {
+            throw new IOException("bitmap index checksum mismatch");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 20));
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION) {
+            throw new IOException("not a bitmap index");
+        }
+        int count = in.readInt();
+        List<ObjectId> objectIds = new ArrayList<>(count);
+        byte[] raw = new byte[ObjectId.RAW_LENGTH];
+        for (int i = 0; i < count; i++) {
+            in.readFully(raw);
+            objectIds.add(ObjectId.fromRaw(raw));
+        }
+        BitSet commitType = EwahCompression.decode(EwahCompression.read(in));
+        BitSet treeType = EwahCompression.decode(EwahCompression.read(in));
+        int bitmapCount = in.readInt();
+        LinkedHashMap<ObjectId, long[]> bitmaps = new LinkedHashMap<>();
+        for (int i = 0; i < bitmapCount; i++) {
+            in.readFully(raw);
+            bitmaps.put(ObjectId.fromRaw(raw), EwahCompression.read(in));
+        }
+        return new BitmapIndex(objectIds, commitType, treeType, bitmaps);
+    }
+
+    /**
+     * 先写lock文件再rename
+     *
+     * @param bitmaps 按从旧到新的顺序
+     */
+    public static BitmapIndex write(File file, List<ObjectId> objectIds, BitSet commitType, BitSet treeType,
+                                    LinkedHashMap<ObjectId, BitSet> bitmaps, boolean fsync) throws IOException {
+        BitSet used = new BitSet();
+        for (BitSet bitmap : bitmaps.values()) {
+            used.or(bitmap);
+        }
+        if (used.cardinality() < objectIds.size()) {
+            int[] remap = new int[objectIds.size()];
+            List<ObjectId> compactObjectIds = new ArrayList<>(used.cardinality());
+            for (int i = used.nextSetBit(0); i >= 0; i = used.nextSetBit(i + 1)) {
+                remap[i] = compactObjectIds.size();
+                compactObjectIds.add(objectIds.get(i));
+            }
+            LinkedHashMap<ObjectId, BitSet> compactBitmaps = new LinkedHashMap<>();
+            for (Map.Entry<ObjectId, BitSet> entry : bitmaps.entrySet()) {
+                compactBitmaps.put(entry.getKey(), renumber(entry.getValue(), remap));
+            }
+            commitType = renumber(commitType, used, remap);
+            treeType = renumber(treeType, used, remap);
+            objectIds = compactObjectIds;
+            bitmaps = compactBitmaps;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(objectIds.size());
+        byte[] raw = new byte[ObjectId.RAW_LENGTH];
+        for (ObjectId objectId : objectIds) {
+            objectId.copyRawTo(raw, 0);
+            out.write(raw);
+        }
+        EwahCompression.write(out, commitType);
+        EwahCompression.write(out, treeType);
+        out.writeInt(bitmaps.size());
+        LinkedHashMap<ObjectId, long[]> encoded = new LinkedHashMap<>();
+        for (Map.Entry<ObjectId, BitSet> entry : bitmaps.entrySet()) {
+            entry.getKey().copyRawTo(raw, 0);
+            out.write(raw);
+            long[] words = EwahCompression.encode(entry.getValue());
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+            encoded.put(entry.getKey(), words);
+        }
+        out.flush();
+        out.write(DigestUtils.getSha1Digest().digest(bytes.toByteArray()));
+
+        FileUtils.forceMkdirParent(file);
+        File lockFile = new File(file.getAbsolutePath() + ".lock");
+        if (!lockFile.createNewFile()) {
+            throw new IOException("bitmap index is locked: " + lockFile.getAbsolutePath());
+        }
+        try {
+            FileUtils.writeByteArrayToFile(lockFile, bytes.toByteArray());
+            if (fsync) {
+                FileUtil.fsyncAndMove(lockFile, file);
+            } else {
+                Files.move(lockFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            FileUtils.deleteQuietly(lockFile);
+        }
+        return new BitmapIndex(new ArrayList<>(objectIds), (BitSet) commitType.clone(), (BitSet) treeType.clone(), encoded);
+    }
+
+    private static BitSet renumber(BitSet bitSet, int[] remap) {
+        BitSet result = new BitSet();
+        for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1)) {
+            result.set(remap[i]);
+        }
+        return result;
+    }
+
+    private static BitSet renumber(BitSet bitSet, BitSet used, int[] remap) {
+        BitSet kept = (BitSet) bitSet.clone();
+        kept.and(used);
+        return renumber(kept, remap);
+    }
+
+    /**
+     * 只保留commit仍然存在的bitmap重新写入, 用于gc之后; 都存在时不重写
+     *
+     * @param existing gc标记的可达object
+     */
+    public BitmapIndex retain(File file, Set<ObjectId> existing, boolean fsync) throws IOException {
+        LinkedHashMap<ObjectId, BitSet> retained = new LinkedHashMap<>();
+        for (ObjectId commitId : bitmaps.keySet()) {
+            if (existing.contains(commitId)) {
+                retained.put(commitId, getBitmap(commitId));
+            }
+        }
+        if (retained.size() == bitmaps.size()) {
+            return this;
+        }
+        if (retained.isEmpty()) {
+            FileUtils.deleteQuietly(file);
+            return EMPTY;
+        }
+        return write(file, objectIds, commitType, treeType, retained, fsync);
+    }
+
+    public int getObjectCount() {
+        return objectIds.size();
+    }
+
+    public ObjectId getObjectId(int position) {
+        return objectIds.get(position);
+    }
+
+    /**
+     * @return 不存在时返回-1
+     */
+    public int findPosition(ObjectId objectId) {
+        Integer position = positions.get(objectId);
+        return position == null ? -1 : position;
+    }
+
+    public boolean isCommit(int position) {
+        return commitType.get(position);
+    }
+
+    public boolean isTree(int position) {
+        return treeType.get(position);
+    }
+
+    public boolean hasBitmap(ObjectId commitId) {
+        return bitmapLookup.containsKey(commitId);
+    }
+
+    /**
+     * @return 没有时返回null; 每次返回新解压的BitSet, 调用方可以修改
+     */
+    public BitSet getBitmap(ObjectId commitId) {
+        long[] encoded = bitmapLookup.get(commitId);
+        return encoded == null ? null : EwahCompression.decode(encoded);
+    }
+
+    /**
+     * 从旧到新
+     */
+    public List<ObjectId> getBitmapCommits() {
+        return new ArrayList<>(bitmaps.keySet());
+    }
+}
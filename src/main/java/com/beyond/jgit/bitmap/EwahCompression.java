@@ -0,0 +1,92 @@
+package com.beyond.jgit.bitmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * EWAH方式压缩bitmap: 按64位的word处理, 连续的全0/全1 word记为一段run, 其余原样保留为literal.
+ * 每组以一个marker word开头:
+ * <pre>
+ * bit 63: run的值 | bit 32-62: run的word数 | bit 0-31: 后面跟着的literal word数
+ * </pre>
+ * object按出现顺序编号, 相邻提交的bitmap大部分是连续的1, 压缩后通常只有原大小的几分之一.
+ */
+public class EwahCompression {
+
+    private static final long MAX_RUN = (1L << 31) - 1;
+    private static final long MAX_LITERALS = (1L << 32) - 1;
+
+    public static long[] encode(BitSet bitSet) {
+        long[] words = bitSet.toLongArray();
+        long[] out = new long[words.length + 1];
+        int length = 0;
+        int i = 0;
+        while (i < words.length) {
+            long runWord = words[i];
+            boolean runBit = runWord == -1L;
+            long run = 0;
+            if (runWord == 0 || runBit) {
+                while (i < words.length && words[i] == runWord && run < MAX_RUN) {
+                    run++;
+                    i++;
+                }
+            }
+            int literalStart = i;
+            while (i < words.length && words[i] != 0 && words[i] != -1L && i - literalStart < MAX_LITERALS) {
+                i++;
+            }
+            int literals = i - literalStart;
+            if (length + 1 + literals > out.length) {
+                out = Arrays.copyOf(out, Math.max(out.length * 2, length + 1 + literals));
+            }
+            out[length++] = (runBit ? 1L << 63 : 0) | run << 32 | literals;
+            System.arraycopy(words, literalStart, out, length, literals);
+            length += literals;
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    public static BitSet decode(long[] encoded) {
+        int total = 0;
+        for (int i = 0; i < encoded.length; ) {
+            long marker = encoded[i];
+            int literals = (int) (marker & MAX_LITERALS);
+            total += (int) ((marker >>> 32) & MAX_RUN) + literals;
+            i += 1 + literals;
+        }
+        long[] words = new long[total];
+        int p = 0;
+        for (int i = 0; i < encoded.length; ) {
+            long marker = encoded[i++];
+            int run = (int) ((marker >>> 32) & MAX_RUN);
+            int literals = (int) (marker & MAX_LITERALS);
+            if (marker < 0) {
+                Arrays.fill(words, p, p + run, -1L);
+            }
+            p += run;
+            System.arraycopy(encoded, i, words, p, literals);
+            p += literals;
+            i += literals;
+        }
+        return BitSet.valueOf(words);
+    }
+
+    public static void write(DataOutput out, BitSet bitSet) throws IOException {
+        long[] encoded = encode(bitSet);
+        out.writeInt(encoded.length);
+        for (long word : encoded) {
+            out.writeLong(word);
+        }
+    }
+
+    public static long[] read(DataInput in) throws IOException {
+        long[] encoded = new long[in.readInt()];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = in.readLong();
+        }
+        return encoded;
+    }
+}
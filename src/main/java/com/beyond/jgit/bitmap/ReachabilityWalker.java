@@ -0,0 +1,199 @@
+package com.beyond.jgit.bitmap;
+
+import com.beyond.jgit.GitLite;
+import com.beyond.jgit.chunk.ChunkManifest;
+import com.beyond.jgit.object.ObjectId;
+import com.beyond.jgit.object.ObjectIdMap;
+import com.beyond.jgit.object.ObjectManager;
+import com.beyond.jgit.object.data.CommitHeader;
+import com.beyond.jgit.object.data.TreeCursor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 用bitmap计算commit可达的object集合. 遇到已有bitmap的commit直接合并它的bitmap, 不再往下遍历,
+ * 只有之后新增的commit才需要遍历tree, 且已在集合中的子tree整个跳过.
+ * 新遇到的object追加到编号末尾, 与BitmapIndex中已有的位置兼容. 非线程安全.
+ */
+public class ReachabilityWalker {
+
+    private final ObjectManager objectManager;
+    private final BitmapIndex index;
+
+    private final List<ObjectId> objectIds = new ArrayList<>();
+    private final ObjectIdMap<Integer> newPositions = new ObjectIdMap<>();
+    private final BitSet commitType = new BitSet();
+    private final BitSet treeType = new BitSet();
+    private final ObjectIdMap<BitSet> computed = new ObjectIdMap<>();
+
+    public ReachabilityWalker(ObjectManager objectManager) {
+        this.objectManager = objectManager;
+        this.index = objectManager.getBitmapIndex();
+        for (int i = 0; i < index.getObjectCount(); i++) {
+            objectIds.add(index.getObjectId(i));
+            if (index.isCommit(i)) {
+                commitType.set(i);
+            }
+            if (index.isTree(i)) {
+                treeType.set(i);
+            }
+        }
+    }
+
+    /**
+     * 从commit可达的所有object(包括commit本身), 返回的BitSet可以修改
+     */
+    public BitSet reachable(String commitObjectId) throws IOException {
+        ObjectId start = ObjectId.fromString(commitObjectId);
+        BitSet known = bitmapOf(start);
+        if (known != null) {
+            return known;
+        }
+
+        // 先走commit, 合并所有边界上已有的bitmap, 再遍历新commit的tree, 能跳过的子tree最多
+        BitSet result = new BitSet();
+        List<CommitHeader> newCommits = new ArrayList<>();
+        Deque<ObjectId> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            ObjectId commitId = stack.pop();
+            int position = position(commitId);
+            if (position >= 0 && result.get(position)) {
+                continue;
+            }
+            BitSet bitmap = bitmapOf(commitId);
+            if (bitmap != null) {
+                result.or(bitmap);
+                continue;
+            }
+            result.set(add(commitId, commitType));
+            CommitHeader header = objectManager.readCommitHeader(commitId.name());
+            newCommits.add(header);
+            for (String parent : header.getParents()) {
+                if (!Objects.equals(parent, GitLite.EMPTY_OBJECT_ID)) {
+                    stack.push(ObjectId.fromString(parent));
+                }
+            }
+        }
+        for (CommitHeader header : newCommits) {
+            addTree(ObjectId.fromString(header.getTree()), result);
+        }
+        computed.put(start, (BitSet) result.clone());
+        return result;
+    }
+
+    /**
+     * 按blob, tree, commit的顺序, 上传时保证被引用的object先于引用它的object
+     */
+    public List<String> toObjectIds(BitSet bitSet) {
+        List<String> blobs = new ArrayList<>();
+        List<String> trees = new ArrayList<>();
+        List<String> commits = new ArrayList<>();
+        for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1)) {
+            String objectId = objectIds.get(i).name();
+            if (commitType.get(i)) {
+                commits.add(objectId);
+            } else if (treeType.get(i)) {
+                trees.add(objectId);
+            } else {
+                blobs.add(objectId);
+            }
+        }
+        List<String> result = new ArrayList<>(bitSet.cardinality());
+        result.addAll(blobs);
+        result.addAll(trees);
+        result.addAll(commits);
+        return result;
+    }
+
+    /**
+     * 保存commits的bitmap, 连同已有的一起写入文件; 超过maxBitmaps时丢弃最早的
+     */
+    public BitmapIndex save(File file, List<String> commitObjectIds, int maxBitmaps, boolean fsync) throws IOException {
+        LinkedHashMap<ObjectId, BitSet> bitmaps = new LinkedHashMap<>();
+        for (ObjectId commitId : index.getBitmapCommits()) {
+            bitmaps.put(commitId, index.getBitmap(commitId));
+        }
+        for (String commitObjectId : commitObjectIds) {
+            BitSet bitmap = reachable(commitObjectId);
+            ObjectId commitId = ObjectId.fromString(commitObjectId);
+            bitmaps.remove(commitId);
+            bitmaps.put(commitId, bitmap);
+        }
+        while (bitmaps.size() > maxBitmaps) {
+            bitmaps.remove(bitmaps.keySet().iterator().next());
+        }
+        return BitmapIndex.write(file, objectIds, commitType, treeType, bitmaps, fsync);
+    }
+
+    private void addTree(ObjectId treeId, BitSet result) throws IOException {
+        int position = add(treeId, treeType);
+        if (result.get(position)) {
+            // 集合中的tree, 它下面的object也都已在集合中
+            return;
+        }
+        result.set(position);
+        TreeCursor cursor = objectManager.openTree(treeId.name());
+        while (cursor.next()) {
+            if (cursor.isTree()) {
+                addTree(cursor.getObjectId(), result);
+            } else if (cursor.isChunkedBlob()) {
+                addChunkedBlob(cursor.getObjectId(), result);
+            } else {
+                result.set(add(cursor.getObjectId(), null));
+            }
+        }
+    }
+
+    /**
+     * 块先于manifest加入, 在toObjectIds中也排在manifest之前
+     */
+    private void addChunkedBlob(ObjectId manifestId, BitSet result) throws IOException {
+        int position = position(manifestId);
+        if (position >= 0 && result.get(position)) {
+            return;
+        }
+        for (ChunkManifest.Chunk chunk : objectManager.readChunkManifest(manifestId.name()).getChunks()) {
+            result.set(add(ObjectId.fromString(chunk.getObjectId()), null));
+        }
+        result.set(add(manifestId, null));
+    }
+
+    private BitSet bitmapOf(ObjectId commitId) {
+        BitSet bitmap = computed.get(commitId);
+        if (bitmap != null) {
+            return (BitSet) bitmap.clone();
+        }
+        return index.getBitmap(commitId);
+    }
+
+    private int position(ObjectId objectId) {
+        int position = index.findPosition(objectId);
+        if (position >= 0) {
+            return position;
+        }
+        Integer newPosition = newPositions.get(objectId);
+        return newPosition == null ? -1 : newPosition;
+    }
+
+    private int add(ObjectId objectId, BitSet type) {
+        int position = position(objectId);
+        if (position < 0) {
+            position = objectIds.size();
+            objectIds.add(objectId);
+            newPositions.put(objectId, position);
+            if (type != null) {
+                type.set(position);
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,86 @@
+package com.beyond.jgit.chunk;
+
+import com.beyond.jgit.object.ObjectId;
+import com.beyond.jgit.object.data.ObjectData;
+import lombok.Data;
+
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 分块存储的大文件的清单, 作为blob保存, tree中对应entry的mode为CHUNKED_BLOB_MODE. 结构:
+ * <pre>
+ * "CHNK" | version(4) | size(8) | chunkCount(4) | (objectId(20) | chunkSize(4))...
+ * </pre>
+ * 每个块是一个普通blob, 按顺序拼接得到文件内容.
+ */
+@Data
+public class ChunkManifest implements ObjectData {
+
+    static final byte[] SIGNATURE = {'C', 'H', 'N', 'K'};
+    static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 20;
+    private static final int CHUNK_LENGTH = ObjectId.RAW_LENGTH + 4;
+
+    /**
+     * 文件总大小
+     */
+    private long size;
+    private List<Chunk> chunks = new ArrayList<>();
+
+    public static ChunkManifest parseFrom(byte[] bytes) {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            byte[] signature = new byte[SIGNATURE.length];
+            buf.get(signature);
+            if (!Arrays.equals(signature, SIGNATURE)) {
+                throw new RuntimeException("chunk manifest format error: bad signature");
+            }
+            int version = buf.getInt();
+            if (version != VERSION) {
+                throw new RuntimeException("chunk manifest format error: unsupported version " + version);
+            }
+            ChunkManifest manifest = new ChunkManifest();
+            manifest.setSize(buf.getLong());
+            int count = buf.getInt();
+            if (count < 0 || buf.remaining() != (long) count * CHUNK_LENGTH) {
+                throw new RuntimeException("chunk manifest format error: bad chunk count " + count);
+            }
+            List<Chunk> chunks = new ArrayList<>(count);
+            byte[] raw = new byte[ObjectId.RAW_LENGTH];
+            long total = 0;
+            for (int i = 0; i < count; i++) {
+                buf.get(raw);
+                int chunkSize = buf.getInt();
+                chunks.add(new Chunk(ObjectId.fromRaw(raw).name(), chunkSize));
+                total += chunkSize;
+            }
+            if (total != manifest.getSize()) {
+                throw new RuntimeException("chunk manifest format error: size mismatch");
+            }
+            manifest.setChunks(chunks);
+            return manifest;
+        } catch (BufferUnderflowException e) {
+            throw new RuntimeException("chunk manifest format error: truncated");
+        }
+    }
+
+    @Override
+    public byte[] toBytes() {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_LENGTH + chunks.size() * CHUNK_LENGTH);
+        buf.put(SIGNATURE).putInt(VERSION).putLong(size).putInt(chunks.size());
+        for (Chunk chunk : chunks) {
+            buf.put(ObjectId.fromString(chunk.getObjectId()).toRaw()).putInt(chunk.getSize());
+        }
+        return buf.array();
+    }
+
+    @Data
+    public static class Chunk {
+        private final String objectId;
+        private final int size;
+    }
+}
@@ -0,0 +1,63 @@
+package com.beyond.jgit.chunk;
+
+import com.beyond.jgit.object.ObjectEntity;
+import com.beyond.jgit.object.ObjectManager;
+import com.beyond.jgit.util.ObjectUtils;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * 大文件分块存储: 文件用FastCdcChunker切分, 每块存为一个blob, 再把ChunkManifest存为一个blob,
+ * 文件的objectId就是manifest的objectId. 文件的小改动只产生少量新块, 未变化的块在各版本间共享, push时也不重复上传.
+ */
+public class ChunkedBlobs {
+
+    /**
+     * 分块写入文件
+     *
+     * @return manifest的objectId
+     */
+    public static String write(ObjectManager objectManager, File file, FastCdcChunker chunker) throws IOException {
+        ChunkManifest manifest = split(file, chunker, (buf, offset, length) ->
+                objectManager.write(new ObjectEntity(ObjectEntity.Type.blob, Arrays.copyOfRange(buf, offset, offset + length))));
+        return objectManager.write(new ObjectEntity(ObjectEntity.Type.blob, manifest.toBytes()));
+    }
+
+    /**
+     * 只计算分块后的objectId, 不写入
+     */
+    public static String hash(File file, FastCdcChunker chunker) throws IOException {
+        ChunkManifest manifest = split(file, chunker, (buf, offset, length) ->
+                ObjectUtils.sha1hash(ObjectEntity.Type.blob, Arrays.copyOfRange(buf, offset, offset + length)));
+        return ObjectUtils.sha1hash(ObjectEntity.Type.blob, manifest.toBytes());
+    }
+
+    /**
+     * 按顺序拼接各块写出文件内容
+     */
+    public static void copyTo(ObjectManager objectManager, String manifestObjectId, OutputStream out) throws IOException {
+        ChunkManifest manifest = objectManager.readChunkManifest(manifestObjectId);
+        for (ChunkManifest.Chunk chunk : manifest.getChunks()) {
+            objectManager.open(chunk.getObjectId()).copyTo(out);
+        }
+    }
+
+    private static ChunkManifest split(File file, FastCdcChunker chunker, ChunkWriter writer) throws IOException {
+        ChunkManifest manifest = new ChunkManifest();
+        try (InputStream in = new FileInputStream(file)) {
+            chunker.split(in, (buf, offset, length) -> {
+                manifest.getChunks().add(new ChunkManifest.Chunk(writer.write(buf, offset, length), length));
+                manifest.setSize(manifest.getSize() + length);
+            });
+        }
+        return manifest;
+    }
+
+    private interface ChunkWriter {
+        /**
+         * @return 块的objectId
+         */
+        String write(byte[] buf, int offset, int length) throws IOException;
+    }
+}
@@ -0,0 +1,139 @@
+package com.beyond.jgit.chunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * FastCDC内容定义分块: 用gear滚动hash在内容中找切分点, 切分点只与附近的内容有关,
+ * 文件中间插入或删除数据后, 只有改动附近的块会变化, 其他块与旧版本相同.
+ * <ul>
+ * <li>前minSize字节不判断切分点</li>
+ * <li>归一化: 未到averageSize时用更难满足的掩码, 超过后用更容易满足的掩码, 块大小集中在averageSize附近</li>
+ * <li>到maxSize时强制切分</li>
+ * </ul>
+ * 参数相同时切分结果固定, 修改参数会使已有的块无法复用.
+ */
+public class FastCdcChunker {
+
+    /**
+     * 固定种子生成, 不能修改, 否则同样的内容会切出不同的块
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6a09e667f3bcc908L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final int minSize;
+    private final int averageSize;
+    private final int maxSize;
+    private final long maskS;
+    private final long maskL;
+
+    /**
+     * minSize为averageSize/4, maxSize为averageSize*4
+     *
+     * @param averageSize 2的幂
+     */
+    public FastCdcChunker(int averageSize) {
+        this(averageSize / 4, averageSize, averageSize * 4);
+    }
+
+    public FastCdcChunker(int minSize, int averageSize, int maxSize) {
+        if (Integer.bitCount(averageSize) != 1 || averageSize < 64) {
+            throw new IllegalArgumentException("averageSize must be a power of 2 and at least 64: " + averageSize);
+        }
+        if (minSize <= 0 || minSize > averageSize || maxSize < averageSize) {
+            throw new IllegalArgumentException("invalid chunk size: " + minSize + "/" + averageSize + "/" + maxSize);
+        }
+        this.minSize = minSize;
+        this.averageSize = averageSize;
+        this.maxSize = maxSize;
+        int bits = Integer.numberOfTrailingZeros(averageSize);
+        // gear hash的高位混合了更多字节, 掩码取高位
+        this.maskS = highBits(bits + 2);
+        this.maskL = highBits(bits - 2);
+    }
+
+    private static long highBits(int n) {
+        return n <= 0 ? 0 : -1L << (64 - n);
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getAverageSize() {
+        return averageSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param length buf中从offset开始的可用字节, 未到文件末尾时必须不小于maxSize
+     * @return 从offset开始的第一个块的长度
+     */
+    public int cut(byte[] buf, int offset, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        int n = Math.min(length, maxSize);
+        int normal = Math.min(averageSize, n);
+        long hash = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[buf[offset + i] & 0xff];
+            if ((hash & maskS) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i++) {
+            hash = (hash << 1) + GEAR[buf[offset + i] & 0xff];
+            if ((hash & maskL) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 顺序读取in并切分, 每个块回调一次; 回调中的buf在返回后会被复用
+     */
+    public void split(InputStream in, ChunkHandler handler) throws IOException {
+        byte[] buf = new byte[maxSize * 2];
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+        for (;;) {
+            if (!eof && end - start < maxSize) {
+                System.arraycopy(buf, start, buf, 0, end - start);
+                end -= start;
+                start = 0;
+                while (end < buf.length) {
+                    int n = in.read(buf, end, buf.length - end);
+                    if (n == -1) {
+                        eof = true;
+                        break;
+                    }
+                    end += n;
+                }
+            }
+            if (start == end) {
+                return;
+            }
+            int length = cut(buf, start, end - start);
+            handler.handle(buf, start, length);
+            start += length;
+        }
+    }
+
+    public interface ChunkHandler {
+        void handle(byte[] buf, int offset, int length) throws IOException;
+    }
+}
@@ -1,14 +1,17 @@
 package com.beyond.jgit.diff;
 
-import com.beyond.jgit.object.ObjectEntity;
+import com.beyond.jgit.chunk.ChunkManifest;
+import com.beyond.jgit.object.ObjectId;
 import com.beyond.jgit.object.ObjectManager;
-import com.beyond.jgit.object.data.CommitObjectData;
-import com.beyond.jgit.object.data.TreeObjectData;
+import com.beyond.jgit.object.data.TreeCursor;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class DefaultCommitDiffer implements CommitDiffer {
@@ -33,14 +36,8 @@ public class DefaultCommitDiffer implements CommitDiffer {
             return new ObjectDiffResult();
         }
 
-        ObjectEntity leftCommit = leftObjectManager.read(leftCommitObjectId);
-        ObjectEntity rightCommit = rightObjectManager.read(rightCommitObjectId);
-
-        CommitObjectData leftCommitData = CommitObjectData.parseFrom(leftCommit.getData());
-        CommitObjectData rightCommitData = CommitObjectData.parseFrom(rightCommit.getData());
-
-        String leftTreeObjectId = leftCommitData.getTree();
-        String rightTreeObjectId = rightCommitData.getTree();
+        String leftTreeObjectId = leftObjectManager.readCommitHeader(leftCommitObjectId).getTree();
+        String rightTreeObjectId = rightObjectManager.readCommitHeader(rightCommitObjectId).getTree();
 
         ObjectDiffResult objectDiffResult = diffTree(leftTreeObjectId, rightTreeObjectId);
         objectDiffResult.getLeftExtraObjectIds().add(leftCommitObjectId);
@@ -52,41 +49,42 @@ public class DefaultCommitDiffer implements CommitDiffer {
         List<String> leftExtras = new ArrayList<>();
         List<String> rightExtras = new ArrayList<>();
 
-        List<String> leftObjectIds = new ArrayList<>();
-        List<String> rightObjectIds = new ArrayList<>();
+        List<ObjectId> leftObjectIds = new ArrayList<>();
+        List<ObjectId> rightObjectIds = new ArrayList<>();
 
-        collectResolvedObjectIds(leftObjectManager, leftTreeObjectId, leftObjectIds);
-        collectResolvedObjectIds(rightObjectManager, rightTreeObjectId, rightObjectIds);
+        collectResolvedObjectIds(leftObjectManager, ObjectId.fromString(leftTreeObjectId), leftObjectIds);
+        collectResolvedObjectIds(rightObjectManager, ObjectId.fromString(rightTreeObjectId), rightObjectIds);
 
-        leftObjectIds = leftObjectIds.stream().distinct().sorted(String::compareTo).collect(Collectors.toList());
-        rightObjectIds = rightObjectIds.stream().distinct().sorted(String::compareTo).collect(Collectors.toList());
+        // ObjectId按字节比较, 与hex字符串的顺序一致
+        leftObjectIds = leftObjectIds.stream().distinct().sorted().collect(Collectors.toList());
+        rightObjectIds = rightObjectIds.stream().distinct().sorted().collect(Collectors.toList());
 
         int leftIndex = 0;
         int rightIndex = 0;
         for (;;) {
             if (leftIndex < leftObjectIds.size() && rightIndex < rightObjectIds.size()){
-                String leftObjectId = leftObjectIds.get(leftIndex);
-                String rightObjectId = rightObjectIds.get(rightIndex);
+                ObjectId leftObjectId = leftObjectIds.get(leftIndex);
+                ObjectId rightObjectId = rightObjectIds.get(rightIndex);
                 if (leftObjectId.equals(rightObjectId)){
                     leftIndex++;
                     rightIndex++;
                 }else{
                     if (leftObjectId.compareTo(rightObjectId) < 0){
-                        leftExtras.add(leftObjectId);
+                        leftExtras.add(leftObjectId.name());
                         leftIndex++;
                     }else{
-                        rightExtras.add(rightObjectId);
+                        rightExtras.add(rightObjectId.name());
                         rightIndex++;
                     }
                 }
             }else{
                 if (leftIndex < leftObjectIds.size()){
-                    leftExtras.add(leftObjectIds.get(leftIndex));
+                    leftExtras.add(leftObjectIds.get(leftIndex).name());
                     leftIndex ++;
                     continue;
                 }
                 if (rightIndex < rightObjectIds.size()){
-                    rightExtras.add(rightObjectIds.get(rightIndex));
+                    rightExtras.add(rightObjectIds.get(rightIndex).name());
                     rightIndex ++;
                     continue;
                 }
@@ -99,19 +97,36 @@ public class DefaultCommitDiffer implements CommitDiffer {
         return objectDiffResult;
     }
 
-    private void collectResolvedObjectIds(ObjectManager objectManager, String treeObjectId, List<String> objectIds) throws IOException {
+    /**
+     * 按层遍历, 同一层的tree并发读取; 已遍历过的子tree不再读取
+     */
+    private void collectResolvedObjectIds(ObjectManager objectManager, ObjectId treeObjectId, List<ObjectId> objectIds) throws IOException {
+        Set<ObjectId> seenTrees = new HashSet<>();
+        seenTrees.add(treeObjectId);
         objectIds.add(treeObjectId);
-        ObjectEntity tree = objectManager.read(treeObjectId);
-        TreeObjectData treeData = TreeObjectData.parseFrom(tree.getData());
-        List<TreeObjectData.TreeEntry> entries = treeData.getEntries();
-        for (TreeObjectData.TreeEntry entry : entries) {
-            if (entry.getType() == ObjectEntity.Type.blob){
-                objectIds.add(entry.getObjectId());
-            }
-            if (entry.getType() == ObjectEntity.Type.tree){
-                objectIds.add(entry.getObjectId());
-                collectResolvedObjectIds(objectManager, entry.getObjectId(), objectIds);
+        List<String> treeObjectIds = Collections.singletonList(treeObjectId.name());
+        while (!treeObjectIds.isEmpty()) {
+            List<String> nextTreeObjectIds = new ArrayList<>();
+            for (TreeCursor cursor : objectManager.openTrees(treeObjectIds)) {
+                while (cursor.next()) {
+                    if (cursor.isBlob()){
+                        objectIds.add(cursor.getObjectId());
+                    }
+                    if (cursor.isChunkedBlob()){
+                        for (ChunkManifest.Chunk chunk : objectManager.readChunkManifest(cursor.getObjectIdString()).getChunks()) {
+                            objectIds.add(ObjectId.fromString(chunk.getObjectId()));
+                        }
+                    }
+                    if (cursor.isTree()){
+                        ObjectId subTreeObjectId = cursor.getObjectId();
+                        objectIds.add(subTreeObjectId);
+                        if (seenTrees.add(subTreeObjectId)) {
+                            nextTreeObjectIds.add(subTreeObjectId.name());
+                        }
+                    }
+                }
             }
+            treeObjectIds = nextTreeObjectIds;
         }
     }
 }
@@ -0,0 +1,219 @@
+package com.beyond.jgit.graph;
+
+import com.beyond.jgit.GitLite;
+import com.beyond.jgit.object.ObjectId;
+import com.beyond.jgit.object.data.CommitHeader;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * commit-graph文件, 按行保存commit的tree, parents, commitTime和generation, 历史遍历时不用再读取和解压commit object. 结构:
+ * <pre>
+ * magic(4) | version(4) | fanout(256 * 4) | commitIds(n * 20) | rows(n * 40) | extraEdgeCount(4) | extraEdges(m * 4) | checksum(20)
+ * row: tree(20) | parent1(4) | parent2(4) | commitTime(8) | generation(4)
+ * </pre>
+ * parent保存的是父commit在本文件中的位置(即commitIds中的下标). 超过两个parent时, parent2为EXTRA_EDGES|下标,
+ * 从extraEdges的该下标开始依次读取, 直到带LAST_EDGE标记的值.
+ * <p>
+ * generation: 没有parent的commit为1, 其他为parents中的最大值+1. A是B的祖先时一定有gen(A) &lt; gen(B).
+ * 文件中commit的parents一定也在文件中, 不在文件中的commit视为generation无穷大.
+ */
+public class CommitGraph {
+
+    static final byte[] MAGIC = {'C', 'G', 'P', 'H'};
+    static final int VERSION = 1;
+    static final int ID_LENGTH = 20;
+    static final int ROW_LENGTH = 40;
+    static final int HEADER_LENGTH = 8 + 256 * 4;
+
+    static final int NO_PARENT = 0x7fffffff;
+    /**
+     * parent为GitLite.EMPTY_OBJECT_ID(第一个commit的parent)
+     */
+    static final int EMPTY_PARENT = 0x7ffffffe;
+    static final int EXTRA_EDGES = 0x80000000;
+    static final int LAST_EDGE = 0x80000000;
+
+    public static final int GENERATION_INFINITY = Integer.MAX_VALUE;
+
+    private static final CommitGraph EMPTY = new CommitGraph(new byte[0], new int[256], 0, 0, 0);
+
+    private final byte[] data;
+    private final ByteBuffer buffer;
+    private final int[] fanout;
+    private final int idsOffset;
+    private final int rowsOffset;
+    private final int extraEdgesOffset;
+
+    private CommitGraph(byte[] data, int[] fanout, int idsOffset, int rowsOffset, int extraEdgesOffset) {
+        this.data = data;
+        this.buffer = ByteBuffer.wrap(data);
+        this.fanout = fanout;
+        this.idsOffset = idsOffset;
+        this.rowsOffset = rowsOffset;
+        this.extraEdgesOffset = extraEdgesOffset;
+    }
+
+    public static CommitGraph empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 文件不存在时返回空的graph
+     */
+    public static CommitGraph load(File file) throws IOException {
+        if (!file.exists()) {
+            return EMPTY;
+        }
+        return parse(FileUtils.readFileToByteArray(file));
+    }
+
+    static CommitGraph parse(byte[] data) throws IOException {
+        if (data.length < HEADER_LENGTH + 4 + ID_LENGTH) {
+            throw new IOException("commit-graph too short");
+        }
+        byte[] checksum = DigestUtils.getSha1Digest().digest(Arrays.copyOf(data, data.length - ID_LENGTH));
+        if (!Arrays.equals(checksum, Arrays.copyOfRange(data, data.length - ID_LENGTH, data.length))) {
+            throw new IOException("commit-graph checksum mismatch");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || buffer.getInt() != VERSION) {
+            throw new IOException("not a commit-graph");
+        }
+        int[] fanout = new int[256];
+        for (int i = 0; i < fanout.length; i++) {
+            fanout[i] = buffer.getInt();
+        }
+        int count = fanout[255];
+        int idsOffset = HEADER_LENGTH;
+        int rowsOffset = idsOffset + count * ID_LENGTH;
+        int extraEdgesOffset = rowsOffset + count * ROW_LENGTH;
+        if (extraEdgesOffset + 4 + ID_LENGTH > data.length) {
+            throw new IOException("commit-graph truncated");
+        }
+        return new CommitGraph(data, fanout, idsOffset, rowsOffset, extraEdgesOffset + 4);
+    }
+
+    public int getCommitCount() {
+        return fanout[255];
+    }
+
+    public boolean contains(String commitObjectId) {
+        return findPosition(commitObjectId) >= 0;
+    }
+
+    /**
+     * @return 不存在(包括不是合法的objectId)时返回-1
+     */
+    public int findPosition(String commitObjectId) {
+        if (getCommitCount() == 0 || !ObjectId.isId(commitObjectId)) {
+            return -1;
+        }
+        return findPosition(ObjectId.fromString(commitObjectId));
+    }
+
+    public int findPosition(ObjectId commitObjectId) {
+        int first = commitObjectId.getFirstByte();
+        int low = first == 0 ? 0 : fanout[first - 1];
+        int high = fanout[first] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = commitObjectId.compareTo(data, idsOffset + mid * ID_LENGTH);
+            if (cmp == 0) {
+                return mid;
+            }
+            if (cmp < 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    public ObjectId getObjectId(int position) {
+        return ObjectId.fromRaw(data, idsOffset + position * ID_LENGTH);
+    }
+
+    public ObjectId getTree(int position) {
+        return ObjectId.fromRaw(data, rowOffset(position));
+    }
+
+    public long getCommitTime(int position) {
+        return buffer.getLong(rowOffset(position) + ID_LENGTH + 8);
+    }
+
+    public int getGeneration(int position) {
+        return buffer.getInt(rowOffset(position) + ID_LENGTH + 16);
+    }
+
+    /**
+     * 父commit在本文件中的位置, 不包括EMPTY_OBJECT_ID
+     */
+    public int[] getParentPositions(int position) {
+        int[] slots = getParentSlots(position);
+        int n = 0;
+        for (int slot : slots) {
+            if (slot != EMPTY_PARENT) {
+                slots[n++] = slot;
+            }
+        }
+        return n == slots.length ? slots : Arrays.copyOf(slots, n);
+    }
+
+    /**
+     * 与CommitHeader.parseFrom的结果一致, parents保持原来的顺序, 包括EMPTY_OBJECT_ID
+     */
+    public CommitHeader getHeader(int position) {
+        int[] slots = getParentSlots(position);
+        List<String> parents = new ArrayList<>(slots.length);
+        for (int slot : slots) {
+            parents.add(slot == EMPTY_PARENT ? GitLite.EMPTY_OBJECT_ID : getObjectId(slot).name());
+        }
+        return new CommitHeader(getTree(position).name(), Collections.unmodifiableList(parents), getCommitTime(position));
+    }
+
+    /**
+     * 原始的parent值, 可能包括EMPTY_PARENT
+     */
+    int[] getParentSlots(int position) {
+        int offset = rowOffset(position) + ID_LENGTH;
+        int parent1 = buffer.getInt(offset);
+        int parent2 = buffer.getInt(offset + 4);
+        if (parent1 == NO_PARENT) {
+            return new int[0];
+        }
+        if (parent2 == NO_PARENT) {
+            return new int[]{parent1};
+        }
+        if ((parent2 & EXTRA_EDGES) == 0) {
+            return new int[]{parent1, parent2};
+        }
+        List<Integer> parents = new ArrayList<>();
+        parents.add(parent1);
+        int edge = extraEdgesOffset + (parent2 & ~EXTRA_EDGES) * 4;
+        for (;;) {
+            int value = buffer.getInt(edge);
+            parents.add(value & ~LAST_EDGE);
+            if ((value & LAST_EDGE) != 0) {
+                break;
+            }
+            edge += 4;
+        }
+        return parents.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private int rowOffset(int position) {
+        return rowsOffset + position * ROW_LENGTH;
+    }
+}
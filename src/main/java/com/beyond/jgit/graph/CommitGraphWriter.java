@@ -0,0 +1,248 @@
+package com.beyond.jgit.graph;
+
+import com.beyond.jgit.GitLite;
+import com.beyond.jgit.object.ObjectId;
+import com.beyond.jgit.object.ObjectIdMap;
+import com.beyond.jgit.object.ObjectIdSet;
+import com.beyond.jgit.object.ObjectManager;
+import com.beyond.jgit.object.data.CommitHeader;
+import com.beyond.jgit.util.FileUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * 增量更新commit-graph: 已在graph中的commit直接复制行, 只读取新commit的object, 然后重写整个文件.
+ */
+@Slf4j
+public class CommitGraphWriter {
+
+    private static final ObjectId EMPTY_ID = ObjectId.fromString(GitLite.EMPTY_OBJECT_ID);
+
+    private final ObjectManager objectManager;
+    private final File graphFile;
+    private boolean fsync;
+
+    public CommitGraphWriter(ObjectManager objectManager, File graphFile) {
+        this.objectManager = objectManager;
+        this.graphFile = graphFile;
+    }
+
+    public void setFsync(boolean fsync) {
+        this.fsync = fsync;
+    }
+
+    /**
+     * 把tips及其祖先中还不在base里的commit加入graph. 本地缺少object的commit(及其后代)不加入.
+     *
+     * @return 新的graph; 没有新commit, 或其他进程正在写(存在lock文件)时返回null
+     */
+    public CommitGraph update(CommitGraph base, Collection<String> tips) throws IOException {
+        List<Node> added = collectNewCommits(base, tips);
+        if (added.isEmpty()) {
+            return null;
+        }
+
+        List<Node> nodes = new ArrayList<>(base.getCommitCount() + added.size());
+        for (int i = 0; i < base.getCommitCount(); i++) {
+            nodes.add(Node.of(base, i));
+        }
+        nodes.addAll(added);
+        nodes.sort((a, b) -> a.id.compareTo(b.id));
+
+        byte[] data = toBytes(nodes);
+        CommitGraph graph = CommitGraph.parse(data);
+
+        FileUtils.forceMkdirParent(graphFile);
+        File lockFile = new File(graphFile.getAbsolutePath() + ".lock");
+        if (!lockFile.createNewFile()) {
+            log.warn("commit-graph is locked, skip update, path:{}", lockFile.getAbsolutePath());
+            return null;
+        }
+        try {
+            FileUtils.writeByteArrayToFile(lockFile, data);
+            if (fsync) {
+                FileUtil.fsyncAndMove(lockFile, graphFile);
+            } else {
+                Files.move(lockFile.toPath(), graphFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            FileUtils.deleteQuietly(lockFile);
+        }
+        log.debug("commit-graph updated, {} commits added, {} in total", added.size(), nodes.size());
+        return graph;
+    }
+
+    /**
+     * 非递归的后序遍历, parents都处理完后才计算自己的generation, 历史很长时也不会栈溢出
+     */
+    private List<Node> collectNewCommits(CommitGraph base, Collection<String> tips) throws IOException {
+        ObjectIdMap<Node> added = new ObjectIdMap<>();
+        ObjectIdSet missing = new ObjectIdSet();
+        List<Node> result = new ArrayList<>();
+
+        Deque<ObjectId> stack = new ArrayDeque<>();
+        for (String tip : tips) {
+            if (ObjectId.isId(tip) && !tip.equals(GitLite.EMPTY_OBJECT_ID)) {
+                stack.push(ObjectId.fromString(tip));
+            }
+        }
+        ObjectIdMap<CommitHeader> pending = new ObjectIdMap<>();
+        while (!stack.isEmpty()) {
+            ObjectId id = stack.peek();
+            if (base.findPosition(id) >= 0 || added.containsKey(id) || missing.contains(id)) {
+                stack.pop();
+                continue;
+            }
+            CommitHeader header = pending.get(id);
+            if (header == null) {
+                if (!objectManager.exists(id.name())) {
+                    missing.add(id);
+                    stack.pop();
+                    continue;
+                }
+                header = objectManager.readCommitHeader(id.name());
+                pending.put(id, header);
+                boolean ready = true;
+                for (String parent : header.getParents()) {
+                    ObjectId parentId = ObjectId.fromString(parent);
+                    if (parentId.equals(EMPTY_ID) || base.findPosition(parentId) >= 0 || added.containsKey(parentId) || missing.contains(parentId)) {
+                        continue;
+                    }
+                    stack.push(parentId);
+                    ready = false;
+                }
+                if (!ready) {
+                    continue;
+                }
+            }
+            stack.pop();
+
+            List<ObjectId> parents = new ArrayList<>(header.getParents().size());
+            int generation = 1;
+            boolean complete = true;
+            for (String parent : header.getParents()) {
+                ObjectId parentId = ObjectId.fromString(parent);
+                parents.add(parentId);
+                if (parentId.equals(EMPTY_ID)) {
+                    continue;
+                }
+                int position = base.findPosition(parentId);
+                if (position >= 0) {
+                    generation = Math.max(generation, base.getGeneration(position) + 1);
+                } else if (added.containsKey(parentId)) {
+                    generation = Math.max(generation, added.get(parentId).generation + 1);
+                } else {
+                    complete = false;
+                }
+            }
+            if (!complete) {
+                missing.add(id);
+                continue;
+            }
+            Node node = new Node(id, ObjectId.fromString(header.getTree()), parents, header.getCommitTime(), generation);
+            added.put(id, node);
+            result.add(node);
+        }
+        if (!missing.isEmpty()) {
+            log.debug("{} commits not added to commit-graph, object missing", missing.size());
+        }
+        return result;
+    }
+
+    private static byte[] toBytes(List<Node> nodes) throws IOException {
+        ObjectIdMap<Integer> positions = new ObjectIdMap<>(nodes.size());
+        int[] fanout = new int[256];
+        for (int i = 0; i < nodes.size(); i++) {
+            positions.put(nodes.get(i).id, i);
+            fanout[nodes.get(i).id.getFirstByte()]++;
+        }
+        for (int i = 1; i < fanout.length; i++) {
+            fanout[i] += fanout[i - 1];
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(CommitGraph.HEADER_LENGTH + nodes.size() * (CommitGraph.ID_LENGTH + CommitGraph.ROW_LENGTH) + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(CommitGraph.MAGIC);
+        out.writeInt(CommitGraph.VERSION);
+        for (int count : fanout) {
+            out.writeInt(count);
+        }
+        byte[] raw = new byte[ObjectId.RAW_LENGTH];
+        for (Node node : nodes) {
+            node.id.copyRawTo(raw, 0);
+            out.write(raw);
+        }
+        List<Integer> extraEdges = new ArrayList<>();
+        for (Node node : nodes) {
+            node.tree.copyRawTo(raw, 0);
+            out.write(raw);
+            int[] slots = new int[node.parents.size()];
+            for (int i = 0; i < slots.length; i++) {
+                ObjectId parent = node.parents.get(i);
+                slots[i] = parent.equals(EMPTY_ID) ? CommitGraph.EMPTY_PARENT : positions.get(parent);
+            }
+            if (slots.length == 0) {
+                out.writeInt(CommitGraph.NO_PARENT);
+                out.writeInt(CommitGraph.NO_PARENT);
+            } else if (slots.length == 1) {
+                out.writeInt(slots[0]);
+                out.writeInt(CommitGraph.NO_PARENT);
+            } else if (slots.length == 2) {
+                out.writeInt(slots[0]);
+                out.writeInt(slots[1]);
+            } else {
+                out.writeInt(slots[0]);
+                out.writeInt(CommitGraph.EXTRA_EDGES | extraEdges.size());
+                for (int i = 1; i < slots.length; i++) {
+                    extraEdges.add(i == slots.length - 1 ? slots[i] | CommitGraph.LAST_EDGE : slots[i]);
+                }
+            }
+            out.writeLong(node.commitTime);
+            out.writeInt(node.generation);
+        }
+        out.writeInt(extraEdges.size());
+        for (int edge : extraEdges) {
+            out.writeInt(edge);
+        }
+        out.flush();
+        out.write(DigestUtils.getSha1Digest().digest(bytes.toByteArray()));
+        return bytes.toByteArray();
+    }
+
+    private static class Node {
+        private final ObjectId id;
+        private final ObjectId tree;
+        private final List<ObjectId> parents;
+        private final long commitTime;
+        private final int generation;
+
+        Node(ObjectId id, ObjectId tree, List<ObjectId> parents, long commitTime, int generation) {
+            this.id = id;
+            this.tree = tree;
+            this.parents = parents;
+            this.commitTime = commitTime;
+            this.generation = generation;
+        }
+
+        static Node of(CommitGraph graph, int position) {
+            List<ObjectId> parents = new ArrayList<>();
+            for (int slot : graph.getParentSlots(position)) {
+                parents.add(slot == CommitGraph.EMPTY_PARENT ? EMPTY_ID : graph.getObjectId(slot));
+            }
+            return new Node(graph.getObjectId(position), graph.getTree(position), parents, graph.getCommitTime(position), graph.getGeneration(position));
+        }
+    }
+}
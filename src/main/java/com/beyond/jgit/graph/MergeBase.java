@@ -0,0 +1,141 @@
+package com.beyond.jgit.graph;
+
+import com.beyond.jgit.GitLite;
+import com.beyond.jgit.object.ObjectId;
+import com.beyond.jgit.object.ObjectIdMap;
+import com.beyond.jgit.object.ObjectManager;
+import com.beyond.jgit.object.data.CommitHeader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+/**
+ * 查找两个commit的共同祖先. 从两端同时向下染色, 按generation从大到小(相同时按commitTime)处理,
+ * 保证处理一个commit时它的所有后代都已处理过; 队列中只剩已确定不是最近祖先的commit时即可结束, 不用遍历到根.
+ * 在commit-graph中的commit直接查数组, 不在的才读取commit object.
+ */
+public class MergeBase {
+
+    private static final int PARENT1 = 1;
+    private static final int PARENT2 = 1 << 1;
+    private static final int STALE = 1 << 2;
+    private static final int RESULT = 1 << 3;
+
+    private final ObjectManager objectManager;
+    private final CommitGraph graph;
+    private final ObjectIdMap<Node> nodes = new ObjectIdMap<>();
+
+    private MergeBase(ObjectManager objectManager) {
+        this.objectManager = objectManager;
+        this.graph = objectManager.getCommitGraph();
+    }
+
+    /**
+     * @return 没有共同祖先时返回null
+     */
+    public static String find(ObjectManager objectManager, String one, String two) throws IOException {
+        if (one == null || two == null) {
+            return null;
+        }
+        if (Objects.equals(one, two)) {
+            return one;
+        }
+        return new MergeBase(objectManager).paintDown(one, two);
+    }
+
+    private String paintDown(String one, String two) throws IOException {
+        PriorityQueue<Node> queue = new PriorityQueue<>((a, b) -> {
+            int cmp = Integer.compare(b.generation, a.generation);
+            return cmp != 0 ? cmp : Long.compare(b.commitTime, a.commitTime);
+        });
+        Node oneNode = node(ObjectId.fromString(one));
+        Node twoNode = node(ObjectId.fromString(two));
+        oneNode.flags |= PARENT1;
+        twoNode.flags |= PARENT2;
+        queue.add(oneNode);
+        queue.add(twoNode);
+
+        List<Node> result = new ArrayList<>();
+        while (hasNonStale(queue)) {
+            Node node = queue.poll();
+            int flags = node.flags & (PARENT1 | PARENT2 | STALE);
+            if (flags == (PARENT1 | PARENT2)) {
+                if ((node.flags & RESULT) == 0) {
+                    node.flags |= RESULT;
+                    result.add(node);
+                }
+                // 共同祖先的祖先都不是最近的
+                flags |= STALE;
+            }
+            for (ObjectId parentId : parents(node)) {
+                Node parent = node(parentId);
+                if ((parent.flags & flags) == flags) {
+                    continue;
+                }
+                parent.flags |= flags;
+                queue.add(parent);
+            }
+        }
+        // 按generation顺序找到, 第一个即最近的
+        return result.isEmpty() ? null : result.get(0).id.name();
+    }
+
+    private static boolean hasNonStale(PriorityQueue<Node> queue) {
+        for (Node node : queue) {
+            if ((node.flags & STALE) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Node node(ObjectId id) throws IOException {
+        Node node = nodes.get(id);
+        if (node != null) {
+            return node;
+        }
+        int position = graph.findPosition(id);
+        if (position >= 0) {
+            node = new Node(id, position, graph.getGeneration(position), graph.getCommitTime(position));
+        } else {
+            CommitHeader header = objectManager.readCommitHeader(id.name());
+            node = new Node(id, -1, CommitGraph.GENERATION_INFINITY, header.getCommitTime());
+        }
+        nodes.put(id, node);
+        return node;
+    }
+
+    private List<ObjectId> parents(Node node) throws IOException {
+        List<ObjectId> parents = new ArrayList<>(2);
+        if (node.position >= 0) {
+            for (int position : graph.getParentPositions(node.position)) {
+                parents.add(graph.getObjectId(position));
+            }
+            return parents;
+        }
+        for (String parent : objectManager.readCommitHeader(node.id.name()).getParents()) {
+            if (!Objects.equals(parent, GitLite.EMPTY_OBJECT_ID)) {
+                parents.add(ObjectId.fromString(parent));
+            }
+        }
+        return parents;
+    }
+
+    private static class Node {
+        private final ObjectId id;
+        private final int position;
+        private final int generation;
+        private final long commitTime;
+        private int flags;
+
+        Node(ObjectId id, int position, int generation, long commitTime) {
+            this.id = id;
+            this.position = position;
+            this.generation = generation;
+            this.commitTime = commitTime;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.beyond.jgit.index;
+
+import lombok.Data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件的stat数据, 与index中记录的一致时认为内容没有变化, 不必重新hash
+ */
+@Data
+public class FileStat {
+
+    /**
+     * 不支持unix属性(如windows)时改用BasicFileAttributes
+     */
+    private static volatile boolean unixAttributes = true;
+
+    private long size;
+    /**
+     * 纳秒, 实际精度取决于文件系统和jdk
+     */
+    private long mtime;
+    /**
+     * inode, 不支持时为fileKey的hash, 都没有时为0
+     */
+    private long fileKey;
+
+    public static FileStat of(File file) throws IOException {
+        Path path = file.toPath();
+        FileStat stat = new FileStat();
+        if (unixAttributes) {
+            try {
+                Map<String, Object> attributes = Files.readAttributes(path, "unix:size,lastModifiedTime,ino");
+                stat.setSize((Long) attributes.get("size"));
+                stat.setMtime(((FileTime) attributes.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS));
+                stat.setFileKey((Long) attributes.get("ino"));
+                return stat;
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                unixAttributes = false;
+            }
+        }
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        stat.setSize(attributes.size());
+        stat.setMtime(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+        Object fileKey = attributes.fileKey();
+        stat.setFileKey(fileKey == null ? 0 : fileKey.hashCode());
+        return stat;
+    }
+}
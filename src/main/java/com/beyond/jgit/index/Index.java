@@ -1,15 +1,16 @@
 package com.beyond.jgit.index;
 
+import com.beyond.jgit.chunk.ChunkedBlobs;
+import com.beyond.jgit.chunk.FastCdcChunker;
 import com.beyond.jgit.object.ObjectEntity;
 import com.beyond.jgit.object.ObjectManager;
-import com.beyond.jgit.object.data.CommitObjectData;
-import com.beyond.jgit.object.data.TreeObjectData;
+import com.beyond.jgit.object.data.CommitHeader;
+import com.beyond.jgit.object.data.TreeCursor;
 import com.beyond.jgit.util.FileUtil;
-import com.beyond.jgit.util.JsonUtils;
 import com.beyond.jgit.util.ObjectUtils;
 import com.beyond.jgit.util.PathUtils;
 import lombok.Data;
-import org.apache.commons.io.FileUtils;
+import lombok.EqualsAndHashCode;
 
 import java.io.File;
 import java.io.IOException;
@@ -40,20 +41,87 @@ public class Index {
         private String path;
         private String objectId;
         private Flag flag = Flag.NONE;
+        /**
+         * 上次hash时文件的stat, 为0表示未记录; 只用于跳过hash, 不参与比较
+         */
+        @EqualsAndHashCode.Exclude
+        private long size;
+        @EqualsAndHashCode.Exclude
+        private long mtime;
+        @EqualsAndHashCode.Exclude
+        private long fileKey;
+
+        public void setStat(FileStat stat) {
+            this.size = stat.getSize();
+            this.mtime = stat.getMtime();
+            this.fileKey = stat.getFileKey();
+        }
+
+        public void copyStat(Entry other) {
+            this.size = other.size;
+            this.mtime = other.mtime;
+            this.fileKey = other.fileKey;
+        }
+
+        public void clearStat() {
+            this.size = 0;
+            this.mtime = 0;
+            this.fileKey = 0;
+        }
+
+        /**
+         * stat一致时内容视为未变. mtime不早于index写入时间的是racy的: 同一时间精度内文件可能在hash之后又被修改, 不能信任
+         *
+         * @param indexMtime index文件的mtime(纳秒)
+         */
+        public boolean isStatClean(FileStat stat, long indexMtime) {
+            return mtime != 0 && mtime < indexMtime
+                    && size == stat.getSize() && mtime == stat.getMtime() && fileKey == stat.getFileKey();
+        }
 
         public enum Flag {
-            NONE
+            NONE,
+            /**
+             * 分块存储的文件, objectId是ChunkManifest
+             */
+            CHUNKED
         }
     }
 
     public static Index generateFromLocalDir(String localDir) throws IOException {
+        return generateFromLocalDir(localDir, null, 0);
+    }
+
+    public static Index generateFromLocalDir(String localDir, FastCdcChunker chunker, long chunkedBlobThreshold) throws IOException {
+        return generateFromLocalDir(localDir, chunker, chunkedBlobThreshold, null);
+    }
+
+    /**
+     * @param chunker   不为null时, 不小于chunkedBlobThreshold的文件按分块存储计算objectId, 与commit时一致
+     * @param statCache 上次保存的index, stat一致的文件直接使用其中的objectId, 为null时全部hash
+     */
+    public static Index generateFromLocalDir(String localDir, FastCdcChunker chunker, long chunkedBlobThreshold, IndexFile statCache) throws IOException {
         Collection<File> files = FileUtil.listChildOnlyFilesWithoutDirOf(localDir, ".git");
         Index index = new Index();
         List<Entry> entries = index.getEntries();
         for (File file : files) {
+            String path = PathUtils.getRelativePath(localDir, file.getAbsolutePath());
+            FileStat stat = FileStat.of(file);
+            boolean chunked = chunker != null && stat.getSize() >= chunkedBlobThreshold;
+            Entry cached = statCache == null ? null : statCache.findCleanEntry(path, stat);
+            if (cached != null && (cached.getFlag() == Entry.Flag.CHUNKED) == chunked) {
+                entries.add(cached);
+                continue;
+            }
             Entry entry = new Entry();
-            entry.setPath(PathUtils.getRelativePath(localDir,file.getAbsolutePath()));
-            entry.setObjectId(ObjectUtils.sha1hash(ObjectEntity.Type.blob, file));
+            entry.setPath(path);
+            if (chunked) {
+                entry.setObjectId(ChunkedBlobs.hash(file, chunker));
+                entry.setFlag(Entry.Flag.CHUNKED);
+            } else {
+                entry.setObjectId(ObjectUtils.sha1hash(ObjectEntity.Type.blob, file));
+            }
+            entry.setStat(stat);
             entries.add(entry);
         }
         entries.sort(Comparator.comparing(Entry::getPath));
@@ -62,11 +130,7 @@ public class Index {
 
 
     public static Index generateFromIndexFile(File indexFile) throws IOException {
-        byte[] bytes = FileUtils.readFileToByteArray(indexFile);
-        if (bytes!= null){
-            return JsonUtils.readValue(bytes, Index.class);
-        }
-        return null;
+        return IndexManager.parseIndex(indexFile.getAbsolutePath());
     }
 
 
@@ -77,15 +141,17 @@ public class Index {
         if (Objects.equals(commitObjectId, EMPTY_OBJECT_ID)){
             return null;
         }
-        ObjectEntity commit = objectManager.read(commitObjectId);
-        return generateFromCommit(commit, objectManager);
+        return generateFromTree(objectManager.readCommitHeader(commitObjectId).getTree(), objectManager);
     }
 
     public static Index generateFromCommit(ObjectEntity commit, ObjectManager objectManager) throws IOException {
+        return generateFromTree(CommitHeader.parseFrom(commit.getData()).getTree(), objectManager);
+    }
+
+    private static Index generateFromTree(String treeObjectId, ObjectManager objectManager) throws IOException {
         List<Entry> entries = new ArrayList<>();
 
-        CommitObjectData commitObjectData = CommitObjectData.parseFrom(commit.getData());
-        walk(commitObjectData.getTree(), "", objectManager, entries);
+        walk(treeObjectId, "", objectManager, entries);
 
         entries.sort(Comparator.comparing(Entry::getPath));
 
@@ -94,19 +160,37 @@ public class Index {
         return index;
     }
 
+    /**
+     * 按层遍历, 同一层的tree并发读取
+     */
     private static void walk(String treeObjectId, String parentPath, ObjectManager objectManager, List<Entry> entries) throws IOException {
-        ObjectEntity tree = objectManager.read(treeObjectId);
-        TreeObjectData treeData = TreeObjectData.parseFrom(tree.getData());
-        for (TreeObjectData.TreeEntry treeEntry : treeData.getEntries()) {
-            if (treeEntry.getType() == ObjectEntity.Type.blob){
-                Entry entry = new Entry();
-                entry.setObjectId(treeEntry.getObjectId());
-                entry.setPath(PathUtils.concat(parentPath, treeEntry.getName()));
-                entries.add(entry);
-            }
-            if (treeEntry.getType() == ObjectEntity.Type.tree){
-                walk(treeEntry.getObjectId(), PathUtils.concat(parentPath, treeEntry.getName()), objectManager, entries);
+        List<String> treeObjectIds = Collections.singletonList(treeObjectId);
+        List<String> treePaths = Collections.singletonList(parentPath);
+        while (!treeObjectIds.isEmpty()) {
+            List<TreeCursor> cursors = objectManager.openTrees(treeObjectIds);
+            List<String> nextTreeObjectIds = new ArrayList<>();
+            List<String> nextTreePaths = new ArrayList<>();
+            for (int i = 0; i < cursors.size(); i++) {
+                TreeCursor cursor = cursors.get(i);
+                while (cursor.next()) {
+                    String path = PathUtils.concat(treePaths.get(i), cursor.getName());
+                    if (cursor.isBlob()){
+                        Entry entry = new Entry();
+                        entry.setObjectId(cursor.getObjectIdString());
+                        entry.setPath(path);
+                        if (cursor.isChunkedBlob()) {
+                            entry.setFlag(Entry.Flag.CHUNKED);
+                        }
+                        entries.add(entry);
+                    }
+                    if (cursor.isTree()){
+                        nextTreeObjectIds.add(cursor.getObjectIdString());
+                        nextTreePaths.add(path);
+                    }
+                }
             }
+            treeObjectIds = nextTreeObjectIds;
+            treePaths = nextTreePaths;
         }
     }
 }
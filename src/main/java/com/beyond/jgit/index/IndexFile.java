@@ -0,0 +1,240 @@
+package com.beyond.jgit.index;
+
+import com.beyond.jgit.object.ObjectId;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 二进制的index文件, 结构:
+ * <pre>
+ * "GLIX" | version(4) | entryCount(4) | entry... | checksum(20)
+ * entry: pathLength(2) | path(utf-8) | objectId(20) | flag(1) | size(8) | mtime(8) | fileKey(8)
+ * </pre>
+ * entry按path排序; size/mtime/fileKey是文件上次hash时的stat数据, 为0表示未记录.
+ * 整个文件读入堆内存, 打开时只扫描一遍记下每个entry的偏移, path和objectId按需解码, 不必为每个entry创建对象.
+ * 不使用mmap: 映射在被GC回收前一直占用文件, Windows上save时rename覆盖index会失败.
+ */
+public class IndexFile {
+
+    static final byte[] SIGNATURE = {'G', 'L', 'I', 'X'};
+    static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 12;
+    private static final int CHECKSUM_LENGTH = 20;
+    private static final int MAX_PATH_LENGTH = 0xffff;
+    /**
+     * objectId之后: flag(1) | size(8) | mtime(8) | fileKey(8)
+     */
+    private static final int STAT_LENGTH = 1 + 8 + 8 + 8;
+
+    private final ByteBuffer buffer;
+    private final int[] offsets;
+    /**
+     * 文件的mtime(纳秒), 判断racy的entry
+     */
+    private long mtime;
+
+    private IndexFile(ByteBuffer buffer, int[] offsets) {
+        this.buffer = buffer;
+        this.offsets = offsets;
+    }
+
+    /**
+     * 按文件头判断是否为二进制格式, 旧的json格式返回false
+     */
+    public static boolean isIndexFile(File file) throws IOException {
+        if (file.length() < SIGNATURE.length) {
+            return false;
+        }
+        byte[] signature = new byte[SIGNATURE.length];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(signature);
+        }
+        return Arrays.equals(signature, SIGNATURE);
+    }
+
+    public static IndexFile open(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        try {
+            IndexFile indexFile = parse(buffer);
+            indexFile.mtime = Files.getLastModifiedTime(file.toPath()).to(TimeUnit.NANOSECONDS);
+            return indexFile;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("corrupt index: " + file.getAbsolutePath(), e);
+        }
+    }
+
+    private static IndexFile parse(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_LENGTH + CHECKSUM_LENGTH) {
+            throw new EOFException("index too short");
+        }
+        ByteBuffer content = buffer.duplicate();
+        content.limit(buffer.limit() - CHECKSUM_LENGTH);
+        MessageDigest digest = DigestUtils.getSha1Digest();
+        digest.update(content);
+        byte[] checksum = new byte[CHECKSUM_LENGTH];
+        ByteBuffer trailer = buffer.duplicate();
+        trailer.position(buffer.limit() - CHECKSUM_LENGTH);
+        trailer.get(checksum);
+        if (!Arrays.equals(digest.digest(), checksum)) {
+            throw new IOException("index checksum mismatch");
+        }
+
+        ByteBuffer in = buffer.duplicate();
+        in.limit(buffer.limit() - CHECKSUM_LENGTH);
+        byte[] signature = new byte[SIGNATURE.length];
+        in.get(signature);
+        if (!Arrays.equals(signature, SIGNATURE)) {
+            throw new IOException("not a binary index");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported index version: " + version);
+        }
+        int count = in.getInt();
+        if (count < 0) {
+            throw new IOException("bad index entry count: " + count);
+        }
+        int[] offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = in.position();
+            int pathLength = in.getShort() & 0xffff;
+            in.position(in.position() + pathLength + ObjectId.RAW_LENGTH + STAT_LENGTH);
+        }
+        if (in.hasRemaining()) {
+            throw new IOException("index has trailing data");
+        }
+        return new IndexFile(buffer, offsets);
+    }
+
+    /**
+     * @param index entries需按path排序
+     */
+    public static void write(File file, Index index) throws IOException {
+        MessageDigest digest = DigestUtils.getSha1Digest();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DigestOutputStream(new FileOutputStream(file), digest)))) {
+            out.write(SIGNATURE);
+            out.writeInt(VERSION);
+            out.writeInt(index.getEntries().size());
+            for (Index.Entry entry : index.getEntries()) {
+                byte[] path = entry.getPath().getBytes(StandardCharsets.UTF_8);
+                if (path.length > MAX_PATH_LENGTH) {
+                    throw new RuntimeException("path too long: " + entry.getPath());
+                }
+                out.writeShort(path.length);
+                out.write(path);
+                out.write(ObjectId.fromString(entry.getObjectId()).toRaw());
+                out.writeByte(entry.getFlag().ordinal());
+                out.writeLong(entry.getSize());
+                out.writeLong(entry.getMtime());
+                out.writeLong(entry.getFileKey());
+            }
+            out.flush();
+            out.write(digest.digest());
+        }
+    }
+
+    public int getEntryCount() {
+        return offsets.length;
+    }
+
+    public String getPath(int position) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(offsets[position]);
+        byte[] path = new byte[in.getShort() & 0xffff];
+        in.get(path);
+        return new String(path, StandardCharsets.UTF_8);
+    }
+
+    public String getObjectId(int position) {
+        byte[] raw = new byte[ObjectId.RAW_LENGTH];
+        ByteBuffer in = idAt(position);
+        in.get(raw);
+        return ObjectId.fromRaw(raw).name();
+    }
+
+    public long getMtime() {
+        return mtime;
+    }
+
+    private ByteBuffer idAt(int position) {
+        ByteBuffer in = buffer.duplicate();
+        int offset = offsets[position];
+        in.position(offset + 2 + (in.getShort(offset) & 0xffff));
+        return in;
+    }
+
+    public Index.Entry getEntry(int position) {
+        Index.Entry entry = new Index.Entry();
+        entry.setPath(getPath(position));
+        ByteBuffer in = idAt(position);
+        byte[] raw = new byte[ObjectId.RAW_LENGTH];
+        in.get(raw);
+        entry.setObjectId(ObjectId.fromRaw(raw).name());
+        entry.setFlag(Index.Entry.Flag.values()[in.get()]);
+        entry.setSize(in.getLong());
+        entry.setMtime(in.getLong());
+        entry.setFileKey(in.getLong());
+        return entry;
+    }
+
+    /**
+     * 二分查找, 只解码比较到的path
+     *
+     * @return 不存在时返回-1
+     */
+    public int findPosition(String path) {
+        int low = 0;
+        int high = offsets.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = path.compareTo(getPath(mid));
+            if (cmp == 0) {
+                return mid;
+            }
+            if (cmp < 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return 不存在时返回null
+     */
+    public Index.Entry findEntry(String path) {
+        int position = findPosition(path);
+        return position < 0 ? null : getEntry(position);
+    }
+
+    /**
+     * @return path的entry与文件的stat一致且不是racy时返回它, 否则返回null(需要重新hash)
+     * @see Index.Entry#isStatClean(FileStat, long)
+     */
+    public Index.Entry findCleanEntry(String path, FileStat stat) {
+        Index.Entry entry = findEntry(path);
+        return entry != null && entry.isStatClean(stat, mtime) ? entry : null;
+    }
+
+    public Index toIndex() {
+        List<Index.Entry> entries = new ArrayList<>(offsets.length);
+        for (int i = 0; i < offsets.length; i++) {
+            entries.add(getEntry(i));
+        }
+        Index index = new Index();
+        index.setEntries(entries);
+        return index;
+    }
+}
@@ -1,5 +1,6 @@
 package com.beyond.jgit.index;
 
+import com.beyond.jgit.util.FileUtil;
 import com.beyond.jgit.util.JsonUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
@@ -11,6 +12,7 @@ import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 @Slf4j
@@ -19,11 +21,20 @@ public class IndexManager {
     private final ReentrantLock lock = new ReentrantLock();
 
     private String indexPath;
+    private boolean fsync;
 
     public IndexManager(String indexPath) {
         this.indexPath = indexPath;
     }
 
+    /**
+     * @param fsync 保存时先fsync再rename
+     */
+    public IndexManager(String indexPath, boolean fsync) {
+        this.indexPath = indexPath;
+        this.fsync = fsync;
+    }
+
     public void appendTo(Index.Entry entry) throws IOException {
         Index index = parseIndex(indexPath);
         save(index);
@@ -67,9 +78,17 @@ public class IndexManager {
         index.getEntries().sort(Comparator.comparing(Index.Entry::getPath));
         if (tryLock()) {
             File lockFile = new File(indexPath + ".lock");
-            byte[] bytes = JsonUtils.writeValueAsBytes(index);
-            if (bytes != null) {
-                FileUtils.writeByteArrayToFile(lockFile, bytes);
+            // lock文件刚创建, 它的mtime不晚于之后index文件的mtime. 不早于它的stat是racy的, 清掉让下次重新hash
+            long lockMtime = Files.getLastModifiedTime(lockFile.toPath()).to(TimeUnit.NANOSECONDS);
+            for (Index.Entry entry : index.getEntries()) {
+                if (entry.getMtime() >= lockMtime) {
+                    entry.clearStat();
+                }
+            }
+            IndexFile.write(lockFile, index);
+            if (fsync) {
+                FileUtil.fsyncAndMove(lockFile, new File(indexPath));
+            } else {
                 Files.move(toPath(lockFile), toPath(new File(indexPath)), StandardCopyOption.ATOMIC_MOVE);
             }
             return;
@@ -77,7 +96,36 @@ public class IndexManager {
         throw new IOException("lock failed");
     }
 
+    /**
+     * 打开保存的index用作stat缓存, 不存在, 是旧的json格式或已损坏时返回null(全部重新hash)
+     */
+    public static IndexFile openStatCache(String indexPath) {
+        File indexFile = new File(indexPath);
+        try {
+            if (!IndexFile.isIndexFile(indexFile)) {
+                return null;
+            }
+            return IndexFile.open(indexFile);
+        } catch (IOException e) {
+            log.warn("ignore unreadable index: {}", indexPath, e);
+            return null;
+        }
+    }
+
+    /**
+     * 旧版本保存的json格式也能读取, 下次save时转为二进制格式
+     *
+     * @return 空文件(刚创建的.lock)或json无法解析时返回null
+     */
     public static Index parseIndex(String indexPath) throws IOException {
-        return JsonUtils.readValue(FileUtils.readFileToByteArray(new File(indexPath)), Index.class);
+        File indexFile = new File(indexPath);
+        if (IndexFile.isIndexFile(indexFile)) {
+            return IndexFile.open(indexFile).toIndex();
+        }
+        byte[] bytes = FileUtils.readFileToByteArray(indexFile);
+        if (bytes.length == 0) {
+            return null;
+        }
+        return JsonUtils.readValue(bytes, Index.class);
     }
 }
@@ -1,5 +1,6 @@
 package com.beyond.jgit.log;
 
+import com.beyond.jgit.util.FileUtil;
 import com.beyond.jgit.util.JsonUtils;
 import com.fasterxml.jackson.core.type.TypeReference;
 import org.apache.commons.io.FileUtils;
@@ -18,12 +19,21 @@ import static com.beyond.jgit.GitLite.EMPTY_OBJECT_ID;
 public class LogManager {
     private String logPath;
     private String logLockPath;
+    private boolean fsync;
 
     public LogManager(String logPath) {
         this.logPath = logPath;
         this.logLockPath = logPath + ".lock";
     }
 
+    /**
+     * @param fsync commit时先fsync再rename
+     */
+    public LogManager(String logPath, boolean fsync) {
+        this(logPath);
+        this.fsync = fsync;
+    }
+
     public static List<LogItem> getLogsFromFile(File logFile) throws IOException {
         if (!logFile.exists()) {
             return null;
@@ -104,6 +114,10 @@ public class LogManager {
     }
 
     public void commit() throws IOException {
+        if (fsync) {
+            FileUtil.fsyncAndMove(new File(logLockPath), new File(logPath));
+            return;
+        }
         Files.move(new File(logLockPath).toPath(), new File(logPath).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 }
@@ -0,0 +1,396 @@
+package com.beyond.jgit.maintenance;
+
+import com.beyond.jgit.GitLite;
+import com.beyond.jgit.GitLiteConfig;
+import com.beyond.jgit.chunk.ChunkManifest;
+import com.beyond.jgit.log.LogItem;
+import com.beyond.jgit.log.LogManager;
+import com.beyond.jgit.object.ObjectDb;
+import com.beyond.jgit.object.ObjectEntity;
+import com.beyond.jgit.object.ObjectId;
+import com.beyond.jgit.object.ObjectLoader;
+import com.beyond.jgit.object.ObjectManager;
+import com.beyond.jgit.object.data.CommitObjectData;
+import com.beyond.jgit.object.data.TreeObjectData;
+import com.beyond.jgit.pack.PackFile;
+import com.beyond.jgit.pack.PackIndex;
+import com.beyond.jgit.util.ObjectUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 只读的完整性校验:
+ * <ol>
+ * <li>多线程逐个解压loose object和每个pack中的object(其他后端通过ObjectDatabase.listObjectIds列出), 重新计算hash;
+ * tree和commit再解析结构, 检查引用的object是否存在</li>
+ * <li>tree引用的分块manifest检查格式和块是否存在</li>
+ * <li>refs和logs中的objectId必须指向存在的commit</li>
+ * </ol>
+ * blob流式计算hash, 只占用固定的缓冲区; tree和commit需要整体读入解析, 同时读入的字节数受fsckMaxBytesInFlight限制.
+ * pack中的delta object在pack内部整体还原, 不在这个限制内.
+ */
+@Slf4j
+public class Fsck {
+
+    private final GitLiteConfig config;
+    private final ObjectManager objectManager;
+    private int threads;
+
+    private final int maxBytesInFlight;
+    private final Semaphore bytesInFlight;
+
+    private final AtomicLong checkedObjects = new AtomicLong();
+    private final AtomicLong checkedBytes = new AtomicLong();
+    private final Set<String> corruptObjects = ConcurrentHashMap.newKeySet();
+    private final Set<String> missingObjects = ConcurrentHashMap.newKeySet();
+    private final Set<String> chunkManifests = ConcurrentHashMap.newKeySet();
+    private final List<String> problems = Collections.synchronizedList(new ArrayList<>());
+    private int badRefs;
+
+    public Fsck(GitLiteConfig config, ObjectManager objectManager) {
+        this.config = config;
+        this.objectManager = objectManager;
+        this.threads = config.getFsckThreads();
+        this.maxBytesInFlight = Math.max(1, config.getFsckMaxBytesInFlight());
+        this.bytesInFlight = new Semaphore(maxBytesInFlight);
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public FsckResult run() throws IOException {
+        long start = System.currentTimeMillis();
+
+        checkObjects(collectObjects());
+        checkChunkManifests();
+        checkRefs(new File(config.getRefsDir()));
+        checkLogs(new File(config.getLogsDir()));
+
+        FsckResult result = new FsckResult();
+        result.setCheckedObjects(checkedObjects.get());
+        result.setCheckedBytes(checkedBytes.get());
+        result.setCorruptObjects(corruptObjects.size());
+        result.setMissingObjects(missingObjects.size());
+        result.setBadRefs(badRefs);
+        result.setProblems(new ArrayList<>(problems));
+        result.setElapsedMillis(System.currentTimeMillis() - start);
+        log.info("fsck checked {} objects, {} bytes in {}ms ({} bytes/s), corrupt: {}, missing: {}, bad refs: {}",
+                result.getCheckedObjects(), result.getCheckedBytes(), result.getElapsedMillis(), result.getBytesPerSecond(),
+                result.getCorruptObjects(), result.getMissingObjects(), result.getBadRefs());
+        return result;
+    }
+
+    /**
+     * pack为null表示loose object; database为true表示不是ObjectDb的后端, 通过ObjectDatabase读取
+     */
+    private static class StoredObject {
+        private final String objectId;
+        private final PackFile pack;
+        private final boolean database;
+
+        private StoredObject(String objectId, PackFile pack, boolean database) {
+            this.objectId = objectId;
+            this.pack = pack;
+            this.database = database;
+        }
+
+        private String location() {
+            if (database) {
+                return "object database";
+            }
+            return pack == null ? "loose" : "pack " + pack.getName();
+        }
+    }
+
+    /**
+     * @throws UnsupportedOperationException 后端不支持列出object, 不能返回通过的结果
+     */
+    private List<StoredObject> collectObjects() throws IOException {
+        List<StoredObject> objects = new ArrayList<>();
+        if (!(objectManager.getObjectDatabase() instanceof ObjectDb)) {
+            for (String objectId : objectManager.listObjectIds()) {
+                objects.add(new StoredObject(objectId, null, true));
+            }
+            return objects;
+        }
+        for (String objectId : objectManager.listLooseObjectIds()) {
+            objects.add(new StoredObject(objectId, null, false));
+        }
+        for (PackFile pack : objectManager.getPacks()) {
+            PackIndex index = pack.getIndex();
+            for (int i = 0; i < index.getObjectCount(); i++) {
+                objects.add(new StoredObject(index.getObjectId(i), pack, false));
+            }
+        }
+        return objects;
+    }
+
+    private void checkObjects(List<StoredObject> objects) throws IOException {
+        int threads = Math.max(1, Math.min(this.threads, objects.size()));
+        if (threads == 1) {
+            for (StoredObject object : objects) {
+                checkObject(object);
+            }
+            return;
+        }
+        // 按下标交错分给各线程, 同一pack中相邻的object分散到不同线程
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = first; i < objects.size(); i += threads) {
+                        checkObject(objects.get(i));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                getCheckResult(future);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void getCheckResult(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("fsck interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private void checkObject(StoredObject object) throws IOException {
+        String objectId = object.objectId;
+        try {
+            ObjectLoader loader;
+            if (object.database) {
+                loader = objectManager.getObjectDatabase().open(objectId);
+            } else {
+                loader = object.pack == null ? objectManager.openLoose(objectId) : object.pack.open(objectId);
+            }
+            if (loader == null) {
+                corrupt(objectId, object.location() + ", not found");
+                return;
+            }
+            ObjectEntity.Type type = loader.getType();
+            if (type == ObjectEntity.Type.blob) {
+                MessageDigest digest = DigestUtils.getSha1Digest();
+                digest.update(ObjectUtils.buildObjectHead(type, loader.getSize()));
+                loader.copyTo(new DigestOutputStream(NullOutputStream.NULL_OUTPUT_STREAM, digest));
+                checkHash(object, ObjectUtils.bytesToHex(digest.digest()));
+            } else {
+                int permits = (int) Math.min(loader.getSize(), maxBytesInFlight);
+                acquire(permits);
+                try {
+                    byte[] data = loader.getBytes();
+                    if (checkHash(object, ObjectUtils.sha1hash(type, data))) {
+                        if (type == ObjectEntity.Type.tree) {
+                            checkTree(object, data);
+                        } else {
+                            checkCommit(object, data);
+                        }
+                    }
+                } finally {
+                    bytesInFlight.release(permits);
+                }
+            }
+            checkedObjects.incrementAndGet();
+            checkedBytes.addAndGet(loader.getSize());
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            corrupt(objectId, object.location() + ", " + e.getMessage());
+        }
+    }
+
+    private void acquire(int permits) throws InterruptedIOException {
+        try {
+            bytesInFlight.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("fsck interrupted");
+        }
+    }
+
+    private boolean checkHash(StoredObject object, String actual) {
+        if (object.objectId.equals(actual)) {
+            return true;
+        }
+        corrupt(object.objectId, object.location() + ", hash mismatch: " + actual);
+        return false;
+    }
+
+    private void checkTree(StoredObject object, byte[] data) throws IOException {
+        TreeObjectData tree = TreeObjectData.parseFrom(data);
+        // 解析时会跳过末尾不完整的entry, 重新序列化比较
+        if (!Arrays.equals(tree.toBytes(), data)) {
+            corrupt(object.objectId, object.location() + ", bad tree format");
+            return;
+        }
+        for (TreeObjectData.TreeEntry entry : tree.getEntries()) {
+            if (entry.getType() == null) {
+                corrupt(object.objectId, object.location() + ", unknown mode " + entry.getMode() + " of " + entry.getName());
+                continue;
+            }
+            if (StringUtils.isEmpty(entry.getName()) || entry.getName().contains("/")) {
+                corrupt(object.objectId, object.location() + ", bad entry name: " + entry.getName());
+                continue;
+            }
+            if (!objectManager.exists(entry.getObjectId())) {
+                missing(entry.getObjectId(), "tree " + object.objectId);
+                continue;
+            }
+            if (ObjectUtils.CHUNKED_BLOB_MODE.equals(entry.getMode())) {
+                chunkManifests.add(entry.getObjectId());
+            }
+        }
+    }
+
+    private void checkCommit(StoredObject object, byte[] data) throws IOException {
+        CommitObjectData commit = CommitObjectData.parseFrom(data);
+        if (!ObjectId.isId(commit.getTree()) || commit.getCommitter() == null) {
+            corrupt(object.objectId, object.location() + ", bad commit format");
+            return;
+        }
+        if (!objectManager.exists(commit.getTree())) {
+            missing(commit.getTree(), "commit " + object.objectId);
+        }
+        for (String parent : commit.getParents()) {
+            if (!ObjectId.isId(parent)) {
+                corrupt(object.objectId, object.location() + ", bad parent " + parent);
+            } else if (!GitLite.EMPTY_OBJECT_ID.equals(parent) && !objectManager.exists(parent)) {
+                missing(parent, "commit " + object.objectId);
+            }
+        }
+    }
+
+    /**
+     * manifest本身作为blob已经校验过hash, 这里检查格式和块
+     */
+    private void checkChunkManifests() throws IOException {
+        for (String manifestId : chunkManifests) {
+            if (corruptObjects.contains(manifestId)) {
+                continue;
+            }
+            ChunkManifest manifest;
+            try {
+                manifest = objectManager.readChunkManifest(manifestId);
+            } catch (RuntimeException e) {
+                corrupt(manifestId, e.getMessage());
+                continue;
+            }
+            for (ChunkManifest.Chunk chunk : manifest.getChunks()) {
+                if (!objectManager.exists(chunk.getObjectId())) {
+                    missing(chunk.getObjectId(), "chunk manifest " + manifestId);
+                }
+            }
+        }
+    }
+
+    /**
+     * 进行中的操作留下的.lock不检查
+     */
+    private void checkRefs(File refsDir) throws IOException {
+        if (!refsDir.exists()) {
+            return;
+        }
+        for (File file : FileUtils.listFiles(refsDir, null, true)) {
+            if (file.getName().endsWith(".lock")) {
+                continue;
+            }
+            String objectId = StringUtils.trim(FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+            checkRefTarget("ref " + file.getAbsolutePath(), objectId);
+        }
+    }
+
+    private void checkLogs(File logsDir) throws IOException {
+        if (!logsDir.exists()) {
+            return;
+        }
+        for (File file : FileUtils.listFiles(logsDir, new String[]{"json"}, true)) {
+            List<LogItem> logs;
+            try {
+                logs = LogManager.getLogsFromFile(file);
+            } catch (IOException | RuntimeException e) {
+                badRef("log " + file.getAbsolutePath() + " is unreadable: " + e.getMessage());
+                continue;
+            }
+            if (logs == null) {
+                continue;
+            }
+            for (LogItem logItem : logs) {
+                checkRefTarget("log " + file.getAbsolutePath(), logItem.getCommitObjectId());
+                checkRefTarget("log " + file.getAbsolutePath(), logItem.getParentCommitObjectId());
+            }
+        }
+    }
+
+    private void checkRefTarget(String name, String objectId) throws IOException {
+        if (GitLite.EMPTY_OBJECT_ID.equals(objectId)) {
+            return;
+        }
+        if (!ObjectId.isId(objectId)) {
+            badRef(name + " has bad object id: " + objectId);
+            return;
+        }
+        if (!objectManager.exists(objectId)) {
+            badRef(name + " points at missing commit " + objectId);
+            return;
+        }
+        try {
+            if (objectManager.open(objectId).getType() != ObjectEntity.Type.commit) {
+                badRef(name + " points at non-commit " + objectId);
+            }
+        } catch (IOException | RuntimeException e) {
+            badRef(name + " points at unreadable object " + objectId + ": " + e.getMessage());
+        }
+    }
+
+    private void corrupt(String objectId, String message) {
+        corruptObjects.add(objectId);
+        problems.add("corrupt object " + objectId + ": " + message);
+    }
+
+    private void missing(String objectId, String referrer) {
+        if (missingObjects.add(objectId)) {
+            problems.add("missing object " + objectId + " referenced by " + referrer);
+        }
+    }
+
+    private void badRef(String message) {
+        badRefs++;
+        problems.add(message);
+    }
+}
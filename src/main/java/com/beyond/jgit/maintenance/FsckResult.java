@@ -0,0 +1,40 @@
+package com.beyond.jgit.maintenance;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class FsckResult {
+    /**
+     * 校验过的object数, 同一object在loose和多个pack中的副本分别计数
+     */
+    private long checkedObjects;
+    /**
+     * 校验过的object解压后的总字节数
+     */
+    private long checkedBytes;
+    /**
+     * hash不符, 无法解压或结构错误的object
+     */
+    private int corruptObjects;
+    /**
+     * 被tree/commit/manifest引用但不存在的object
+     */
+    private int missingObjects;
+    /**
+     * 指向不存在的commit或内容不是objectId的ref和log记录
+     */
+    private int badRefs;
+    private List<String> problems = new ArrayList<>();
+    private long elapsedMillis;
+
+    public boolean isOk() {
+        return problems.isEmpty();
+    }
+
+    public long getBytesPerSecond() {
+        return checkedBytes * 1000 / Math.max(1, elapsedMillis);
+    }
+}
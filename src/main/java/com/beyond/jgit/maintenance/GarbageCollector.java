@@ -0,0 +1,346 @@
+package com.beyond.jgit.maintenance;
+
+import com.beyond.jgit.GitLite;
+import com.beyond.jgit.GitLiteConfig;
+import com.beyond.jgit.chunk.ChunkManifest;
+import com.beyond.jgit.index.Index;
+import com.beyond.jgit.index.IndexManager;
+import com.beyond.jgit.log.LogItem;
+import com.beyond.jgit.log.LogManager;
+import com.beyond.jgit.object.ObjectId;
+import com.beyond.jgit.object.ObjectManager;
+import com.beyond.jgit.object.data.CommitHeader;
+import com.beyond.jgit.object.data.TreeCursor;
+import com.beyond.jgit.pack.PackFile;
+import com.beyond.jgit.pack.PackIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 标记-清除的gc:
+ * <ol>
+ * <li>从refs(包括.lock), logs和index收集根, 先沿parent遍历出所有可达commit, 再多线程并行遍历它们的tree</li>
+ * <li>可达的object, 以及mtime在保护期内的pack中不可达的object, 重新打包为一个pack, 删除旧pack</li>
+ * <li>不可达且mtime超过保护期的loose object删除, 保护期内的保留为loose</li>
+ * <li>去掉commit已不可达的bitmap, bitmap中的object重新编号</li>
+ * </ol>
+ * 并发的add/commit写入的新object还未被ref引用, 但mtime在保护期内不会被删除; 写入时已存在的object会被freshen更新mtime.
+ * 同一时间只允许一个gc, 通过gitDir下的gc.lock互斥.
+ */
+@Slf4j
+public class GarbageCollector {
+
+    private static final String GC_LOCK = "gc.lock";
+    /**
+     * 超过这个时间的gc.lock视为进程异常退出后遗留的
+     */
+    private static final long STALE_LOCK_MILLIS = 12 * 60 * 60 * 1000;
+    private static final String TMP_OBJECT_PREFIX = "tmp_obj_";
+
+    private final GitLiteConfig config;
+    private final ObjectManager objectManager;
+    private int threads;
+
+    public GarbageCollector(GitLiteConfig config, ObjectManager objectManager) {
+        this.config = config;
+        this.objectManager = objectManager;
+        this.threads = config.getGcThreads();
+    }
+
+    /**
+     * 标记阶段的线程数, 默认为gcThreads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public GcResult run() throws IOException {
+        long start = System.currentTimeMillis();
+        File lockFile = new File(config.getGitDir(), GC_LOCK);
+        lock(lockFile);
+        try {
+            GcResult result = new GcResult();
+            Set<ObjectId> reachable = mark();
+            result.setReachableObjects(reachable.size());
+            sweep(reachable, result);
+            objectManager.pruneBitmaps(reachable);
+            result.setElapsedMillis(System.currentTimeMillis() - start);
+            log.info("gc done, reachable:{}, packed:{}, pruned:{}, removed packs:{}, {}ms", result.getReachableObjects(),
+                    result.getPackedObjects(), result.getPrunedObjects(), result.getRemovedPacks(), result.getElapsedMillis());
+            return result;
+        } finally {
+            FileUtils.deleteQuietly(lockFile);
+        }
+    }
+
+    private void lock(File lockFile) throws IOException {
+        FileUtils.forceMkdirParent(lockFile);
+        if (lockFile.createNewFile()) {
+            return;
+        }
+        if (System.currentTimeMillis() - lockFile.lastModified() < STALE_LOCK_MILLIS) {
+            throw new RuntimeException("gc is already running, lock: " + lockFile.getAbsolutePath());
+        }
+        log.warn("remove stale gc lock: {}", lockFile.getAbsolutePath());
+        FileUtils.deleteQuietly(lockFile);
+        if (!lockFile.createNewFile()) {
+            throw new RuntimeException("gc is already running, lock: " + lockFile.getAbsolutePath());
+        }
+    }
+
+    // ---------------- mark ----------------
+
+    private Set<ObjectId> mark() throws IOException {
+        Set<ObjectId> marked = ConcurrentHashMap.newKeySet();
+        Set<String> rootCommits = new LinkedHashSet<>();
+        collectRefs(new File(config.getRefsDir()), rootCommits);
+        collectLogs(new File(config.getLogsDir()), rootCommits);
+        collectIndex(marked);
+
+        List<ObjectId> trees = new ArrayList<>();
+        Deque<ObjectId> stack = new ArrayDeque<>();
+        for (String rootCommit : rootCommits) {
+            if (!objectManager.exists(rootCommit)) {
+                // 如remote log中记录的别的客户端的提交
+                log.debug("root commit not exists, skip: {}", rootCommit);
+                continue;
+            }
+            stack.push(ObjectId.fromString(rootCommit));
+        }
+        while (!stack.isEmpty()) {
+            ObjectId commitId = stack.pop();
+            if (!marked.add(commitId)) {
+                continue;
+            }
+            CommitHeader header = objectManager.readCommitHeader(commitId.name());
+            trees.add(ObjectId.fromString(header.getTree()));
+            for (String parent : header.getParents()) {
+                if (!Objects.equals(parent, GitLite.EMPTY_OBJECT_ID)) {
+                    stack.push(ObjectId.fromString(parent));
+                }
+            }
+        }
+
+        int threads = Math.max(1, Math.min(this.threads, trees.size()));
+        if (threads == 1) {
+            for (ObjectId tree : trees) {
+                markTree(tree, marked);
+            }
+            return marked;
+        }
+        // 不同commit的tree大部分相同, 共享的marked集合保证每个子tree只被一个线程遍历
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>(trees.size());
+            for (ObjectId tree : trees) {
+                futures.add(executor.submit(() -> {
+                    markTree(tree, marked);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                getMarkResult(future);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return marked;
+    }
+
+    private void markTree(ObjectId treeId, Set<ObjectId> marked) throws IOException {
+        if (!marked.add(treeId)) {
+            return;
+        }
+        TreeCursor cursor = objectManager.openTree(treeId.name());
+        while (cursor.next()) {
+            if (cursor.isTree()) {
+                markTree(cursor.getObjectId(), marked);
+            } else if (cursor.isChunkedBlob()) {
+                markChunkedBlob(cursor.getObjectId(), marked);
+            } else {
+                marked.add(cursor.getObjectId());
+            }
+        }
+    }
+
+    /**
+     * manifest和它的块
+     */
+    private void markChunkedBlob(ObjectId manifestId, Set<ObjectId> marked) throws IOException {
+        if (!marked.add(manifestId)) {
+            return;
+        }
+        for (ChunkManifest.Chunk chunk : objectManager.readChunkManifest(manifestId.name()).getChunks()) {
+            marked.add(ObjectId.fromString(chunk.getObjectId()));
+        }
+    }
+
+    private static void getMarkResult(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("gc interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * refs下所有文件(包括进行中的操作留下的.lock)的内容都是commitId
+     */
+    private void collectRefs(File refsDir, Set<String> rootCommits) throws IOException {
+        if (!refsDir.exists()) {
+            return;
+        }
+        for (File file : FileUtils.listFiles(refsDir, null, true)) {
+            String objectId = StringUtils.trim(FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+            if (ObjectId.isId(objectId) && !GitLite.EMPTY_OBJECT_ID.equals(objectId)) {
+                rootCommits.add(objectId);
+            }
+        }
+    }
+
+    private void collectLogs(File logsDir, Set<String> rootCommits) throws IOException {
+        if (!logsDir.exists()) {
+            return;
+        }
+        for (File file : FileUtils.listFiles(logsDir, new String[]{"json", "lock"}, true)) {
+            List<LogItem> logs = LogManager.getLogsFromFile(file);
+            if (logs == null) {
+                continue;
+            }
+            for (LogItem logItem : logs) {
+                for (String objectId : new String[]{logItem.getCommitObjectId(), logItem.getParentCommitObjectId()}) {
+                    if (ObjectId.isId(objectId) && !GitLite.EMPTY_OBJECT_ID.equals(objectId)) {
+                        rootCommits.add(objectId);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * add后还未commit的blob只被index引用
+     */
+    private void collectIndex(Set<ObjectId> marked) throws IOException {
+        for (String indexPath : new String[]{config.getIndexPath(), config.getIndexPath() + ".lock"}) {
+            if (indexPath == null || !new File(indexPath).exists()) {
+                continue;
+            }
+            Index index;
+            try {
+                index = IndexManager.parseIndex(indexPath);
+            } catch (IOException e) {
+                // 正在写入的.lock不完整, 其中新写入的object还在保护期内
+                if (!indexPath.endsWith(".lock")) {
+                    throw e;
+                }
+                log.debug("skip incomplete index lock: {}", indexPath);
+                continue;
+            }
+            if (index == null) {
+                continue;
+            }
+            for (Index.Entry entry : index.getEntries()) {
+                if (!ObjectId.isId(entry.getObjectId())) {
+                    continue;
+                }
+                if (entry.getFlag() == Index.Entry.Flag.CHUNKED) {
+                    markChunkedBlob(ObjectId.fromString(entry.getObjectId()), marked);
+                } else {
+                    marked.add(ObjectId.fromString(entry.getObjectId()));
+                }
+            }
+        }
+    }
+
+    // ---------------- sweep ----------------
+
+    private void sweep(Set<ObjectId> reachable, GcResult result) throws IOException {
+        // 保护期从清除阶段开始时计算, 标记期间写入的object一定在保护期内
+        long expireTime = System.currentTimeMillis() - config.getGcPruneExpire();
+
+        List<PackFile> oldPacks = objectManager.getPacks();
+        Set<ObjectId> toPack = new HashSet<>();
+        Set<ObjectId> dropped = new HashSet<>();
+        for (PackFile pack : oldPacks) {
+            boolean fresh = pack.getPackFile().lastModified() >= expireTime;
+            PackIndex index = pack.getIndex();
+            for (int i = 0; i < index.getObjectCount(); i++) {
+                ObjectId objectId = ObjectId.fromString(index.getObjectId(i));
+                if (fresh || reachable.contains(objectId)) {
+                    toPack.add(objectId);
+                } else {
+                    dropped.add(objectId);
+                }
+            }
+        }
+        // 同一个object可能同时在过期和未过期的pack中
+        dropped.removeAll(toPack);
+        result.setPrunedObjects(dropped.size());
+
+        List<String> looseObjectIds = objectManager.listLooseObjectIds();
+        List<String> unreachableLoose = new ArrayList<>();
+        for (String objectId : looseObjectIds) {
+            if (reachable.contains(ObjectId.fromString(objectId))) {
+                toPack.add(ObjectId.fromString(objectId));
+            } else {
+                unreachableLoose.add(objectId);
+            }
+        }
+
+        List<String> packObjectIds = new ArrayList<>(toPack.size());
+        for (ObjectId objectId : toPack) {
+            packObjectIds.add(objectId.name());
+        }
+        Collections.sort(packObjectIds);
+        if (!oldPacks.isEmpty() || !packObjectIds.isEmpty()) {
+            // 标记后被freshen的过期pack在删除前由repack再检查
+            objectManager.repack(packObjectIds, oldPacks, expireTime);
+        }
+        result.setPackedObjects(packObjectIds.size());
+        result.setRemovedPacks(oldPacks.size());
+
+        for (String objectId : unreachableLoose) {
+            if (objectManager.pruneLooseObject(objectId, expireTime)) {
+                result.setPrunedObjects(result.getPrunedObjects() + 1);
+            }
+        }
+        pruneTmpFiles(expireTime);
+    }
+
+    /**
+     * 写入/下载中断遗留的临时文件
+     */
+    private void pruneTmpFiles(long expireTime) {
+        File[] tmpFiles = new File(config.getObjectsDir()).listFiles((dir, name) -> name.startsWith(TMP_OBJECT_PREFIX));
+        if (tmpFiles == null) {
+            return;
+        }
+        for (File tmpFile : tmpFiles) {
+            if (tmpFile.lastModified() < expireTime) {
+                FileUtils.deleteQuietly(tmpFile);
+            }
+        }
+    }
+}
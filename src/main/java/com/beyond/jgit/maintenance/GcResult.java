@@ -0,0 +1,21 @@
+package com.beyond.jgit.maintenance;
+
+import lombok.Data;
+
+@Data
+public class GcResult {
+    /**
+     * 从refs/logs/index可达的object数
+     */
+    private int reachableObjects;
+    /**
+     * 写入新pack的object数(可达的, 以及保护期内的pack中不可达的)
+     */
+    private int packedObjects;
+    /**
+     * 删除的不可达loose object和pack中丢弃的不可达object
+     */
+    private int prunedObjects;
+    private int removedPacks;
+    private long elapsedMillis;
+}
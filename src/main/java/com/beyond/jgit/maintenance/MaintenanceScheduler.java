@@ -0,0 +1,202 @@
+package com.beyond.jgit.maintenance;
+
+import com.beyond.jgit.GitLite;
+import com.beyond.jgit.GitLiteConfig;
+import com.beyond.jgit.object.ObjectManager;
+import com.beyond.jgit.pack.PackFile;
+import com.beyond.jgit.pack.PackIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 后台维护, 在一个低优先级的守护线程中按maintenanceCheckInterval定期检查:
+ * <ul>
+ * <li>commit-graph: ref指向的commit不在graph中时增量更新, 开销很小, 每次都检查</li>
+ * <li>增量打包: loose object达到maintenanceLooseObjectLimit时, 每次最多打包maintenanceRepackBatchSize个</li>
+ * <li>合并pack: pack数超过maintenancePackLimit时, 合并最小的几个pack, 总大小不超过maintenanceRepackMaxBytes.
+ * 只合并不清除, 不需要标记可达object</li>
+ * <li>gc: 距上次gc超过maintenanceGcInterval时, 单线程标记. 完整的gc要遍历和重新打包所有可达object, 开销与仓库大小成正比,
+ * 是唯一不受单次限制的任务, 只靠时间间隔和空闲检测控制频率</li>
+ * </ul>
+ * 打包和gc只在空闲时执行: index, refs和logs在maintenanceIdleTime内都没有变化(包括其他进程的操作).
+ * <pre>
+ * MaintenanceScheduler scheduler = new MaintenanceScheduler(gitLite);
+ * scheduler.start();
+ * ...
+ * scheduler.close();
+ * </pre>
+ */
+@Slf4j
+public class MaintenanceScheduler implements Closeable {
+
+    private final GitLiteConfig config;
+    private final ObjectManager objectManager;
+
+    private ScheduledExecutorService executor;
+    private long lastGcTime;
+
+    public MaintenanceScheduler(GitLite gitLite) {
+        this.config = gitLite.getConfig();
+        this.objectManager = gitLite.getObjectManager();
+        this.lastGcTime = System.currentTimeMillis();
+    }
+
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gitlite-maintenance");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        long interval = config.getMaintenanceCheckInterval();
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                runPendingTasks();
+            } catch (Throwable e) {
+                // 异常不能抛出, 否则后续的调度会被取消
+                log.warn("maintenance fail", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止调度, 等待正在执行的任务结束
+     */
+    @Override
+    public synchronized void close() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("maintenance task not finished in 1 minute");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+
+    /**
+     * 检查各项阈值, 执行需要的任务. 调度线程定期调用, 也可以直接调用
+     */
+    public void runPendingTasks() throws IOException {
+        List<String> refs = readRefs();
+        if (!refs.isEmpty()) {
+            objectManager.updateCommitGraph(refs.toArray(new String[0]));
+        }
+
+        if (!isIdle()) {
+            return;
+        }
+        long gcInterval = config.getMaintenanceGcInterval();
+        if (gcInterval > 0 && System.currentTimeMillis() - lastGcTime > gcInterval) {
+            GarbageCollector garbageCollector = new GarbageCollector(config, objectManager);
+            garbageCollector.setThreads(1);
+            try {
+                garbageCollector.run();
+            } finally {
+                lastGcTime = System.currentTimeMillis();
+            }
+            return;
+        }
+
+        if (objectManager.getPacks().size() > config.getMaintenancePackLimit() && mergeSmallPacks()) {
+            return;
+        }
+
+        int looseObjects = objectManager.listLooseObjectIds().size();
+        if (looseObjects >= config.getMaintenanceLooseObjectLimit()) {
+            File packFile = objectManager.packLooseObjects(config.getMaintenanceRepackBatchSize());
+            log.debug("maintenance packed {} of {} loose objects into {}", Math.min(looseObjects, config.getMaintenanceRepackBatchSize()),
+                    looseObjects, packFile == null ? null : packFile.getName());
+        }
+    }
+
+    /**
+     * 从最小的pack开始选, 总大小不超过maintenanceRepackMaxBytes, 重新打包为一个pack
+     *
+     * @return 选出的pack不足两个时不合并, 返回false
+     */
+    private boolean mergeSmallPacks() throws IOException {
+        List<PackFile> packs = new ArrayList<>(objectManager.getPacks());
+        packs.sort(Comparator.comparingLong(pack -> pack.getPackFile().length()));
+        List<PackFile> selected = new ArrayList<>();
+        long bytes = 0;
+        for (PackFile pack : packs) {
+            long length = pack.getPackFile().length();
+            if (bytes + length > config.getMaintenanceRepackMaxBytes()) {
+                break;
+            }
+            selected.add(pack);
+            bytes += length;
+        }
+        if (selected.size() < 2) {
+            log.debug("maintenance skip merging packs, smallest packs exceed {} bytes", config.getMaintenanceRepackMaxBytes());
+            return false;
+        }
+        Set<String> objectIds = new TreeSet<>();
+        for (PackFile pack : selected) {
+            PackIndex index = pack.getIndex();
+            for (int i = 0; i < index.getObjectCount(); i++) {
+                objectIds.add(index.getObjectId(i));
+            }
+        }
+        File packFile = objectManager.repack(new ArrayList<>(objectIds), selected);
+        log.debug("maintenance merged {} packs ({} bytes, {} objects) into {}", selected.size(), bytes, objectIds.size(),
+                packFile == null ? null : packFile.getName());
+        return true;
+    }
+
+    /**
+     * index, refs和logs最近一次修改距今超过maintenanceIdleTime
+     */
+    boolean isIdle() {
+        long lastModified = 0;
+        if (config.getIndexPath() != null) {
+            lastModified = Math.max(lastModified, new File(config.getIndexPath()).lastModified());
+        }
+        for (String dir : new String[]{config.getRefsDir(), config.getLogsDir()}) {
+            if (dir == null || !new File(dir).exists()) {
+                continue;
+            }
+            for (File file : FileUtils.listFiles(new File(dir), null, true)) {
+                lastModified = Math.max(lastModified, file.lastModified());
+            }
+        }
+        return System.currentTimeMillis() - lastModified >= config.getMaintenanceIdleTime();
+    }
+
+    private List<String> readRefs() throws IOException {
+        List<String> refs = new ArrayList<>();
+        File refsDir = new File(config.getRefsDir());
+        if (!refsDir.exists()) {
+            return refs;
+        }
+        for (File file : FileUtils.listFiles(refsDir, null, true)) {
+            if (file.getName().endsWith(".lock")) {
+                continue;
+            }
+            refs.add(StringUtils.trim(FileUtils.readFileToString(file, StandardCharsets.UTF_8)));
+        }
+        return refs;
+    }
+}
@@ -0,0 +1,166 @@
+package com.beyond.jgit.object;
+
+import com.beyond.jgit.util.ZlibCompression;
+import lombok.Data;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * 按压缩率选择压缩级别: 对内容前缀试压缩, 压缩率差的object(已压缩的图片, zip等)用level 0存储.
+ * level 0仍然是合法的zlib流(stored块), 读取方不需要区分, 解压时只是复制.
+ * 每种type分别统计压缩和直接存储的object, 以及按试压缩速度估计节省的压缩耗时.
+ */
+public class AdaptiveCompression {
+
+    /**
+     * 试压缩的前缀长度
+     */
+    public static final int SAMPLE_SIZE = 64 * 1024;
+    /**
+     * 小于这个大小的object压缩开销可以忽略, 不试压缩
+     */
+    private static final int MIN_SAMPLE_SIZE = 512;
+    /**
+     * 试压缩后大于原大小的这个比例视为不可压缩
+     */
+    private static final double INCOMPRESSIBLE_RATIO = 0.9;
+
+    private final boolean enabled;
+    private final Map<ObjectEntity.Type, Stats> stats = new EnumMap<>(ObjectEntity.Type.class);
+
+    public AdaptiveCompression(boolean enabled) {
+        this.enabled = enabled;
+        for (ObjectEntity.Type type : ObjectEntity.Type.values()) {
+            stats.put(type, new Stats());
+        }
+    }
+
+    /**
+     * 压缩整个object. 不超过SAMPLE_SIZE的直接按level压缩, 压缩率差时改为level 0重新输出
+     */
+    public byte[] compress(ObjectEntity.Type type, byte[] bytes, int level) {
+        return compress(type, bytes, level, true);
+    }
+
+    /**
+     * @param record 是否计入统计, 打包时的object写入loose时已统计过, 传false
+     */
+    public byte[] compress(ObjectEntity.Type type, byte[] bytes, int level, boolean record) {
+        if (!enabled || level == Deflater.NO_COMPRESSION || bytes.length < MIN_SAMPLE_SIZE) {
+            return ZlibCompression.compressBytes(bytes, level);
+        }
+        if (bytes.length > SAMPLE_SIZE) {
+            return ZlibCompression.compressBytes(bytes, chooseLevel(type, bytes, SAMPLE_SIZE, bytes.length, level, record));
+        }
+        long start = System.nanoTime();
+        byte[] compressed = ZlibCompression.compressBytes(bytes, level);
+        long nanos = System.nanoTime() - start;
+        boolean stored = incompressible(compressed.length, bytes.length);
+        if (record) {
+            // 不可压缩时已经整体压缩过, 写入时没有节省, 节省的是之后每次读取的解压
+            record(type, stored, bytes.length, nanos, 0);
+        }
+        return stored ? ZlibCompression.compressBytes(bytes, Deflater.NO_COMPRESSION) : compressed;
+    }
+
+    /**
+     * 流式写入前用开头的一段内容决定整个object的压缩级别
+     *
+     * @param sample 内容开头的length个字节
+     * @param size   object的总大小
+     */
+    public int chooseLevel(ObjectEntity.Type type, byte[] sample, int length, long size, int level) {
+        return chooseLevel(type, sample, length, size, level, true);
+    }
+
+    private int chooseLevel(ObjectEntity.Type type, byte[] sample, int length, long size, int level, boolean record) {
+        if (!enabled || level == Deflater.NO_COMPRESSION || length < MIN_SAMPLE_SIZE) {
+            return level;
+        }
+        long start = System.nanoTime();
+        int compressedLength = ZlibCompression.compressedLength(sample, 0, length, level);
+        long nanos = System.nanoTime() - start;
+        if (!incompressible(compressedLength, length)) {
+            if (record) {
+                record(type, false, size, nanos, 0);
+            }
+            return level;
+        }
+        if (record) {
+            // 剩余部分按试压缩的速度估计
+            record(type, true, size, nanos, (long) (nanos * ((double) (size - length) / length)));
+        }
+        return Deflater.NO_COMPRESSION;
+    }
+
+    private static boolean incompressible(long compressedLength, long length) {
+        return compressedLength > length * INCOMPRESSIBLE_RATIO;
+    }
+
+    private synchronized void record(ObjectEntity.Type type, boolean stored, long size, long sampleNanos, long savedNanos) {
+        Stats typeStats = stats.get(type);
+        if (stored) {
+            typeStats.storedObjects++;
+            typeStats.storedBytes += size;
+        } else {
+            typeStats.compressedObjects++;
+            typeStats.compressedBytes += size;
+        }
+        typeStats.sampleNanos += sampleNanos;
+        typeStats.savedNanos += savedNanos;
+    }
+
+    /**
+     * @return 各type统计的副本
+     */
+    public synchronized Map<ObjectEntity.Type, Stats> getStats() {
+        Map<ObjectEntity.Type, Stats> copy = new EnumMap<>(ObjectEntity.Type.class);
+        for (Map.Entry<ObjectEntity.Type, Stats> entry : stats.entrySet()) {
+            Stats typeStats = new Stats();
+            typeStats.setCompressedObjects(entry.getValue().getCompressedObjects());
+            typeStats.setCompressedBytes(entry.getValue().getCompressedBytes());
+            typeStats.setStoredObjects(entry.getValue().getStoredObjects());
+            typeStats.setStoredBytes(entry.getValue().getStoredBytes());
+            typeStats.setSampleNanos(entry.getValue().getSampleNanos());
+            typeStats.setSavedNanos(entry.getValue().getSavedNanos());
+            copy.put(entry.getKey(), typeStats);
+        }
+        return copy;
+    }
+
+    /**
+     * loose格式(type size\0data)的object的type
+     */
+    static ObjectEntity.Type typeOf(byte[] looseBytes) {
+        for (int i = 0; i < looseBytes.length && i < 8; i++) {
+            if (looseBytes[i] == ' ') {
+                return ObjectEntity.Type.valueOf(new String(looseBytes, 0, i));
+            }
+        }
+        throw new RuntimeException("object head error");
+    }
+
+    @Data
+    public static class Stats {
+        /**
+         * 试压缩后正常压缩的object数和原始字节数
+         */
+        private long compressedObjects;
+        private long compressedBytes;
+        /**
+         * 以level 0存储的object数和原始字节数
+         */
+        private long storedObjects;
+        private long storedBytes;
+        /**
+         * 试压缩的耗时(纳秒)
+         */
+        private long sampleNanos;
+        /**
+         * 不可压缩的object跳过压缩估计节省的耗时(纳秒)
+         */
+        private long savedNanos;
+    }
+}
@@ -0,0 +1,336 @@
+package com.beyond.jgit.object;
+
+import com.beyond.jgit.util.ObjectUtils;
+import com.beyond.jgit.util.ZlibCompression;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * 所有object追加写入同一个文件, 没有每个object一个的小文件, 适合大量写入的场景. 结构:
+ * <pre>
+ * "OLOG" | version(4) | record...
+ * record: objectId(20) | length(4) | zlib(type size\0data)
+ * </pre>
+ * 打开时顺序扫描一遍, 在内存中建立objectId到record偏移的索引. 写入中断留下的不完整record(length越界或objectId全0)在打开时截掉.
+ * 写入串行化, 读取不加锁. 只支持单进程访问, 不做打包和gc.
+ */
+@Slf4j
+public class AppendLogObjectDatabase implements ObjectDatabase {
+
+    static final byte[] SIGNATURE = {'O', 'L', 'O', 'G'};
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 8;
+    static final int RECORD_HEADER_LENGTH = ObjectId.RAW_LENGTH + 4;
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    /**
+     * 压缩后小于这个大小的object直接整体读入内存, 不流式读取
+     */
+    private static final int STREAM_THRESHOLD = 1024 * 1024;
+
+    private final File file;
+    private final int compressionLevel;
+    private final boolean fsync;
+    private final FileChannel channel;
+    private final Map<ObjectId, Long> offsets = new ConcurrentHashMap<>();
+
+    /**
+     * 下一个record的写入位置, 只在持有锁时修改
+     */
+    private long end;
+    private boolean dirty;
+
+    /**
+     * @param fsync 为true时sync会将写入刷到磁盘
+     */
+    public AppendLogObjectDatabase(File file, int compressionLevel, boolean fsync) throws IOException {
+        this.file = file;
+        this.compressionLevel = compressionLevel;
+        this.fsync = fsync;
+        FileUtils.forceMkdirParent(file);
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void load() throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.put(SIGNATURE).putInt(VERSION).flip();
+            writeFully(header, 0);
+            end = HEADER_LENGTH;
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), STREAM_BUFFER_SIZE))) {
+            byte[] header = new byte[HEADER_LENGTH];
+            in.readFully(header);
+            if (!Arrays.equals(Arrays.copyOf(header, 4), SIGNATURE)) {
+                throw new IOException("not an object log: " + file.getAbsolutePath());
+            }
+            int version = ((header[4] & 0xff) << 24) | ((header[5] & 0xff) << 16) | ((header[6] & 0xff) << 8) | (header[7] & 0xff);
+            if (version != VERSION) {
+                throw new IOException("unsupported object log version " + version + ": " + file.getAbsolutePath());
+            }
+            long position = HEADER_LENGTH;
+            byte[] raw = new byte[ObjectId.RAW_LENGTH];
+            while (position + RECORD_HEADER_LENGTH <= size) {
+                in.readFully(raw);
+                int length = in.readInt();
+                if (length < 0 || position + RECORD_HEADER_LENGTH + length > size || isZero(raw)) {
+                    break;
+                }
+                offsets.put(ObjectId.fromRaw(raw), position);
+                IOUtils.skipFully(in, length);
+                position += RECORD_HEADER_LENGTH + length;
+            }
+            if (position < size) {
+                log.warn("truncate incomplete record at {}: {}", position, file.getAbsolutePath());
+                channel.truncate(position);
+            }
+            end = position;
+        }
+    }
+
+    private static boolean isZero(byte[] raw) {
+        for (byte b : raw) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String write(byte[] bytes) throws IOException {
+        String objectId = ObjectUtils.sha1hash(bytes);
+        ObjectId id = ObjectId.fromString(objectId);
+        if (offsets.containsKey(id)) {
+            return objectId;
+        }
+        byte[] compressed = ZlibCompression.compressBytes(bytes, compressionLevel);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + compressed.length);
+        record.put(id.toRaw()).putInt(compressed.length).put(compressed).flip();
+        synchronized (this) {
+            if (offsets.containsKey(id)) {
+                return objectId;
+            }
+            writeFully(record, end);
+            offsets.put(id, end);
+            end += record.limit();
+            dirty = true;
+        }
+        return objectId;
+    }
+
+    /**
+     * 先写入全0的record头, 流式压缩到文件末尾, 算出objectId后再回填头; 已存在或失败时截掉本次写入的部分.
+     * 写入期间持有锁, 其他写入等待.
+     */
+    @Override
+    public synchronized String write(ObjectEntity.Type type, long size, InputStream in) throws IOException {
+        long start = end;
+        boolean done = false;
+        try {
+            writeFully(ByteBuffer.allocate(RECORD_HEADER_LENGTH), start);
+            ChannelOutputStream channelOut = new ChannelOutputStream(start + RECORD_HEADER_LENGTH);
+            MessageDigest digest = DigestUtils.getSha1Digest();
+            Deflater deflater = ZlibCompression.deflater(compressionLevel);
+            try (OutputStream out = new DigestOutputStream(new DeflaterOutputStream(channelOut, deflater, STREAM_BUFFER_SIZE), digest)) {
+                out.write(ObjectUtils.buildObjectHead(type, size));
+                byte[] buf = new byte[STREAM_BUFFER_SIZE];
+                long count = 0;
+                int len;
+                while ((len = in.read(buf)) != -1) {
+                    out.write(buf, 0, len);
+                    count += len;
+                }
+                if (count != size) {
+                    throw new IOException("size mismatch, expect " + size + " but read " + count);
+                }
+            }
+            ObjectId id = ObjectId.fromRaw(digest.digest());
+            if (offsets.containsKey(id)) {
+                return id.name();
+            }
+            long length = channelOut.position - start - RECORD_HEADER_LENGTH;
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("object too large for object log: " + length);
+            }
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+            header.put(id.toRaw()).putInt((int) length).flip();
+            writeFully(header, start);
+            offsets.put(id, start);
+            end = channelOut.position;
+            dirty = true;
+            done = true;
+            return id.name();
+        } finally {
+            if (!done) {
+                channel.truncate(start);
+            }
+        }
+    }
+
+    @Override
+    public ObjectEntity readObject(String objectId) throws IOException {
+        long offset = findOffset(objectId);
+        byte[] compressed = new byte[readLength(offset)];
+        readFully(ByteBuffer.wrap(compressed), offset + RECORD_HEADER_LENGTH);
+        return ObjectEntity.parseFrom(ZlibCompression.decompressBytes(compressed));
+    }
+
+    @Override
+    public ObjectLoader open(String objectId) throws IOException {
+        long offset = findOffset(objectId);
+        int length = readLength(offset);
+        if (length < STREAM_THRESHOLD) {
+            return ObjectLoader.of(readObject(objectId));
+        }
+        long dataOffset = offset + RECORD_HEADER_LENGTH;
+        CompressedObjectLoader loader = new CompressedObjectLoader(file.getAbsolutePath() + "@" + offset) {
+            @Override
+            InputStream openCompressed() {
+                return new BufferedInputStream(new ChannelInputStream(dataOffset, dataOffset + length), STREAM_BUFFER_SIZE);
+            }
+        };
+        loader.init();
+        return loader;
+    }
+
+    @Override
+    public boolean exists(String objectId) {
+        return offsets.containsKey(ObjectId.fromString(objectId));
+    }
+
+    @Override
+    public List<String> listObjectIds() {
+        return offsets.keySet().stream().map(ObjectId::name).collect(Collectors.toList());
+    }
+
+    public int size() {
+        return offsets.size();
+    }
+
+    @Override
+    public synchronized void sync() throws IOException {
+        if (fsync && dirty) {
+            channel.force(false);
+            dirty = false;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private long findOffset(String objectId) throws FileNotFoundException {
+        Long offset = offsets.get(ObjectId.fromString(objectId));
+        if (offset == null) {
+            throw new FileNotFoundException("object not found: " + objectId);
+        }
+        return offset;
+    }
+
+    private int readLength(long offset) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        readFully(buf, offset + ObjectId.RAW_LENGTH);
+        return buf.getInt(0);
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position);
+            if (n < 0) {
+                throw new EOFException("unexpected end of object log: " + file.getAbsolutePath());
+            }
+            position += n;
+        }
+    }
+
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /**
+     * 从position起顺序写入文件
+     */
+    private class ChannelOutputStream extends OutputStream {
+
+        private long position;
+
+        private ChannelOutputStream(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writeFully(ByteBuffer.wrap(b, off, len), position);
+            position += len;
+        }
+    }
+
+    /**
+     * 读取[position, limit)区间
+     */
+    private class ChannelInputStream extends InputStream {
+
+        private long position;
+        private final long limit;
+
+        private ChannelInputStream(long position, long limit) {
+            this.position = position;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= limit) {
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, limit - position)), position);
+            if (n <= 0) {
+                return -1;
+            }
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.beyond.jgit.object;
+
+import com.beyond.jgit.util.ZlibCompression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * zlib压缩的loose格式(type size\0data)的object: 构造时只解压出header得到type和size, 内容在openStream时再流式解压
+ */
+abstract class CompressedObjectLoader extends ObjectLoader {
+
+    private static final int MAX_HEAD_LENGTH = 64;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final String name;
+    private ObjectEntity.Type type;
+    private long size;
+
+    /**
+     * @param name 出错时提示的来源(文件路径等)
+     */
+    CompressedObjectLoader(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 子类构造完成后调用, 读取header
+     */
+    void init() throws IOException {
+        try (InputStream in = new InflaterInputStream(openCompressed(), ZlibCompression.inflater(), MAX_HEAD_LENGTH)) {
+            String head = readHead(in);
+            int space = head.indexOf(' ');
+            if (space < 0) {
+                throw new IOException("corrupt object head: " + name);
+            }
+            this.type = ObjectEntity.Type.valueOf(head.substring(0, space));
+            this.size = Long.parseLong(head.substring(space + 1));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("corrupt object head: " + name, e);
+        }
+    }
+
+    /**
+     * 每次调用返回一个从压缩数据开头读起的新流
+     */
+    abstract InputStream openCompressed() throws IOException;
+
+    private String readHead(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\0') {
+            if (c == -1 || sb.length() >= MAX_HEAD_LENGTH) {
+                throw new IOException("corrupt object head: " + name);
+            }
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public ObjectEntity.Type getType() {
+        return type;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        InputStream in = new InflaterInputStream(openCompressed(), new Inflater(), STREAM_BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inf.end();
+            }
+        };
+        try {
+            readHead(in);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+}
@@ -0,0 +1,72 @@
+package com.beyond.jgit.object;
+
+import com.beyond.jgit.util.ObjectUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * object只保存在堆内存中, 不压缩, 进程退出后丢失. 用于测试和临时仓库
+ */
+public class InMemoryObjectDatabase implements ObjectDatabase {
+
+    private final Map<ObjectId, ObjectEntity> objects = new ConcurrentHashMap<>();
+
+    @Override
+    public String write(byte[] bytes) throws IOException {
+        String objectId = ObjectUtils.sha1hash(bytes);
+        ObjectEntity objectEntity = ObjectEntity.parseFrom(bytes);
+        if (objectEntity == null) {
+            throw new IOException("empty object");
+        }
+        objects.putIfAbsent(ObjectId.fromString(objectId), objectEntity);
+        return objectId;
+    }
+
+    @Override
+    public String write(ObjectEntity.Type type, long size, InputStream in) throws IOException {
+        if (size > Integer.MAX_VALUE - 32) {
+            throw new IOException("object too large to keep in memory: " + size);
+        }
+        byte[] data = new byte[(int) size];
+        int read = IOUtils.read(in, data);
+        if (read != size || in.read() != -1) {
+            throw new IOException("size mismatch, expect " + size);
+        }
+        return write(ObjectUtils.buildObjectBytes(type, data));
+    }
+
+    @Override
+    public ObjectEntity readObject(String objectId) throws IOException {
+        ObjectEntity objectEntity = objects.get(ObjectId.fromString(objectId));
+        if (objectEntity == null) {
+            throw new FileNotFoundException("object not found: " + objectId);
+        }
+        return objectEntity;
+    }
+
+    @Override
+    public ObjectLoader open(String objectId) throws IOException {
+        return ObjectLoader.of(readObject(objectId));
+    }
+
+    @Override
+    public boolean exists(String objectId) {
+        return objects.containsKey(ObjectId.fromString(objectId));
+    }
+
+    @Override
+    public List<String> listObjectIds() {
+        return objects.keySet().stream().map(ObjectId::name).collect(Collectors.toList());
+    }
+
+    public int size() {
+        return objects.size();
+    }
+}
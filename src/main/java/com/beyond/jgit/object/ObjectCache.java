@@ -0,0 +1,96 @@
+package com.beyond.jgit.object;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 解压后的object缓存, 按objectId索引, 总字节数不超过maxBytes, LRU淘汰.
+ * object内容由objectId决定, 不会变化, 缓存的ObjectEntity直接返回给调用方, 调用方不能修改其data.
+ */
+public class ObjectCache {
+
+    /**
+     * 每个entry除data外的大致开销(key, entry, ObjectEntity)
+     */
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private final long maxBytes;
+    private long currentBytes;
+    private final LinkedHashMap<String, ObjectEntity> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public ObjectCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public ObjectEntity get(String objectId) {
+        ObjectEntity objectEntity;
+        synchronized (this) {
+            objectEntity = entries.get(objectId);
+        }
+        if (objectEntity == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return objectEntity;
+    }
+
+    public void put(String objectId, ObjectEntity objectEntity) {
+        long weight = weight(objectEntity);
+        if (weight > maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            ObjectEntity old = entries.put(objectId, objectEntity);
+            if (old != null) {
+                currentBytes -= weight(old);
+            }
+            currentBytes += weight;
+            Iterator<Map.Entry<String, ObjectEntity>> iterator = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && iterator.hasNext()) {
+                currentBytes -= weight(iterator.next().getValue());
+                iterator.remove();
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    private static long weight(ObjectEntity objectEntity) {
+        return (long) objectEntity.getData().length + ENTRY_OVERHEAD;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+}
@@ -0,0 +1,95 @@
+package com.beyond.jgit.object;
+
+import com.beyond.jgit.util.ObjectUtils;
+import com.beyond.jgit.util.ZlibCompression;
+import org.apache.commons.io.FileUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * object存储的后端, ObjectManager只通过这个接口读写object. 实现:
+ * <ul>
+ * <li>{@link ObjectDb}: loose文件 + pack, 默认</li>
+ * <li>{@link InMemoryObjectDatabase}: 只在内存中, 用于测试和临时仓库</li>
+ * <li>{@link AppendLogObjectDatabase}: 追加写入单个文件, 内存中保存偏移索引, 没有每个object一个的小文件</li>
+ * </ul>
+ * 实现必须线程安全. objectId为40位小写hex.
+ */
+public interface ObjectDatabase extends Closeable {
+
+    /**
+     * @param bytes loose格式(type size\0data)的object, 已存在时不重复写入
+     * @return objectId
+     */
+    String write(byte[] bytes) throws IOException;
+
+    /**
+     * 流式写入, 边读边计算sha1
+     *
+     * @param size 内容长度, 读到的长度不一致时写入失败
+     */
+    String write(ObjectEntity.Type type, long size, InputStream in) throws IOException;
+
+    default String writeBlob(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return write(ObjectEntity.Type.blob, file.length(), in);
+        }
+    }
+
+    /**
+     * 添加外部得到的已压缩的loose object文件(如从remote下载的), 添加后file不再使用
+     */
+    default void addLooseObjectFile(String objectId, File file) throws IOException {
+        try {
+            if (!exists(objectId)) {
+                byte[] bytes = ZlibCompression.decompressBytes(FileUtils.readFileToByteArray(file));
+                String actual = ObjectUtils.sha1hash(bytes);
+                if (!actual.equals(objectId)) {
+                    throw new IOException("object id mismatch, expect " + objectId + " but " + actual);
+                }
+                write(bytes);
+            }
+        } finally {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    /**
+     * @throws java.io.FileNotFoundException object不存在
+     */
+    ObjectEntity readObject(String objectId) throws IOException;
+
+    /**
+     * 打开object用于流式读取
+     *
+     * @throws java.io.FileNotFoundException object不存在
+     */
+    ObjectLoader open(String objectId) throws IOException;
+
+    boolean exists(String objectId);
+
+    /**
+     * 列出所有object, 用于fsck等全量校验
+     *
+     * @throws UnsupportedOperationException 实现不支持列出
+     */
+    default List<String> listObjectIds() throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support listing objects");
+    }
+
+    /**
+     * 把之前的写入刷到磁盘. 未刷盘的队列只属于当前实例, 所以每个发布点(index, ref, log)在发布引用这些object的文件之前都要先调用,
+     * 不能依赖之后另一个实例(或进程)的commit来刷盘
+     */
+    default void sync() throws IOException {
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -1,39 +1,670 @@
 package com.beyond.jgit.object;
 
+import com.beyond.jgit.GitLiteConfig;
+import com.beyond.jgit.pack.PackFile;
+import com.beyond.jgit.pack.PackIndex;
+import com.beyond.jgit.pack.PackWriter;
+import com.beyond.jgit.pack.WindowCache;
+import com.beyond.jgit.util.FileUtil;
 import com.beyond.jgit.util.ObjectUtils;
 import com.beyond.jgit.util.ZlibCompression;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 
-public class ObjectDb {
+/**
+ * 默认的object存储: 新写入的object为loose文件(objects/xx/xxx...), 打包后在objects/pack下
+ */
+@Slf4j
+public class ObjectDb implements ObjectDatabase {
+
+    public static final String PACK_DIR = "pack";
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_LOOSE_FILTER_CAPACITY = 1024;
+    /**
+     * 更新mtime的最小间隔, 频繁命中同一个pack时不重复修改
+     */
+    private static final long FRESHEN_INTERVAL = 60 * 60 * 1000;
 
     private final String objectsDir;
+    private final GitLiteConfig config;
+    private final File packDir;
+    private final WindowCache windowCache;
+    private final AdaptiveCompression compression;
+
+    private volatile List<PackFile> packs = Collections.emptyList();
+    private volatile ObjectIdBloomFilter looseFilter;
+    /**
+     * BATCH模式下已写入但还未fsync的文件
+     */
+    private final Queue<File> unsyncedFiles = new ConcurrentLinkedQueue<>();
+    private long packDirLastModified = -1;
 
     public ObjectDb(String objectsDir) {
+        this(objectsDir, new GitLiteConfig());
+    }
+
+    public ObjectDb(String objectsDir, GitLiteConfig config) {
         this.objectsDir = objectsDir;
+        this.config = config;
+        this.packDir = new File(objectsDir, PACK_DIR);
+        this.windowCache = new WindowCache(config.getPackedGitWindowSize(), config.getPackedGitOpenWindows());
+        this.compression = new AdaptiveCompression(config.isAdaptiveCompression());
+        rescanPacks(false);
+        rebuildLooseFilter();
     }
 
+    /**
+     * object已存在时不再压缩和写入; 判断存在之后被并发的gc删除时仍然写入
+     */
+    @Override
     public String write(byte[] bytes) throws IOException {
         String objectId = ObjectUtils.sha1hash(bytes);
+        if (exists(objectId) && freshen(objectId)) {
+            return objectId;
+        }
+        writeLooseFile(objectId, compression.compress(AdaptiveCompression.typeOf(bytes), bytes, config.getLooseCompressionLevel()));
+        return objectId;
+    }
+
+    /**
+     * 与流式写入相同, 先写临时文件再rename到object路径, 中途崩溃不会在object路径留下不完整的文件
+     * (否则exists判定已存在, 这个object再也不会被重写)
+     */
+    private void writeLooseFile(String objectId, byte[] compressed) throws IOException {
+        File dir = new File(objectsDir);
+        FileUtils.forceMkdir(dir);
+        File tmpFile = File.createTempFile("tmp_obj_", ".tmp", dir);
+        try {
+            FileUtils.writeByteArrayToFile(tmpFile, compressed);
+        } catch (IOException | RuntimeException e) {
+            FileUtils.deleteQuietly(tmpFile);
+            throw e;
+        }
+        File file = ObjectUtils.getObjectFile(objectsDir, objectId);
+        moveToObjectFile(tmpFile, file);
+        addToLooseFilter(objectId);
+        addUnsynced(file);
+    }
+
+    /**
+     * 并发的gc可能在创建二级目录之后、rename之前删除这个空目录, 此时重新创建后再试一次
+     */
+    private static void moveToObjectFile(File source, File file) throws IOException {
+        FileUtils.forceMkdirParent(file);
+        try {
+            Files.move(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            FileUtils.forceMkdirParent(file);
+            Files.move(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * 流式写入object: 边读边计算sha1和压缩, 写入临时文件后再rename到object路径, 内存占用与object大小无关
+     *
+     * @param size 内容长度, 读到的长度不一致时(如文件被修改)写入失败
+     */
+    @Override
+    public String write(ObjectEntity.Type type, long size, InputStream in) throws IOException {
+        File dir = new File(objectsDir);
+        FileUtils.forceMkdir(dir);
+        File tmpFile = File.createTempFile("tmp_obj_", ".tmp", dir);
+        String objectId;
+        try {
+            MessageDigest digest = DigestUtils.getSha1Digest();
+            // 先读入开头一段试压缩, 决定整个object的压缩级别
+            byte[] buf = new byte[AdaptiveCompression.SAMPLE_SIZE];
+            int sampleLength = IOUtils.read(in, buf);
+            int level = compression.chooseLevel(type, buf, sampleLength, size, config.getLooseCompressionLevel());
+            Deflater deflater = ZlibCompression.deflater(level);
+            try (OutputStream out = new DigestOutputStream(new DeflaterOutputStream(new FileOutputStream(tmpFile), deflater, STREAM_BUFFER_SIZE), digest)) {
+                out.write(ObjectUtils.buildObjectHead(type, size));
+                out.write(buf, 0, sampleLength);
+                long count = sampleLength;
+                int len;
+                while ((len = in.read(buf)) != -1) {
+                    out.write(buf, 0, len);
+                    count += len;
+                }
+                if (count != size) {
+                    throw new IOException("size mismatch, expect " + size + " but read " + count);
+                }
+            }
+            objectId = ObjectUtils.bytesToHex(digest.digest());
+        } catch (IOException | RuntimeException e) {
+            FileUtils.deleteQuietly(tmpFile);
+            throw e;
+        }
+
+        // 写完才知道objectId, 已存在时丢弃临时文件
+        if (exists(objectId) && freshen(objectId)) {
+            FileUtils.deleteQuietly(tmpFile);
+            return objectId;
+        }
         File file = ObjectUtils.getObjectFile(objectsDir, objectId);
-        FileUtils.writeByteArrayToFile(file, ZlibCompression.compressBytes(bytes));
+        moveToObjectFile(tmpFile, file);
+        addToLooseFilter(objectId);
+        addUnsynced(file);
         return objectId;
     }
 
+    /**
+     * 将已压缩好的loose object文件移动到object路径, 已存在时不覆盖
+     */
+    @Override
+    public void addLooseObjectFile(String objectId, File file) throws IOException {
+        if (exists(objectId) && freshen(objectId)) {
+            FileUtils.deleteQuietly(file);
+            return;
+        }
+        File objectFile = ObjectUtils.getObjectFile(objectsDir, objectId);
+        moveToObjectFile(file, objectFile);
+        addToLooseFilter(objectId);
+        addUnsynced(objectFile);
+    }
+
     public byte[] read(String objectId) throws IOException {
+        List<PackFile> snapshot = packs;
+        byte[] bytes;
+        try {
+            bytes = readFromPacks(snapshot, objectId);
+        } catch (IOException e) {
+            if (!packsChanged(snapshot)) {
+                throw e;
+            }
+            bytes = readFromPacks(packs, objectId);
+        }
+        if (bytes != null) {
+            return bytes;
+        }
+        try {
+            return readLoose(objectId);
+        } catch (FileNotFoundException e) {
+            // loose object可能刚被打包
+            if (rescanPacks(false)) {
+                bytes = readFromPacks(packs, objectId);
+                if (bytes != null) {
+                    return bytes;
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * pack中的object直接解压为ObjectEntity, 省去loose格式的拼接和解析
+     */
+    @Override
+    public ObjectEntity readObject(String objectId) throws IOException {
+        List<PackFile> snapshot = packs;
+        try {
+            for (PackFile pack : snapshot) {
+                ObjectEntity objectEntity = pack.readObject(objectId);
+                if (objectEntity != null) {
+                    return objectEntity;
+                }
+            }
+        } catch (IOException e) {
+            if (!packsChanged(snapshot)) {
+                throw e;
+            }
+        }
+        return ObjectEntity.parseFrom(read(objectId));
+    }
+
+    /**
+     * 打开object用于流式读取, 查找顺序与read相同
+     */
+    @Override
+    public ObjectLoader open(String objectId) throws IOException {
+        List<PackFile> snapshot = packs;
+        ObjectLoader loader;
+        try {
+            loader = openFromPacks(snapshot, objectId);
+        } catch (IOException e) {
+            if (!packsChanged(snapshot)) {
+                throw e;
+            }
+            loader = openFromPacks(packs, objectId);
+        }
+        if (loader != null) {
+            return loader;
+        }
+        File file = ObjectUtils.getObjectFile(objectsDir, objectId);
+        if (!file.exists() && rescanPacks(false)) {
+            loader = openFromPacks(packs, objectId);
+            if (loader != null) {
+                return loader;
+            }
+        }
+        return new LooseObjectLoader(file);
+    }
+
+    /**
+     * 读取时pack被gc删除会失败, pack列表已经更新时换新的列表重试
+     */
+    private boolean packsChanged(List<PackFile> snapshot) {
+        return snapshot != packs || rescanPacks(false);
+    }
+
+    private ObjectLoader openFromPacks(List<PackFile> packs, String objectId) throws IOException {
+        for (PackFile pack : packs) {
+            ObjectLoader loader = pack.open(objectId);
+            if (loader != null) {
+                return loader;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 先查内存中的pack索引, 再查loose object的布隆过滤器, 过滤器判定不存在时不访问文件系统.
+     * 其他进程在本实例创建后写入的loose object可能查不到, 只会导致重复写入或下载, 不影响正确性.
+     */
+    @Override
+    public boolean exists(String objectId) {
+        for (PackFile pack : packs) {
+            if (pack.contains(objectId)) {
+                return true;
+            }
+        }
+        if (!looseFilter.mightContain(objectId)) {
+            return false;
+        }
+        File file = ObjectUtils.getObjectFile(objectsDir, objectId);
+        if (file.exists()) {
+            return true;
+        }
+        // 过滤器中有但文件不在, 可能已被打包
+        if (rescanPacks(false)) {
+            for (PackFile pack : packs) {
+                if (pack.contains(objectId)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private byte[] readFromPacks(List<PackFile> packs, String objectId) throws IOException {
+        for (PackFile pack : packs) {
+            byte[] bytes = pack.read(objectId);
+            if (bytes != null) {
+                return bytes;
+            }
+        }
+        return null;
+    }
+
+    private byte[] readLoose(String objectId) throws IOException {
         File file = ObjectUtils.getObjectFile(objectsDir, objectId);
         byte[] bytes = FileUtils.readFileToByteArray(file);
         return ZlibCompression.decompressBytes(bytes);
     }
 
-    public boolean exists(String objectId) {
+    /**
+     * 将所有loose object打包为一个pack, 打包成功后删除对应的loose文件
+     *
+     * @return 新的pack文件, 没有loose object时返回null
+     */
+    public File packLooseObjects() throws IOException {
+        return packLooseObjects(Integer.MAX_VALUE);
+    }
+
+    /**
+     * 最多打包maxObjects个loose object, 用于后台增量打包时限制单次的io和cpu
+     */
+    public File packLooseObjects(int maxObjects) throws IOException {
+        List<String> objectIds = listLooseObjectIds();
+        if (objectIds.size() > maxObjects) {
+            objectIds = objectIds.subList(0, maxObjects);
+        }
+        if (objectIds.isEmpty()) {
+            return null;
+        }
+        PackWriter packWriter = new PackWriter(packDir);
+        packWriter.setDeltaWindow(config.getPackDeltaWindow());
+        packWriter.setDeltaDepth(config.getPackDeltaDepth());
+        packWriter.setCompressionLevel(config.getPackCompressionLevel());
+        packWriter.setCompression(compression);
+        // 删除loose object前pack必须已经落盘
+        packWriter.setFsync(config.getDurability() != GitLiteConfig.Durability.NONE);
+        File packFile = packWriter.write(objectIds, objectId -> ObjectEntity.parseFrom(readLoose(objectId)));
+        rescanPacks(true);
+        for (String objectId : objectIds) {
+            File file = ObjectUtils.getObjectFile(objectsDir, objectId);
+            FileUtils.deleteQuietly(file);
+            // 目录非空时delete会失败, 忽略即可
+            file.getParentFile().delete();
+        }
+        rebuildLooseFilter();
+        log.debug("packed {} loose objects into {}", objectIds.size(), packFile.getName());
+        return packFile;
+    }
+
+    /**
+     * 将指定的object(可以在pack中也可以是loose的)重新打包为一个pack, 然后删除oldPacks和已打包的loose文件.
+     * oldPacks之外的pack(如打包过程中其他线程新建的)保持不变.
+     *
+     * @return 新的pack文件, objectIds为空时返回null
+     */
+    public File repack(List<String> objectIds, List<PackFile> oldPacks) throws IOException {
+        return repack(objectIds, oldPacks, Long.MAX_VALUE);
+    }
+
+    /**
+     * 删除每个旧pack前再检查一次mtime: 不早于expireTime的(打包期间被并发的add/commit freshen过),
+     * 其中没有打包进新pack的object先解出为loose文件, 保留到下一次gc的保护期之后
+     */
+    public File repack(List<String> objectIds, List<PackFile> oldPacks, long expireTime) throws IOException {
+        File packFile = null;
+        if (!objectIds.isEmpty()) {
+            PackWriter packWriter = new PackWriter(packDir);
+            packWriter.setDeltaWindow(config.getPackDeltaWindow());
+            packWriter.setDeltaDepth(config.getPackDeltaDepth());
+            packWriter.setCompressionLevel(config.getPackCompressionLevel());
+            packWriter.setCompression(compression);
+            packWriter.setFsync(config.getDurability() != GitLiteConfig.Durability.NONE);
+            packFile = packWriter.write(objectIds, this::readObject);
+            rescanPacks(true);
+        }
+        PackFile newPack = null;
+        for (PackFile pack : packs) {
+            if (pack.getPackFile().equals(packFile)) {
+                newPack = pack;
+            }
+        }
+        for (PackFile oldPack : oldPacks) {
+            if (oldPack.getPackFile().equals(packFile)) {
+                // 内容完全相同的pack, 文件名一样
+                continue;
+            }
+            if (oldPack.getPackFile().lastModified() >= expireTime) {
+                unpackMissing(oldPack, newPack);
+            }
+            FileUtils.deleteQuietly(oldPack.getIdxFile());
+            FileUtils.deleteQuietly(oldPack.getPackFile());
+        }
+        rescanPacks(true);
+        for (String objectId : objectIds) {
+            File file = ObjectUtils.getObjectFile(objectsDir, objectId);
+            if (file.exists()) {
+                FileUtils.deleteQuietly(file);
+                file.getParentFile().delete();
+            }
+        }
+        rebuildLooseFilter();
+        return packFile;
+    }
+
+    /**
+     * 将oldPack中不在newPack里的object写为loose文件, 新的mtime使它们重新进入保护期
+     */
+    private void unpackMissing(PackFile oldPack, PackFile newPack) throws IOException {
+        PackIndex index = oldPack.getIndex();
+        int count = 0;
+        for (int i = 0; i < index.getObjectCount(); i++) {
+            String objectId = index.getObjectId(i);
+            if (newPack != null && newPack.contains(objectId)) {
+                continue;
+            }
+            File file = ObjectUtils.getObjectFile(objectsDir, objectId);
+            if (file.exists()) {
+                file.setLastModified(System.currentTimeMillis());
+                continue;
+            }
+            ObjectEntity objectEntity = oldPack.readObject(objectId);
+            writeLooseFile(objectId, ZlibCompression.compressBytes(objectEntity.toBytes(), config.getLooseCompressionLevel()));
+            count++;
+        }
+        log.debug("unpacked {} objects from freshened pack {}", count, oldPack.getName());
+    }
+
+    /**
+     * 删除loose object, 文件mtime在expireTime之后(期间被重新写入或freshen)时不删除
+     *
+     * @return 是否删除
+     */
+    public boolean pruneLooseObject(String objectId, long expireTime) {
+        File file = ObjectUtils.getObjectFile(objectsDir, objectId);
+        if (!file.exists() || file.lastModified() >= expireTime) {
+            return false;
+        }
+        boolean deleted = file.delete();
+        file.getParentFile().delete();
+        return deleted;
+    }
+
+    /**
+     * object已存在时更新它的mtime(loose文件或所在的pack文件), gc以mtime判断未被引用的object是否还在保护期内
+     *
+     * @return 文件已不存在(判断存在之后被并发的gc删除)时返回false, 调用方需要重新写入
+     */
+    private boolean freshen(String objectId) {
+        long now = System.currentTimeMillis();
         File file = ObjectUtils.getObjectFile(objectsDir, objectId);
+        if (file.exists()) {
+            return touch(file, now);
+        }
+        for (PackFile pack : packs) {
+            if (pack.contains(objectId)) {
+                return touch(pack.getPackFile(), now);
+            }
+        }
+        return false;
+    }
+
+    private static boolean touch(File file, long now) {
+        if (now - file.lastModified() > FRESHEN_INTERVAL && !file.setLastModified(now)) {
+            return false;
+        }
         return file.exists();
     }
 
+    /**
+     * loose object和所有pack中的object, 同一个object只列出一次
+     */
+    @Override
+    public List<String> listObjectIds() {
+        Set<String> objectIds = new LinkedHashSet<>(listLooseObjectIds());
+        for (PackFile pack : packs) {
+            PackIndex index = pack.getIndex();
+            for (int i = 0; i < index.getObjectCount(); i++) {
+                objectIds.add(index.getObjectId(i));
+            }
+        }
+        return new ArrayList<>(objectIds);
+    }
+
+    public List<String> listLooseObjectIds() {
+        List<String> objectIds = new ArrayList<>();
+        File[] dirs = new File(objectsDir).listFiles(file -> file.isDirectory() && file.getName().length() == 2);
+        if (dirs == null) {
+            return objectIds;
+        }
+        for (File dir : dirs) {
+            String[] names = dir.list((d, name) -> name.length() == 38);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                objectIds.add(dir.getName() + name);
+            }
+        }
+        return objectIds;
+    }
+
+    public List<PackFile> getPacks() {
+        return packs;
+    }
+
+    /**
+     * @see AdaptiveCompression#getStats()
+     */
+    public Map<ObjectEntity.Type, AdaptiveCompression.Stats> getCompressionStats() {
+        return compression.getStats();
+    }
+
+    /**
+     * 只打开loose文件, 不查pack(fsck逐个校验loose和pack中的副本)
+     */
+    public ObjectLoader openLoose(String objectId) throws IOException {
+        return new LooseObjectLoader(ObjectUtils.getObjectFile(objectsDir, objectId));
+    }
+
+    /**
+     * 返回object的loose文件(上传到remote时用), 只存在于pack中时返回null.
+     * 不为上传解出loose文件, 否则下次打包又会把它们写进新的pack, 抵消gc和repack
+     */
+    public File findLooseObjectFile(String objectId) {
+        File file = ObjectUtils.getObjectFile(objectsDir, objectId);
+        return file.exists() ? file : null;
+    }
+
+    private void addUnsynced(File file) {
+        if (config.getDurability() == GitLiteConfig.Durability.BATCH) {
+            unsyncedFiles.add(file);
+        }
+    }
+
+    /**
+     * BATCH模式下, 将之前写入的object统一刷盘: 先fsync文件内容, 再fsync它们所在的目录和objects目录(新建的二级目录).
+     * 在发布引用这些object的ref/log之前调用.
+     * 队列中已被打包后删除的文件跳过, PackWriter在删除loose文件之前已经fsync了pack.
+     */
+    @Override
+    public void sync() throws IOException {
+        if (unsyncedFiles.isEmpty()) {
+            return;
+        }
+        Set<File> dirs = new LinkedHashSet<>();
+        File file;
+        while ((file = unsyncedFiles.poll()) != null) {
+            try {
+                FileUtil.fsync(file);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            dirs.add(file.getParentFile());
+        }
+        for (File dir : dirs) {
+            FileUtil.fsyncDir(dir);
+        }
+        FileUtil.fsyncDir(new File(objectsDir));
+    }
+
+    private void addToLooseFilter(String objectId) {
+        ObjectIdBloomFilter filter = looseFilter;
+        if (filter.isFull()) {
+            rebuildLooseFilter();
+        } else {
+            filter.add(objectId);
+        }
+    }
+
+    /**
+     * 按当前loose object数量的2倍重建过滤器, 留出后续写入的空间
+     */
+    private synchronized void rebuildLooseFilter() {
+        List<String> objectIds = listLooseObjectIds();
+        ObjectIdBloomFilter filter = new ObjectIdBloomFilter(Math.max(objectIds.size() * 2, MIN_LOOSE_FILTER_CAPACITY));
+        for (String objectId : objectIds) {
+            filter.add(objectId);
+        }
+        looseFilter = filter;
+    }
+
+    /**
+     * @param force 为false时只在pack目录有变化时重新加载
+     * @return pack列表是否有变化
+     */
+    public synchronized boolean rescanPacks(boolean force) {
+        long lastModified = packDir.lastModified();
+        if (!force && lastModified == packDirLastModified) {
+            return false;
+        }
+        packDirLastModified = lastModified;
+
+        Map<String, PackFile> oldPacks = new HashMap<>();
+        for (PackFile pack : packs) {
+            oldPacks.put(pack.getPackFile().getName(), pack);
+        }
+        List<PackFile> newPacks = new ArrayList<>();
+        File[] packFiles = packDir.listFiles((dir, name) -> name.endsWith(".pack"));
+        if (packFiles != null) {
+            for (File packFile : packFiles) {
+                PackFile pack = oldPacks.remove(packFile.getName());
+                if (pack == null) {
+                    try {
+                        pack = new PackFile(packFile, windowCache);
+                    } catch (IOException e) {
+                        // idx还未写完
+                        log.debug("skip pack without index: {}", packFile.getName());
+                        continue;
+                    }
+                }
+                newPacks.add(pack);
+            }
+        }
+        boolean changed = !oldPacks.isEmpty() || newPacks.size() != packs.size();
+        packs = Collections.unmodifiableList(newPacks);
+        for (PackFile removed : oldPacks.values()) {
+            try {
+                removed.close();
+            } catch (IOException e) {
+                log.warn("close pack fail", e);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 关闭打开的pack文件
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        List<PackFile> opened = packs;
+        packs = Collections.emptyList();
+        packDirLastModified = -1;
+        for (PackFile pack : opened) {
+            pack.close();
+        }
+    }
+
+    /**
+     * loose object文件
+     */
+    private static class LooseObjectLoader extends CompressedObjectLoader {
+
+        private final File file;
+
+        private LooseObjectLoader(File file) throws IOException {
+            super(file.getAbsolutePath());
+            this.file = file;
+            init();
+        }
+
+        @Override
+        InputStream openCompressed() throws IOException {
+            return new FileInputStream(file);
+        }
+    }
+
     public static void main(String[] args) throws IOException {
         ObjectDb objectDb = new ObjectDb("/media/beyond/70f23ead-fa6d-4628-acf7-c82133c03245/home/beyond/Documents/tmp-git");
         objectDb.write("hello".getBytes());
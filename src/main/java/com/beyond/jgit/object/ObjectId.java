@@ -0,0 +1,220 @@
+package com.beyond.jgit.object;
+
+import com.beyond.jgit.util.ObjectUtils;
+
+/**
+ * 不可变的20字节objectId, 用5个int保存, 比40个字符的hex字符串省内存, 比较和hash也更快.
+ * 对外的index/log/json格式仍使用hex字符串, 需要时通过name()转换.
+ */
+public final class ObjectId implements Comparable<ObjectId> {
+
+    public static final int RAW_LENGTH = 20;
+    public static final int HEX_LENGTH = 40;
+
+    private final int w1;
+    private final int w2;
+    private final int w3;
+    private final int w4;
+    private final int w5;
+
+    ObjectId(int w1, int w2, int w3, int w4, int w5) {
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+        this.w4 = w4;
+        this.w5 = w5;
+    }
+
+    public static ObjectId fromString(String hex) {
+        if (hex == null || hex.length() != HEX_LENGTH) {
+            throw new IllegalArgumentException("invalid object id: " + hex);
+        }
+        return new ObjectId(
+                ObjectUtils.hexToInt(hex, 0),
+                ObjectUtils.hexToInt(hex, 8),
+                ObjectUtils.hexToInt(hex, 16),
+                ObjectUtils.hexToInt(hex, 24),
+                ObjectUtils.hexToInt(hex, 32));
+    }
+
+    public static ObjectId fromRaw(byte[] raw) {
+        return fromRaw(raw, 0);
+    }
+
+    public static ObjectId fromRaw(byte[] raw, int offset) {
+        return new ObjectId(
+                readInt(raw, offset),
+                readInt(raw, offset + 4),
+                readInt(raw, offset + 8),
+                readInt(raw, offset + 12),
+                readInt(raw, offset + 16));
+    }
+
+    public static boolean isId(String hex) {
+        if (hex == null || hex.length() != HEX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            if (Character.digit(hex.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 第i个int(0-4)
+     */
+    public int getWord(int i) {
+        switch (i) {
+            case 0:
+                return w1;
+            case 1:
+                return w2;
+            case 2:
+                return w3;
+            case 3:
+                return w4;
+            case 4:
+                return w5;
+            default:
+                throw new IndexOutOfBoundsException(String.valueOf(i));
+        }
+    }
+
+    /**
+     * 首字节, 用于pack idx的fanout
+     */
+    public int getFirstByte() {
+        return w1 >>> 24;
+    }
+
+    public void copyRawTo(byte[] raw, int offset) {
+        writeInt(raw, offset, w1);
+        writeInt(raw, offset + 4, w2);
+        writeInt(raw, offset + 8, w3);
+        writeInt(raw, offset + 12, w4);
+        writeInt(raw, offset + 16, w5);
+    }
+
+    public byte[] toRaw() {
+        byte[] raw = new byte[RAW_LENGTH];
+        copyRawTo(raw, 0);
+        return raw;
+    }
+
+    /**
+     * @return 40位小写hex
+     */
+    public String name() {
+        char[] chars = new char[HEX_LENGTH];
+        ObjectUtils.intToHex(w1, chars, 0);
+        ObjectUtils.intToHex(w2, chars, 8);
+        ObjectUtils.intToHex(w3, chars, 16);
+        ObjectUtils.intToHex(w4, chars, 24);
+        ObjectUtils.intToHex(w5, chars, 32);
+        return new String(chars);
+    }
+
+    boolean equals(int[] words, int offset) {
+        return w1 == words[offset]
+                && w2 == words[offset + 1]
+                && w3 == words[offset + 2]
+                && w4 == words[offset + 3]
+                && w5 == words[offset + 4];
+    }
+
+    void copyTo(int[] words, int offset) {
+        words[offset] = w1;
+        words[offset + 1] = w2;
+        words[offset + 2] = w3;
+        words[offset + 3] = w4;
+        words[offset + 4] = w5;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) o;
+        return w1 == other.w1 && w2 == other.w2 && w3 == other.w3 && w4 == other.w4 && w5 == other.w5;
+    }
+
+    /**
+     * sha1本身均匀分布, 直接取其中一个int
+     */
+    @Override
+    public int hashCode() {
+        return w2;
+    }
+
+    /**
+     * 按字节无符号比较, 与pack idx中的排序一致
+     */
+    @Override
+    public int compareTo(ObjectId other) {
+        int cmp = Integer.compareUnsigned(w1, other.w1);
+        if (cmp != 0) {
+            return cmp;
+        }
+        cmp = Integer.compareUnsigned(w2, other.w2);
+        if (cmp != 0) {
+            return cmp;
+        }
+        cmp = Integer.compareUnsigned(w3, other.w3);
+        if (cmp != 0) {
+            return cmp;
+        }
+        cmp = Integer.compareUnsigned(w4, other.w4);
+        if (cmp != 0) {
+            return cmp;
+        }
+        return Integer.compareUnsigned(w5, other.w5);
+    }
+
+    /**
+     * 与raw[offset, offset + 20)按字节无符号比较
+     */
+    public int compareTo(byte[] raw, int offset) {
+        int cmp = Integer.compareUnsigned(w1, readInt(raw, offset));
+        if (cmp != 0) {
+            return cmp;
+        }
+        cmp = Integer.compareUnsigned(w2, readInt(raw, offset + 4));
+        if (cmp != 0) {
+            return cmp;
+        }
+        cmp = Integer.compareUnsigned(w3, readInt(raw, offset + 8));
+        if (cmp != 0) {
+            return cmp;
+        }
+        cmp = Integer.compareUnsigned(w4, readInt(raw, offset + 12));
+        if (cmp != 0) {
+            return cmp;
+        }
+        return Integer.compareUnsigned(w5, readInt(raw, offset + 16));
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+
+    private static int readInt(byte[] raw, int offset) {
+        return (raw[offset] & 0xff) << 24
+                | (raw[offset + 1] & 0xff) << 16
+                | (raw[offset + 2] & 0xff) << 8
+                | (raw[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] raw, int offset, int value) {
+        raw[offset] = (byte) (value >>> 24);
+        raw[offset + 1] = (byte) (value >>> 16);
+        raw[offset + 2] = (byte) (value >>> 8);
+        raw[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,67 @@
+package com.beyond.jgit.object;
+
+/**
+ * objectId的布隆过滤器, 返回false时object一定不在集合中, 返回true时可能存在(误判率约1%).
+ * objectId本身就是均匀分布的sha1, 直接取其中两段作为hash, 不再重新计算.
+ */
+public class ObjectIdBloomFilter {
+
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASH_COUNT = 7;
+
+    private final int capacity;
+    private final long[] bits;
+    private final long bitCount;
+    private int size;
+
+    /**
+     * @param capacity 预期元素个数, 超过后误判率上升, 由调用方判断是否需要重建
+     */
+    public ObjectIdBloomFilter(int capacity) {
+        this.capacity = Math.max(capacity, 64);
+        this.bitCount = (long) this.capacity * BITS_PER_ENTRY;
+        this.bits = new long[(int) ((bitCount + 63) >>> 6)];
+    }
+
+    public synchronized void add(String objectId) {
+        long h1 = hash(objectId, 0);
+        long h2 = hash(objectId, 16);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        size++;
+    }
+
+    public synchronized boolean mightContain(String objectId) {
+        long h1 = hash(objectId, 0);
+        long h2 = hash(objectId, 16);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized boolean isFull() {
+        return size >= capacity;
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private static long hash(String objectId, int start) {
+        long h = 0;
+        for (int i = start; i < start + 16; i++) {
+            h = (h << 4) | Character.digit(objectId.charAt(i), 16);
+        }
+        return h;
+    }
+}
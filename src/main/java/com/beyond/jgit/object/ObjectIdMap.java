@@ -0,0 +1,135 @@
+package com.beyond.jgit.object;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * 以ObjectId为key的开放寻址(线性探测)哈希表, key的5个int平铺在一个int数组里, 不为每个entry创建对象.
+ * 遍历大量object时比HashMap&lt;String, V&gt;省4倍以上内存. 不支持删除, value不能为null. 非线程安全.
+ */
+public class ObjectIdMap<V> {
+
+    private static final int WORDS = 5;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private int growAt;
+
+    public ObjectIdMap() {
+        this(64);
+    }
+
+    public ObjectIdMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 16) - 1) << 1;
+        init(capacity);
+    }
+
+    private void init(int capacity) {
+        keys = new int[capacity * WORDS];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        growAt = (int) (capacity * LOAD_FACTOR);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(ObjectId objectId) {
+        int slot = find(objectId);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    public V get(String objectId) {
+        return get(ObjectId.fromString(objectId));
+    }
+
+    public boolean containsKey(ObjectId objectId) {
+        return find(objectId) >= 0;
+    }
+
+    public boolean containsKey(String objectId) {
+        return containsKey(ObjectId.fromString(objectId));
+    }
+
+    /**
+     * @return 旧值, 没有时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(ObjectId objectId, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value can not be null");
+        }
+        int slot = objectId.hashCode() & mask;
+        while (values[slot] != null) {
+            if (objectId.equals(keys, slot * WORDS)) {
+                V old = (V) values[slot];
+                values[slot] = value;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        objectId.copyTo(keys, slot * WORDS);
+        values[slot] = value;
+        if (++size > growAt) {
+            grow();
+        }
+        return null;
+    }
+
+    public V put(String objectId, V value) {
+        return put(ObjectId.fromString(objectId), value);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<ObjectId, V> action) {
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                action.accept(keyAt(slot), (V) values[slot]);
+            }
+        }
+    }
+
+    private int find(ObjectId objectId) {
+        int slot = objectId.hashCode() & mask;
+        while (values[slot] != null) {
+            if (objectId.equals(keys, slot * WORDS)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private ObjectId keyAt(int slot) {
+        int i = slot * WORDS;
+        return new ObjectId(keys[i], keys[i + 1], keys[i + 2], keys[i + 3], keys[i + 4]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        init(oldValues.length << 1);
+        for (int slot = 0; slot < oldValues.length; slot++) {
+            if (oldValues[slot] != null) {
+                int i = slot * WORDS;
+                put(new ObjectId(oldKeys[i], oldKeys[i + 1], oldKeys[i + 2], oldKeys[i + 3], oldKeys[i + 4]), (V) oldValues[slot]);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.beyond.jgit.object;
+
+import java.util.function.Consumer;
+
+/**
+ * 基于ObjectIdMap的objectId集合, 用于遍历时记录已访问的object. 非线程安全.
+ */
+public class ObjectIdSet {
+
+    private final ObjectIdMap<Boolean> map;
+
+    public ObjectIdSet() {
+        map = new ObjectIdMap<>();
+    }
+
+    public ObjectIdSet(int expectedSize) {
+        map = new ObjectIdMap<>(expectedSize);
+    }
+
+    /**
+     * @return 集合中原来没有时返回true
+     */
+    public boolean add(ObjectId objectId) {
+        return map.put(objectId, Boolean.TRUE) == null;
+    }
+
+    public boolean add(String objectId) {
+        return add(ObjectId.fromString(objectId));
+    }
+
+    public boolean contains(ObjectId objectId) {
+        return map.containsKey(objectId);
+    }
+
+    /**
+     * 不是合法objectId的字符串(如读到的ref内容不完整)返回false
+     */
+    public boolean contains(String objectId) {
+        return ObjectId.isId(objectId) && contains(ObjectId.fromString(objectId));
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    public void forEach(Consumer<ObjectId> action) {
+        map.forEach((objectId, present) -> action.accept(objectId));
+    }
+}
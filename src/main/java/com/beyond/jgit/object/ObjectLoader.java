@@ -0,0 +1,96 @@
+package com.beyond.jgit.object;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 打开一个object, type和size在读取内容前就已知道, 内容可以通过小缓冲区流式复制, 不必整体读入内存
+ */
+public abstract class ObjectLoader {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    public abstract ObjectEntity.Type getType();
+
+    public abstract long getSize();
+
+    /**
+     * 每次调用返回一个新的流, 从内容开头读起, 调用方负责关闭
+     */
+    public abstract InputStream openStream() throws IOException;
+
+    public void copyTo(OutputStream out) throws IOException {
+        try (InputStream in = openStream()) {
+            byte[] buf = new byte[COPY_BUFFER_SIZE];
+            long count = 0;
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                out.write(buf, 0, len);
+                count += len;
+            }
+            if (count != getSize()) {
+                throw new IOException("size mismatch, expect " + getSize() + " but read " + count);
+            }
+        }
+    }
+
+    /**
+     * 读入整个内容, 超过2G的object会失败
+     */
+    public byte[] getBytes() throws IOException {
+        long size = getSize();
+        if (size > Integer.MAX_VALUE - 32) {
+            throw new IOException("object too large to read into memory: " + size);
+        }
+        byte[] data = new byte[(int) size];
+        try (InputStream in = openStream()) {
+            int written = 0;
+            while (written < data.length) {
+                int len = in.read(data, written, data.length - written);
+                if (len == -1) {
+                    throw new IOException("size mismatch, expect " + size + " but read " + written);
+                }
+                written += len;
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 已在内存中的object
+     */
+    public static ObjectLoader of(ObjectEntity objectEntity) {
+        return new SmallObjectLoader(objectEntity);
+    }
+
+    private static class SmallObjectLoader extends ObjectLoader {
+
+        private final ObjectEntity objectEntity;
+
+        private SmallObjectLoader(ObjectEntity objectEntity) {
+            this.objectEntity = objectEntity;
+        }
+
+        @Override
+        public ObjectEntity.Type getType() {
+            return objectEntity.getType();
+        }
+
+        @Override
+        public long getSize() {
+            return objectEntity.getData().length;
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new ByteArrayInputStream(objectEntity.getData());
+        }
+
+        @Override
+        public byte[] getBytes() {
+            return objectEntity.getData();
+        }
+    }
+}
@@ -1,32 +1,521 @@
 package com.beyond.jgit.object;
 
 
+import com.beyond.jgit.GitLiteConfig;
+import com.beyond.jgit.bitmap.BitmapIndex;
+import com.beyond.jgit.bitmap.ReachabilityWalker;
+import com.beyond.jgit.chunk.ChunkManifest;
+import com.beyond.jgit.graph.CommitGraph;
+import com.beyond.jgit.graph.CommitGraphWriter;
+import com.beyond.jgit.object.data.CommitHeader;
+import com.beyond.jgit.object.data.CommitObjectData;
+import com.beyond.jgit.object.data.TreeCursor;
+import com.beyond.jgit.pack.PackFile;
 import com.beyond.jgit.util.ObjectUtils;
+import com.beyond.jgit.util.ZlibCompression;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static com.beyond.jgit.util.ObjectUtils.hexToByteArray;
 
+@Slf4j
 public class ObjectManager {
 
-    private final ObjectDb objectDb;
+    private static final String COMMIT_GRAPH_PATH = "info/commit-graph";
+    private static final String BITMAP_PATH = "info/bitmap";
+    private static final String OBJECT_LOG_PATH = "objects.log";
+    /**
+     * 保留最近的bitmap个数
+     */
+    private static final int MAX_BITMAPS = 32;
+
+    private final ObjectDatabase objectDatabase;
+    private final ObjectCache objectCache;
+    private final ParsedObjectCache parsedObjectCache;
+    private final CommitGraphWriter commitGraphWriter;
+    private final File commitGraphFile;
+    private volatile CommitGraph commitGraph;
+    private final File bitmapFile;
+    private final boolean fsync;
+    private volatile BitmapIndex bitmapIndex;
+    private final int readThreads;
+    private volatile Executor readExecutor;
+    private ThreadPoolExecutor ownedReadExecutor;
 
     public ObjectManager(String objectsDir) {
-        objectDb = new ObjectDb(objectsDir);
+        this(objectsDir, new GitLiteConfig());
+    }
+
+    public ObjectManager(String objectsDir, GitLiteConfig config) {
+        this(objectsDir, config, createObjectDatabase(objectsDir, config));
+    }
+
+    /**
+     * @param objectDatabase object存储的后端, commit-graph和bitmap仍然保存在objectsDir下
+     */
+    public ObjectManager(String objectsDir, GitLiteConfig config, ObjectDatabase objectDatabase) {
+        this.objectDatabase = objectDatabase;
+        objectCache = config.getObjectCacheBytes() > 0 ? new ObjectCache(config.getObjectCacheBytes()) : null;
+        parsedObjectCache = config.getParsedObjectCacheSize() > 0 ? new ParsedObjectCache(config.getParsedObjectCacheSize()) : null;
+        commitGraphFile = new File(objectsDir, COMMIT_GRAPH_PATH);
+        commitGraphWriter = new CommitGraphWriter(this, commitGraphFile);
+        fsync = config.getDurability() != GitLiteConfig.Durability.NONE;
+        commitGraphWriter.setFsync(fsync);
+        bitmapFile = new File(objectsDir, BITMAP_PATH);
+        readThreads = config.getReadThreads();
+    }
+
+    private static ObjectDatabase createObjectDatabase(String objectsDir, GitLiteConfig config) {
+        switch (config.getObjectStorage()) {
+            case LOOSE:
+                return new ObjectDb(objectsDir, config);
+            case MEMORY:
+                return new InMemoryObjectDatabase();
+            case APPEND_LOG:
+                try {
+                    return new AppendLogObjectDatabase(new File(objectsDir, OBJECT_LOG_PATH), config.getLooseCompressionLevel(),
+                            config.getDurability() != GitLiteConfig.Durability.NONE);
+                } catch (IOException e) {
+                    throw new RuntimeException("open object log fail: " + objectsDir, e);
+                }
+            default:
+                throw new RuntimeException("unknown object storage: " + config.getObjectStorage());
+        }
+    }
+
+    public ObjectDatabase getObjectDatabase() {
+        return objectDatabase;
+    }
+
+    /**
+     * loose和pack相关的操作只对ObjectDb有效, 其他后端返回null
+     */
+    private ObjectDb getObjectDb() {
+        return objectDatabase instanceof ObjectDb ? (ObjectDb) objectDatabase : null;
     }
 
     public String write(ObjectEntity objectEntity) throws IOException {
         byte[] bytes = objectEntity.toBytes();
-        return objectDb.write(bytes);
+        return objectDatabase.write(bytes);
+    }
+
+    /**
+     * 流式写入文件内容作为blob, 不把整个文件读入内存
+     */
+    public String writeBlob(File file) throws IOException {
+        return objectDatabase.writeBlob(file);
+    }
+
+    /**
+     * 将外部得到的loose object文件(如从remote下载的)移动到objects目录
+     */
+    public void addLooseObjectFile(String objectId, File file) throws IOException {
+        objectDatabase.addLooseObjectFile(objectId, file);
     }
 
     public ObjectEntity read(String objectId) throws IOException {
-        byte[] bytes = objectDb.read(objectId);
-        return ObjectEntity.parseFrom(bytes);
+        if (objectCache == null) {
+            return objectDatabase.readObject(objectId);
+        }
+        ObjectEntity objectEntity = objectCache.get(objectId);
+        if (objectEntity == null) {
+            objectEntity = objectDatabase.readObject(objectId);
+            objectCache.put(objectId, objectEntity);
+        }
+        return objectEntity;
+    }
+
+    /**
+     * 在io线程池中读取, 缓存命中时直接返回已完成的future. readThreads为1且没有设置executor时在调用线程中同步读取.
+     * 读取失败时future以IOException(包在CompletionException中)结束
+     */
+    public CompletableFuture<ObjectEntity> readAsync(String objectId) {
+        if (objectCache != null) {
+            ObjectEntity objectEntity = objectCache.get(objectId);
+            if (objectEntity != null) {
+                return CompletableFuture.completedFuture(objectEntity);
+            }
+        }
+        Executor executor = getReadExecutor();
+        if (executor == null) {
+            CompletableFuture<ObjectEntity> future = new CompletableFuture<>();
+            try {
+                future.complete(read(objectId));
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return read(objectId);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * 同时发出所有读取, 结果与objectIds的顺序相同
+     */
+    public CompletableFuture<List<ObjectEntity>> readAllAsync(Collection<String> objectIds) {
+        List<CompletableFuture<ObjectEntity>> futures = new ArrayList<>(objectIds.size());
+        for (String objectId : objectIds) {
+            futures.add(readAsync(objectId));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    /**
+     * 并发读取后等待全部完成
+     */
+    public List<ObjectEntity> readAll(Collection<String> objectIds) throws IOException {
+        try {
+            return readAllAsync(objectIds).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 并发读取多个tree, 用于按层遍历
+     */
+    public List<TreeCursor> openTrees(List<String> objectIds) throws IOException {
+        List<ObjectEntity> objectEntities = readAll(objectIds);
+        List<TreeCursor> cursors = new ArrayList<>(objectEntities.size());
+        for (int i = 0; i < objectEntities.size(); i++) {
+            ObjectEntity objectEntity = objectEntities.get(i);
+            if (objectEntity.getType() != ObjectEntity.Type.tree) {
+                throw new RuntimeException("type error, " + objectIds.get(i) + " is not a tree");
+            }
+            cursors.add(new TreeCursor(objectEntity.getData()));
+        }
+        return cursors;
+    }
+
+    /**
+     * 替换readAsync使用的线程池, 由调用方负责关闭
+     */
+    public void setReadExecutor(Executor readExecutor) {
+        this.readExecutor = readExecutor;
+    }
+
+    private Executor getReadExecutor() {
+        Executor executor = readExecutor;
+        if (executor != null || readThreads <= 1) {
+            return executor;
+        }
+        synchronized (this) {
+            if (readExecutor == null) {
+                AtomicInteger count = new AtomicInteger();
+                // 空闲的线程会退出, 没有close的ObjectManager不会一直占着线程
+                ownedReadExecutor = new ThreadPoolExecutor(readThreads, readThreads, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "gitlite-read-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                ownedReadExecutor.allowCoreThreadTimeOut(true);
+                readExecutor = ownedReadExecutor;
+            }
+            return readExecutor;
+        }
+    }
+
+    /**
+     * 打开object用于流式读取, 适合大文件; 已缓存的object直接从内存返回, 打开的object不放入缓存
+     */
+    public ObjectLoader open(String objectId) throws IOException {
+        if (objectCache != null) {
+            ObjectEntity objectEntity = objectCache.get(objectId);
+            if (objectEntity != null) {
+                return ObjectLoader.of(objectEntity);
+            }
+        }
+        return objectDatabase.open(objectId);
+    }
+
+    /**
+     * 完整解析commit, 每次返回新的对象, 不放入解析缓存
+     */
+    public CommitObjectData readCommit(String objectId) throws IOException {
+        ObjectEntity objectEntity = read(objectId);
+        if (objectEntity.getType() != ObjectEntity.Type.commit) {
+            throw new RuntimeException("type error, " + objectId + " is not a commit");
+        }
+        return CommitObjectData.parseFrom(objectEntity.getData());
+    }
+
+    /**
+     * 读取分块存储的文件的清单
+     */
+    public ChunkManifest readChunkManifest(String objectId) throws IOException {
+        ObjectEntity objectEntity = read(objectId);
+        if (objectEntity.getType() != ObjectEntity.Type.blob) {
+            throw new RuntimeException("type error, " + objectId + " is not a blob");
+        }
+        return ChunkManifest.parseFrom(objectEntity.getData());
+    }
+
+    /**
+     * 返回在tree原始bytes上移动的游标, 不解析出TreeEntry列表; 原始bytes来自object缓存
+     */
+    public TreeCursor openTree(String objectId) throws IOException {
+        ObjectEntity objectEntity = read(objectId);
+        if (objectEntity.getType() != ObjectEntity.Type.tree) {
+            throw new RuntimeException("type error, " + objectId + " is not a tree");
+        }
+        return new TreeCursor(objectEntity.getData());
+    }
+
+    /**
+     * 只解析tree, parents和commitTime, 用于历史遍历; 在commit-graph中时不读取object.
+     * CommitHeader不可变, 缓存的对象直接共享
+     */
+    public CommitHeader readCommitHeader(String objectId) throws IOException {
+        if (parsedObjectCache != null) {
+            CommitHeader cached = parsedObjectCache.get(objectId, CommitHeader.class);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        CommitGraph graph = getCommitGraph();
+        int position = graph.findPosition(objectId);
+        if (position >= 0) {
+            return graph.getHeader(position);
+        }
+        ObjectEntity objectEntity = read(objectId);
+        if (objectEntity.getType() != ObjectEntity.Type.commit) {
+            throw new RuntimeException("type error, " + objectId + " is not a commit");
+        }
+        CommitHeader commitHeader = CommitHeader.parseFrom(objectEntity.getData());
+        if (parsedObjectCache != null) {
+            parsedObjectCache.put(objectId, commitHeader);
+        }
+        return commitHeader;
+    }
+
+    /**
+     * 文件不存在或损坏时返回空的graph, 调用方回退到读取commit object
+     */
+    public CommitGraph getCommitGraph() {
+        CommitGraph graph = commitGraph;
+        if (graph == null) {
+            try {
+                graph = CommitGraph.load(commitGraphFile);
+            } catch (IOException e) {
+                log.warn("commit-graph unreadable, ignored: {}", e.getMessage());
+                graph = CommitGraph.empty();
+            }
+            commitGraph = graph;
+        }
+        return graph;
+    }
+
+    /**
+     * 将tips及其祖先中新的commit加入commit-graph. graph只用于加速, 更新失败不影响调用方
+     */
+    public void updateCommitGraph(String... tips) {
+        try {
+            CommitGraph updated = commitGraphWriter.update(getCommitGraph(), Arrays.asList(tips));
+            if (updated != null) {
+                commitGraph = updated;
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("update commit-graph fail", e);
+        }
+    }
+
+    /**
+     * 文件不存在或损坏时返回空的index
+     */
+    public BitmapIndex getBitmapIndex() {
+        BitmapIndex index = bitmapIndex;
+        if (index == null) {
+            try {
+                index = BitmapIndex.load(bitmapFile);
+            } catch (IOException e) {
+                log.warn("bitmap index unreadable, ignored: {}", e.getMessage());
+                index = BitmapIndex.empty();
+            }
+            bitmapIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * 保存commits的可达性bitmap. bitmap只用于加速, 保存失败不影响调用方
+     */
+    public void saveBitmaps(ReachabilityWalker walker, String... commitObjectIds) {
+        try {
+            bitmapIndex = walker.save(bitmapFile, Arrays.asList(commitObjectIds), MAX_BITMAPS, fsync);
+        } catch (IOException | RuntimeException e) {
+            log.warn("save bitmaps fail", e);
+        }
+    }
+
+    /**
+     * gc之后去掉commit已不可达的bitmap, 同时重新编号, 不再保留被删除的object. 失败时删除bitmap文件
+     */
+    public void pruneBitmaps(Set<ObjectId> reachable) {
+        try {
+            bitmapIndex = getBitmapIndex().retain(bitmapFile, reachable, fsync);
+        } catch (IOException | RuntimeException e) {
+            log.warn("prune bitmaps fail", e);
+            FileUtils.deleteQuietly(bitmapFile);
+            bitmapIndex = BitmapIndex.empty();
+        }
     }
 
     public boolean exists(String objectId) throws IOException {
-        return objectDb.exists(objectId);
+        return objectDatabase.exists(objectId);
+    }
+
+    /**
+     * @return 未开启缓存时返回null
+     */
+    public ObjectCache getObjectCache() {
+        return objectCache;
+    }
+
+    /**
+     * @return 未开启缓存时返回null
+     */
+    public ParsedObjectCache getParsedObjectCache() {
+        return parsedObjectCache;
+    }
+
+    /**
+     * @see ObjectDatabase#sync()
+     */
+    public void sync() throws IOException {
+        objectDatabase.sync();
+    }
+
+    public void close() throws IOException {
+        synchronized (this) {
+            if (ownedReadExecutor != null) {
+                ownedReadExecutor.shutdown();
+                ownedReadExecutor = null;
+                readExecutor = null;
+            }
+        }
+        objectDatabase.close();
+    }
+
+    /**
+     * @return 新的pack文件, 没有loose object或后端不是ObjectDb时返回null
+     */
+    public File packLooseObjects() throws IOException {
+        return packLooseObjects(Integer.MAX_VALUE);
+    }
+
+    public File packLooseObjects(int maxObjects) throws IOException {
+        ObjectDb objectDb = getObjectDb();
+        return objectDb == null ? null : objectDb.packLooseObjects(maxObjects);
+    }
+
+    public List<String> listLooseObjectIds() {
+        ObjectDb objectDb = getObjectDb();
+        return objectDb == null ? Collections.emptyList() : objectDb.listLooseObjectIds();
+    }
+
+    /**
+     * @see ObjectDatabase#listObjectIds()
+     */
+    public List<String> listObjectIds() throws IOException {
+        return objectDatabase.listObjectIds();
+    }
+
+    public List<PackFile> getPacks() {
+        ObjectDb objectDb = getObjectDb();
+        return objectDb == null ? Collections.emptyList() : objectDb.getPacks();
+    }
+
+    /**
+     * @see ObjectDb#getCompressionStats()
+     */
+    public Map<ObjectEntity.Type, AdaptiveCompression.Stats> getCompressionStats() {
+        ObjectDb objectDb = getObjectDb();
+        return objectDb == null ? Collections.emptyMap() : objectDb.getCompressionStats();
+    }
+
+    /**
+     * @see ObjectDb#openLoose(String)
+     */
+    public ObjectLoader openLoose(String objectId) throws IOException {
+        ObjectDb objectDb = getObjectDb();
+        return objectDb == null ? null : objectDb.openLoose(objectId);
+    }
+
+    /**
+     * @see ObjectDb#repack(List, List)
+     */
+    public File repack(List<String> objectIds, List<PackFile> oldPacks) throws IOException {
+        ObjectDb objectDb = getObjectDb();
+        return objectDb == null ? null : objectDb.repack(objectIds, oldPacks);
+    }
+
+    /**
+     * @see ObjectDb#repack(List, List, long)
+     */
+    public File repack(List<String> objectIds, List<PackFile> oldPacks, long expireTime) throws IOException {
+        ObjectDb objectDb = getObjectDb();
+        return objectDb == null ? null : objectDb.repack(objectIds, oldPacks, expireTime);
+    }
+
+    /**
+     * @see ObjectDb#pruneLooseObject(String, long)
+     */
+    public boolean pruneLooseObject(String objectId, long expireTime) {
+        ObjectDb objectDb = getObjectDb();
+        return objectDb != null && objectDb.pruneLooseObject(objectId, expireTime);
+    }
+
+    /**
+     * 返回object的loose文件(上传到remote时用), 只存在于pack中或后端不是ObjectDb时返回null
+     */
+    public File findLooseObjectFile(String objectId) {
+        ObjectDb objectDb = getObjectDb();
+        return objectDb == null ? null : objectDb.findLooseObjectFile(objectId);
+    }
+
+    /**
+     * 将object写为一份loose格式的临时文件(上传到remote时用), 调用方用完后删除
+     */
+    public File writeTempObjectFile(String objectId) throws IOException {
+        File tmpFile = File.createTempFile("tmp_obj_", ".tmp");
+        try {
+            FileUtils.writeByteArrayToFile(tmpFile, ZlibCompression.compressBytes(objectDatabase.readObject(objectId).toBytes()));
+        } catch (IOException | RuntimeException e) {
+            FileUtils.deleteQuietly(tmpFile);
+            throw e;
+        }
+        return tmpFile;
     }
 
     public static void main(String[] args) throws IOException {
@@ -0,0 +1,61 @@
+package com.beyond.jgit.object;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 解析后的object缓存, 按entry数量限制大小, LRU淘汰.
+ * 缓存的对象在多线程间共享, 只能放入不可变的对象(如CommitHeader), 带setter的ObjectData不放入.
+ */
+public class ParsedObjectCache {
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, Object> entries;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public ParsedObjectCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Object>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > ParsedObjectCache.this.maxEntries;
+            }
+        };
+    }
+
+    public <T> T get(String objectId, Class<T> type) {
+        Object value;
+        synchronized (this) {
+            value = entries.get(objectId);
+        }
+        if (type.isInstance(value)) {
+            hitCount.incrementAndGet();
+            return type.cast(value);
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    public synchronized void put(String objectId, Object value) {
+        entries.put(objectId, value);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+}
@@ -0,0 +1,103 @@
+package com.beyond.jgit.object.data;
+
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * commit中历史遍历需要的部分: tree, parents, commitTime.
+ * 直接在解压后的bytes上扫描, 不解析author/signature/message, 也不拷贝中间数组.
+ */
+@Data
+public class CommitHeader {
+
+    private static final int ID_LENGTH = 40;
+    private static final byte[] TREE = "tree ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PARENT = "parent ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] COMMITTER = "committer ".getBytes(StandardCharsets.US_ASCII);
+
+    private final String tree;
+    private final List<String> parents;
+    /**
+     * 毫秒, 与CommitObjectData.commitTime一致
+     */
+    private final long commitTime;
+
+    public static CommitHeader parseFrom(byte[] bytes) {
+        if (!startsWith(bytes, 0, TREE)) {
+            throw new RuntimeException("commit format error: no tree");
+        }
+        int p = TREE.length;
+        String tree = id(bytes, p);
+        p += ID_LENGTH + 1;
+
+        List<String> parents = new ArrayList<>(1);
+        while (startsWith(bytes, p, PARENT)) {
+            p += PARENT.length;
+            parents.add(id(bytes, p));
+            p += ID_LENGTH + 1;
+        }
+
+        // 跳过author等行, 找到committer行; 遇到空行说明header结束
+        long commitTime = 0;
+        while (p < bytes.length && bytes[p] != '\n') {
+            int lineEnd = indexOf(bytes, p, (byte) '\n');
+            if (startsWith(bytes, p, COMMITTER)) {
+                commitTime = parseTime(bytes, p, lineEnd);
+                break;
+            }
+            p = lineEnd + 1;
+        }
+        return new CommitHeader(tree, Collections.unmodifiableList(parents), commitTime);
+    }
+
+    /**
+     * committer行格式: committer name &lt;email&gt; seconds +zone, 取最后一个'&gt;'之后的秒数
+     */
+    private static long parseTime(byte[] bytes, int lineStart, int lineEnd) {
+        int p = lineEnd - 1;
+        while (p > lineStart && bytes[p] != '>') {
+            p--;
+        }
+        p++;
+        while (p < lineEnd && bytes[p] == ' ') {
+            p++;
+        }
+        long seconds = 0;
+        while (p < lineEnd && bytes[p] >= '0' && bytes[p] <= '9') {
+            seconds = seconds * 10 + (bytes[p++] - '0');
+        }
+        return seconds * 1000L;
+    }
+
+    private static String id(byte[] bytes, int offset) {
+        if (offset + ID_LENGTH > bytes.length) {
+            throw new RuntimeException("commit format error: truncated id");
+        }
+        return new String(bytes, offset, ID_LENGTH, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, byte[] prefix) {
+        if (offset + prefix.length > bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] bytes, int from, byte b) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return bytes.length;
+    }
+}
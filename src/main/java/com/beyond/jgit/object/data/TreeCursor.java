@@ -0,0 +1,149 @@
+package com.beyond.jgit.object.data;
+
+import com.beyond.jgit.object.ObjectEntity;
+import com.beyond.jgit.object.ObjectId;
+import com.beyond.jgit.util.ObjectUtils;
+
+/**
+ * 在tree的原始bytes上逐个entry移动的游标, 不为每个entry复制数组, mode/name/id只记录位置,
+ * 调用getName()/getObjectId()等方法时才创建对象. entry格式: mode name\0id(20字节).
+ * <pre>
+ * TreeCursor cursor = new TreeCursor(bytes);
+ * while (cursor.next()) {
+ *     if (cursor.isTree()) ...
+ * }
+ * </pre>
+ */
+public class TreeCursor {
+
+    private static final byte[] TREE_MODE = "40000".getBytes();
+    private static final byte[] BLOB_MODE = "100644".getBytes();
+    private static final byte[] CHUNKED_BLOB_MODE = ObjectUtils.CHUNKED_BLOB_MODE.getBytes();
+
+    private final byte[] bytes;
+    private int nextOffset;
+
+    private int modeStart;
+    private int modeEnd;
+    private int nameStart;
+    private int nameEnd;
+    private int idStart;
+
+    public TreeCursor(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * 移动到下一个entry
+     *
+     * @return 没有更多entry时返回false
+     */
+    public boolean next() {
+        if (nextOffset >= bytes.length) {
+            return false;
+        }
+        int p = nextOffset;
+        modeStart = p;
+        while (p < bytes.length && bytes[p] != ' ') {
+            p++;
+        }
+        modeEnd = p;
+        nameStart = ++p;
+        while (p < bytes.length && bytes[p] != '\0') {
+            p++;
+        }
+        nameEnd = p;
+        idStart = p + 1;
+        if (idStart + ObjectId.RAW_LENGTH > bytes.length) {
+            throw new RuntimeException("tree format error at " + modeStart);
+        }
+        nextOffset = idStart + ObjectId.RAW_LENGTH;
+        return true;
+    }
+
+    public boolean isTree() {
+        return modeEquals(TREE_MODE);
+    }
+
+    /**
+     * 包括分块存储的文件
+     */
+    public boolean isBlob() {
+        return modeEquals(BLOB_MODE) || isChunkedBlob();
+    }
+
+    /**
+     * 分块存储的文件, objectId是ChunkManifest
+     */
+    public boolean isChunkedBlob() {
+        return modeEquals(CHUNKED_BLOB_MODE);
+    }
+
+    /**
+     * @return mode无法识别时返回null, 与TreeEntry.getType一致
+     */
+    public ObjectEntity.Type getType() {
+        if (isBlob()) {
+            return ObjectEntity.Type.blob;
+        }
+        if (isTree()) {
+            return ObjectEntity.Type.tree;
+        }
+        return null;
+    }
+
+    public String getMode() {
+        return new String(bytes, modeStart, modeEnd - modeStart);
+    }
+
+    public String getName() {
+        return new String(bytes, nameStart, nameEnd - nameStart);
+    }
+
+    public boolean nameEquals(byte[] name) {
+        return rangeEquals(nameStart, nameEnd, name);
+    }
+
+    public ObjectId getObjectId() {
+        return ObjectId.fromRaw(bytes, idStart);
+    }
+
+    /**
+     * @return 40位hex
+     */
+    public String getObjectIdString() {
+        return ObjectUtils.bytesToHex(bytes, idStart, ObjectId.RAW_LENGTH);
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getNameOffset() {
+        return nameStart;
+    }
+
+    public int getNameLength() {
+        return nameEnd - nameStart;
+    }
+
+    public int getObjectIdOffset() {
+        return idStart;
+    }
+
+    private boolean modeEquals(byte[] mode) {
+        return rangeEquals(modeStart, modeEnd, mode);
+    }
+
+    private boolean rangeEquals(int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (bytes[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
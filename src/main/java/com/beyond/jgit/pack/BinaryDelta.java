@@ -0,0 +1,84 @@
+package com.beyond.jgit.pack;
+
+import java.io.IOException;
+
+/**
+ * 将{@link DeltaIndex#encode}生成的delta应用到base上
+ */
+public class BinaryDelta {
+
+    public static long getBaseSize(byte[] delta) {
+        return readVarint(delta, new int[]{0});
+    }
+
+    public static long getResultSize(byte[] delta) {
+        int[] position = {0};
+        readVarint(delta, position);
+        return readVarint(delta, position);
+    }
+
+    public static byte[] apply(byte[] base, byte[] delta) throws IOException {
+        int[] position = {0};
+        long baseSize = readVarint(delta, position);
+        if (baseSize != base.length) {
+            throw new IOException("delta base size mismatch, expected: " + baseSize + ", actual: " + base.length);
+        }
+        long resultSize = readVarint(delta, position);
+        if (resultSize > Integer.MAX_VALUE) {
+            throw new IOException("delta result too large: " + resultSize);
+        }
+        byte[] result = new byte[(int) resultSize];
+        int p = position[0];
+        int resultPosition = 0;
+        while (p < delta.length) {
+            int cmd = delta[p++] & 0xff;
+            if ((cmd & 0x80) != 0) {
+                long offset = 0;
+                for (int i = 0; i < 4; i++) {
+                    if ((cmd & (1 << i)) != 0) {
+                        offset |= (long) (delta[p++] & 0xff) << (8 * i);
+                    }
+                }
+                int size = 0;
+                for (int i = 0; i < 3; i++) {
+                    if ((cmd & (0x10 << i)) != 0) {
+                        size |= (delta[p++] & 0xff) << (8 * i);
+                    }
+                }
+                if (size == 0) {
+                    size = 0x10000;
+                }
+                if (offset + size > base.length || resultPosition + size > result.length) {
+                    throw new IOException("corrupt delta: copy out of range");
+                }
+                System.arraycopy(base, (int) offset, result, resultPosition, size);
+                resultPosition += size;
+            } else if (cmd != 0) {
+                if (p + cmd > delta.length || resultPosition + cmd > result.length) {
+                    throw new IOException("corrupt delta: insert out of range");
+                }
+                System.arraycopy(delta, p, result, resultPosition, cmd);
+                p += cmd;
+                resultPosition += cmd;
+            } else {
+                throw new IOException("corrupt delta: unsupported command 0");
+            }
+        }
+        if (resultPosition != result.length) {
+            throw new IOException("corrupt delta: result size mismatch");
+        }
+        return result;
+    }
+
+    private static long readVarint(byte[] bytes, int[] position) {
+        long value = 0;
+        int shift = 0;
+        int c;
+        do {
+            c = bytes[position[0]++] & 0xff;
+            value |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        return value;
+    }
+}
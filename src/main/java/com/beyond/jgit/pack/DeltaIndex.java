@@ -0,0 +1,178 @@
+package com.beyond.jgit.pack;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 对base按16字节分块建立hash索引, 用于计算target相对base的delta.
+ * <p>
+ * delta格式与git相同:
+ * <pre>
+ * baseSize(变长) | resultSize(变长) | 指令...
+ * copy:   1xxxxxxx [offset 0-4字节] [size 0-3字节], 低4位表示offset的哪些字节存在, 4-6位表示size的哪些字节存在
+ * insert: 0xxxxxxx 后跟xxxxxxx个字面字节(1-127)
+ * </pre>
+ */
+public class DeltaIndex {
+
+    static final int BLOCK_SIZE = 16;
+
+    private static final int MAX_CHAIN_LENGTH = 64;
+    private static final int MAX_COPY_SIZE = 0xffffff;
+    private static final int MAX_INSERT_SIZE = 0x7f;
+    private static final int HASH_MULTIPLIER = 31;
+
+    /**
+     * HASH_MULTIPLIER ^ BLOCK_SIZE, 滚动hash时移除窗口首字节用
+     */
+    private static final int OUT_FACTOR;
+
+    static {
+        int factor = 1;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            factor *= HASH_MULTIPLIER;
+        }
+        OUT_FACTOR = factor;
+    }
+
+    private final byte[] base;
+    private final int[] table;
+    private final int[] next;
+    private final int tableMask;
+
+    public DeltaIndex(byte[] base) {
+        this.base = base;
+        int blockCount = base.length / BLOCK_SIZE;
+        int tableSize = Integer.highestOneBit(Math.max(blockCount, 1)) << 1;
+        this.table = new int[tableSize];
+        this.next = new int[blockCount + 1];
+        this.tableMask = tableSize - 1;
+        // 链表下标从1开始, 0表示空; 倒序插入使链表头为偏移最小的块
+        for (int block = blockCount - 1; block >= 0; block--) {
+            int bucket = hash(base, block * BLOCK_SIZE) & tableMask;
+            next[block + 1] = table[bucket];
+            table[bucket] = block + 1;
+        }
+    }
+
+    public byte[] getBase() {
+        return base;
+    }
+
+    /**
+     * @param maxDeltaSize delta超过该大小时放弃
+     * @return delta, 超过maxDeltaSize时返回null
+     */
+    public byte[] encode(byte[] target, int maxDeltaSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxDeltaSize, target.length) + 16);
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        int insertStart = 0;
+        int ptr = 0;
+        int hash = target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+        while (ptr + BLOCK_SIZE <= target.length) {
+            int bestOffset = -1;
+            int bestLength = 0;
+            int chainLength = 0;
+            for (int entry = table[hash & tableMask]; entry != 0 && chainLength < MAX_CHAIN_LENGTH; entry = next[entry], chainLength++) {
+                int offset = (entry - 1) * BLOCK_SIZE;
+                int length = matchLength(offset, target, ptr);
+                if (length > bestLength) {
+                    bestOffset = offset;
+                    bestLength = length;
+                }
+            }
+
+            if (bestLength < BLOCK_SIZE) {
+                if (ptr + BLOCK_SIZE < target.length) {
+                    hash = hash * HASH_MULTIPLIER - target[ptr] * OUT_FACTOR + target[ptr + BLOCK_SIZE];
+                }
+                ptr++;
+                continue;
+            }
+
+            // 向前扩展, 吃掉待insert的部分
+            while (ptr > insertStart && bestOffset > 0 && base[bestOffset - 1] == target[ptr - 1]) {
+                bestOffset--;
+                bestLength++;
+                ptr--;
+            }
+            writeInsert(out, target, insertStart, ptr);
+            writeCopy(out, bestOffset, bestLength);
+            if (out.size() > maxDeltaSize) {
+                return null;
+            }
+            ptr += bestLength;
+            insertStart = ptr;
+            if (ptr + BLOCK_SIZE <= target.length) {
+                hash = hash(target, ptr);
+            }
+        }
+        writeInsert(out, target, insertStart, target.length);
+        if (out.size() > maxDeltaSize) {
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    private int matchLength(int offset, byte[] target, int ptr) {
+        int max = Math.min(base.length - offset, target.length - ptr);
+        int length = 0;
+        while (length < max && base[offset + length] == target[ptr + length]) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int hash(byte[] bytes, int offset) {
+        int hash = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            hash = hash * HASH_MULTIPLIER + bytes[offset + i];
+        }
+        return hash;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int start, int end) {
+        while (start < end) {
+            int length = Math.min(end - start, MAX_INSERT_SIZE);
+            out.write(length);
+            out.write(target, start, length);
+            start += length;
+        }
+    }
+
+    private static void writeCopy(ByteArrayOutputStream out, long offset, int length) {
+        while (length > 0) {
+            int size = Math.min(length, MAX_COPY_SIZE);
+            byte[] buf = new byte[8];
+            int n = 0;
+            int cmd = 0x80;
+            for (int i = 0; i < 4; i++) {
+                int b = (int) (offset >>> (8 * i)) & 0xff;
+                if (b != 0) {
+                    cmd |= 1 << i;
+                    buf[n++] = (byte) b;
+                }
+            }
+            for (int i = 0; i < 3; i++) {
+                int b = (size >>> (8 * i)) & 0xff;
+                if (b != 0) {
+                    cmd |= 0x10 << i;
+                    buf[n++] = (byte) b;
+                }
+            }
+            out.write(cmd);
+            out.write(buf, 0, n);
+            offset += size;
+            length -= size;
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while (value >= 0x80) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
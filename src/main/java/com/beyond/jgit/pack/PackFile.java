@@ -0,0 +1,341 @@
+package com.beyond.jgit.pack;
+
+import com.beyond.jgit.object.ObjectEntity;
+import com.beyond.jgit.object.ObjectLoader;
+import com.beyond.jgit.util.ZlibCompression;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * pack数据文件, 结构:
+ * <pre>
+ * "PACK" | version(4) | objectCount(4) | entry... | checksum(20)
+ * entry: header(type + inflated size, 变长) | zlib(data)
+ * </pre>
+ * header首字节: 最高位为后续字节标志, 4-6位为type, 低4位为size的低4位; 后续字节每字节7位, 低位在前.
+ * type为OBJ_OFS_DELTA时, header后紧跟base entry到本entry的距离(变长, 高位在前), size为delta的大小, 压缩的是delta.
+ */
+public class PackFile {
+
+    static final byte[] SIGNATURE = {'P', 'A', 'C', 'K'};
+    static final int VERSION = 2;
+    static final int HEADER_LENGTH = 12;
+
+    static final int OBJ_COMMIT = 1;
+    static final int OBJ_TREE = 2;
+    static final int OBJ_BLOB = 3;
+    /**
+     * 相对本entry偏移定位base的delta
+     */
+    static final int OBJ_OFS_DELTA = 6;
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    /**
+     * type + size(最多10字节) + baseDistance(最多10字节)
+     */
+    private static final int MAX_HEADER_LENGTH = 32;
+
+    private final File packFile;
+    private final File idxFile;
+    private final PackIndex index;
+    private final WindowCache windowCache;
+
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+
+    public PackFile(File packFile, WindowCache windowCache) throws IOException {
+        this.packFile = packFile;
+        this.windowCache = windowCache;
+        this.idxFile = new File(packFile.getParentFile(), FilenameUtils.getBaseName(packFile.getName()) + ".idx");
+        this.index = PackIndex.open(idxFile);
+    }
+
+    public String getName() {
+        return FilenameUtils.getBaseName(packFile.getName());
+    }
+
+    public File getPackFile() {
+        return packFile;
+    }
+
+    public File getIdxFile() {
+        return idxFile;
+    }
+
+    public PackIndex getIndex() {
+        return index;
+    }
+
+    public boolean contains(String objectId) {
+        return index.contains(objectId);
+    }
+
+    /**
+     * @return 与loose object相同的格式(type size\0data), 不存在时返回null
+     */
+    public byte[] read(String objectId) throws IOException {
+        ObjectEntity objectEntity = readObject(objectId);
+        if (objectEntity == null) {
+            return null;
+        }
+        return objectEntity.toBytes();
+    }
+
+    /**
+     * 通过映射窗口读取, 直接解压到大小正好的data数组中, 不经过loose格式的中间数组
+     *
+     * @return 不存在时返回null
+     */
+    public ObjectEntity readObject(String objectId) throws IOException {
+        long offset = index.findOffset(objectId);
+        if (offset < 0) {
+            return null;
+        }
+        return readAt(offset);
+    }
+
+    /**
+     * 非delta的object直接从窗口流式解压; delta需要base才能还原, 在内存中还原后返回
+     *
+     * @return 不存在时返回null
+     */
+    public ObjectLoader open(String objectId) throws IOException {
+        long offset = index.findOffset(objectId);
+        if (offset < 0) {
+            return null;
+        }
+        byte[] buf = new byte[MAX_HEADER_LENGTH];
+        int n = windowCache.copy(this, offset, buf, 0, buf.length);
+        EntryHeader header = parseHeader(offset, buf, n);
+        if (header.typeCode == OBJ_OFS_DELTA) {
+            return ObjectLoader.of(readAt(offset));
+        }
+        return new PackedObjectLoader(typeOf(header.typeCode), header.size, offset + header.length);
+    }
+
+    private ObjectEntity readAt(long offset) throws IOException {
+        // jdk8的Inflater只接受byte[]输入, 压缩数据按块从窗口复制过来, 解压结果直接写入data
+        byte[] buf = new byte[READ_BUFFER_SIZE];
+        int n = windowCache.copy(this, offset, buf, 0, buf.length);
+        EntryHeader header = parseHeader(offset, buf, n);
+        if (header.size > Integer.MAX_VALUE - 32) {
+            throw new IOException("object too large to read into memory: " + header.size);
+        }
+
+        if (header.typeCode == OBJ_OFS_DELTA) {
+            byte[] delta = inflate(offset, buf, header.length, n, (int) header.size);
+            ObjectEntity base = readAt(offset - header.baseDistance);
+            return new ObjectEntity(base.getType(), BinaryDelta.apply(base.getData(), delta));
+        }
+        return new ObjectEntity(typeOf(header.typeCode), inflate(offset, buf, header.length, n, (int) header.size));
+    }
+
+    private EntryHeader parseHeader(long offset, byte[] buf, int n) throws IOException {
+        if (n <= 0) {
+            throw new EOFException("unexpected end of pack: " + packFile.getAbsolutePath());
+        }
+        try {
+            EntryHeader header = new EntryHeader();
+            int c = buf[0] & 0xff;
+            header.typeCode = (c >> 4) & 7;
+            long size = c & 15;
+            int shift = 4;
+            int p = 1;
+            while ((c & 0x80) != 0) {
+                c = buf[p++] & 0xff;
+                size += (long) (c & 0x7f) << shift;
+                shift += 7;
+            }
+            header.size = size;
+
+            if (header.typeCode == OBJ_OFS_DELTA) {
+                c = buf[p++] & 0xff;
+                long baseDistance = c & 0x7f;
+                while ((c & 0x80) != 0) {
+                    c = buf[p++] & 0xff;
+                    baseDistance = ((baseDistance + 1) << 7) | (c & 0x7f);
+                }
+                header.baseDistance = baseDistance;
+            }
+            if (p > n) {
+                throw new EOFException("unexpected end of pack: " + packFile.getAbsolutePath());
+            }
+            header.length = p;
+            return header;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("corrupt pack entry at " + offset + ": " + packFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * @param buf 从offset处读取的前n个字节, 压缩数据从p开始
+     */
+    private byte[] inflate(long offset, byte[] buf, int p, int n, int size) throws IOException {
+        byte[] data = new byte[size];
+        Inflater inflater = ZlibCompression.inflater();
+        try {
+            inflater.setInput(buf, p, n - p);
+            long position = offset + n;
+            int written = 0;
+            while (written < data.length) {
+                int len = inflater.inflate(data, written, data.length - written);
+                written += len;
+                if (len == 0) {
+                    if (inflater.finished() || inflater.needsDictionary()) {
+                        throw new IOException("corrupt pack entry at " + offset + ": " + packFile.getAbsolutePath());
+                    }
+                    if (inflater.needsInput()) {
+                        n = windowCache.copy(this, position, buf, 0, buf.length);
+                        if (n <= 0) {
+                            throw new EOFException("unexpected end of pack: " + packFile.getAbsolutePath());
+                        }
+                        position += n;
+                        inflater.setInput(buf, 0, n);
+                    }
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt pack entry at " + offset + ": " + packFile.getAbsolutePath(), e);
+        }
+        return data;
+    }
+
+    private static class EntryHeader {
+        private int typeCode;
+        private long size;
+        private long baseDistance;
+        /**
+         * header(含baseDistance)的字节数, 压缩数据从offset + length开始
+         */
+        private int length;
+    }
+
+    private class PackedObjectLoader extends ObjectLoader {
+
+        private final ObjectEntity.Type type;
+        private final long size;
+        private final long dataOffset;
+
+        private PackedObjectLoader(ObjectEntity.Type type, long size, long dataOffset) {
+            this.type = type;
+            this.size = size;
+            this.dataOffset = dataOffset;
+        }
+
+        @Override
+        public ObjectEntity.Type getType() {
+            return type;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new InflaterInputStream(new WindowInputStream(dataOffset), new Inflater(), READ_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inf.end();
+                }
+            };
+        }
+    }
+
+    /**
+     * 从position开始通过映射窗口顺序读取pack
+     */
+    private class WindowInputStream extends InputStream {
+
+        private long position;
+
+        private WindowInputStream(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = windowCache.copy(PackFile.this, position, b, off, len);
+            if (n <= 0) {
+                return -1;
+            }
+            position += n;
+            return n;
+        }
+    }
+
+    /**
+     * 映射[start, start + size)区间, 超出文件末尾的部分会被截掉
+     */
+    synchronized ByteBuffer map(long start, int size) throws IOException {
+        FileChannel channel = getChannel();
+        long length = Math.min(size, channel.size() - start);
+        if (length <= 0) {
+            return ByteBuffer.allocate(0);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            randomAccessFile = new RandomAccessFile(packFile, "r");
+            channel = randomAccessFile.getChannel();
+        }
+        return channel;
+    }
+
+    public void close() throws IOException {
+        // 先释放窗口再关闭文件, 不能在持有本对象锁时去拿windowCache的锁(WindowCache.get的加锁顺序相反)
+        windowCache.remove(this);
+        synchronized (this) {
+            if (randomAccessFile != null) {
+                randomAccessFile.close();
+                randomAccessFile = null;
+                channel = null;
+            }
+        }
+    }
+
+    static int typeCode(ObjectEntity.Type type) {
+        switch (type) {
+            case commit:
+                return OBJ_COMMIT;
+            case tree:
+                return OBJ_TREE;
+            case blob:
+                return OBJ_BLOB;
+            default:
+                throw new RuntimeException("type error");
+        }
+    }
+
+    static ObjectEntity.Type typeOf(int typeCode) {
+        switch (typeCode) {
+            case OBJ_COMMIT:
+                return ObjectEntity.Type.commit;
+            case OBJ_TREE:
+                return ObjectEntity.Type.tree;
+            case OBJ_BLOB:
+                return ObjectEntity.Type.blob;
+            default:
+                throw new RuntimeException("type error: " + typeCode);
+        }
+    }
+}
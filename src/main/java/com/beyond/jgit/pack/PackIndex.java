@@ -0,0 +1,147 @@
+package com.beyond.jgit.pack;
+
+import com.beyond.jgit.object.ObjectId;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * pack的索引文件(.idx), 结构:
+ * <pre>
+ * magic(4) | version(4) | fanout(256 * 4) | objectIds(n * 20) | offsets(n * 8) | packChecksum(20) | idxChecksum(20)
+ * </pre>
+ * objectIds按字节序排序, fanout[i]为首字节小于等于i的object数量, 查找时先用fanout定位区间再二分.
+ */
+public class PackIndex {
+
+    static final byte[] MAGIC = {(byte) 0xff, 't', 'O', 'c'};
+    static final int VERSION = 2;
+    static final int ID_LENGTH = 20;
+
+    private final int[] fanout;
+    private final byte[] ids;
+    private final long[] offsets;
+    private final byte[] packChecksum;
+
+    private PackIndex(int[] fanout, byte[] ids, long[] offsets, byte[] packChecksum) {
+        this.fanout = fanout;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.packChecksum = packChecksum;
+    }
+
+    public static PackIndex open(File idxFile) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(FileUtils.readFileToByteArray(idxFile));
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || buffer.getInt() != VERSION) {
+            throw new IOException("not a pack index: " + idxFile.getAbsolutePath());
+        }
+        int[] fanout = new int[256];
+        for (int i = 0; i < fanout.length; i++) {
+            fanout[i] = buffer.getInt();
+        }
+        int count = fanout[255];
+        byte[] ids = new byte[count * ID_LENGTH];
+        buffer.get(ids);
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = buffer.getLong();
+        }
+        byte[] packChecksum = new byte[ID_LENGTH];
+        buffer.get(packChecksum);
+        return new PackIndex(fanout, ids, offsets, packChecksum);
+    }
+
+    /**
+     * @param entries 需按objectId排序
+     */
+    public static void write(File idxFile, List<PackedObjectInfo> entries, byte[] packChecksum) throws IOException {
+        int[] fanout = new int[256];
+        for (PackedObjectInfo entry : entries) {
+            fanout[entry.getRawId()[0] & 0xff]++;
+        }
+        for (int i = 1; i < fanout.length; i++) {
+            fanout[i] += fanout[i - 1];
+        }
+
+        MessageDigest digest = DigestUtils.getSha1Digest();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DigestOutputStream(new FileOutputStream(idxFile), digest)))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            for (int count : fanout) {
+                out.writeInt(count);
+            }
+            for (PackedObjectInfo entry : entries) {
+                out.write(entry.getRawId());
+            }
+            for (PackedObjectInfo entry : entries) {
+                out.writeLong(entry.getOffset());
+            }
+            out.write(packChecksum);
+            out.flush();
+            out.write(digest.digest());
+        }
+    }
+
+    public int getObjectCount() {
+        return offsets.length;
+    }
+
+    public byte[] getPackChecksum() {
+        return packChecksum;
+    }
+
+    public String getObjectId(int position) {
+        return ObjectId.fromRaw(ids, position * ID_LENGTH).name();
+    }
+
+    public long getOffset(int position) {
+        return offsets[position];
+    }
+
+    public boolean contains(String objectId) {
+        return findPosition(objectId) >= 0;
+    }
+
+    public boolean contains(ObjectId objectId) {
+        return findPosition(objectId) >= 0;
+    }
+
+    /**
+     * @return 不存在时返回-1
+     */
+    public long findOffset(String objectId) {
+        int position = findPosition(objectId);
+        return position < 0 ? -1 : offsets[position];
+    }
+
+    public int findPosition(String objectId) {
+        return findPosition(ObjectId.fromString(objectId));
+    }
+
+    public int findPosition(ObjectId objectId) {
+        int first = objectId.getFirstByte();
+        int low = first == 0 ? 0 : fanout[first - 1];
+        int high = fanout[first] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = objectId.compareTo(ids, mid * ID_LENGTH);
+            if (cmp == 0) {
+                return mid;
+            }
+            if (cmp < 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return -1;
+    }
+}
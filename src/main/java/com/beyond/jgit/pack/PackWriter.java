@@ -0,0 +1,263 @@
+package com.beyond.jgit.pack;
+
+import com.beyond.jgit.object.AdaptiveCompression;
+import com.beyond.jgit.object.ObjectEntity;
+import com.beyond.jgit.object.ObjectIdSet;
+import com.beyond.jgit.util.FileUtil;
+import com.beyond.jgit.util.ObjectUtils;
+import com.beyond.jgit.util.ZlibCompression;
+import lombok.Data;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.Deflater;
+
+/**
+ * 将一组object写为pack文件和idx文件. 先写pack, 最后写idx, 读取方只认有idx的pack, 因此不会读到写了一半的pack.
+ */
+public class PackWriter {
+
+    /**
+     * 超过该大小的object不参与delta, 避免窗口占用过多内存
+     */
+    private static final int MAX_DELTA_OBJECT_SIZE = 32 * 1024 * 1024;
+    private static final int MIN_DELTA_OBJECT_SIZE = 64;
+
+    private final File packDir;
+
+    /**
+     * 每个object与排在它前面的多少个object比较相似度, 为0时不做delta
+     */
+    private int deltaWindow = 10;
+    /**
+     * delta链的最大长度, 读取时最多需要解deltaDepth次
+     */
+    private int deltaDepth = 50;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    /**
+     * 为null时所有object都按compressionLevel压缩
+     */
+    private AdaptiveCompression compression;
+    /**
+     * rename前是否fsync pack和idx
+     */
+    private boolean fsync;
+
+    public PackWriter(File packDir) {
+        this.packDir = packDir;
+    }
+
+    public void setDeltaWindow(int deltaWindow) {
+        this.deltaWindow = deltaWindow;
+    }
+
+    public void setDeltaDepth(int deltaDepth) {
+        this.deltaDepth = deltaDepth;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public void setCompression(AdaptiveCompression compression) {
+        this.compression = compression;
+    }
+
+    public void setFsync(boolean fsync) {
+        this.fsync = fsync;
+    }
+
+    /**
+     * @return 写好的pack文件
+     */
+    public File write(List<String> objectIds, ObjectSource source) throws IOException {
+        FileUtils.forceMkdir(packDir);
+        List<ObjectToPack> objects = new ArrayList<>();
+        ObjectIdSet added = new ObjectIdSet(objectIds.size());
+        for (String objectId : objectIds) {
+            if (added.add(objectId)) {
+                objects.add(new ObjectToPack(objectId));
+            }
+        }
+        if (deltaWindow > 0) {
+            // 按type和size倒序排列, 同一文件的不同版本大小相近, 会落在同一个窗口里; 大的排前面作为base, 删除比插入的delta更小
+            for (ObjectToPack object : objects) {
+                ObjectEntity objectEntity = source.read(object.getObjectId());
+                object.setType(objectEntity.getType());
+                object.setSize(objectEntity.getData().length);
+            }
+            objects.sort(Comparator.comparing(ObjectToPack::getType).thenComparing(ObjectToPack::getSize, Comparator.reverseOrder()));
+        }
+
+        File tmpPackFile = File.createTempFile("tmp_pack_", ".tmp", packDir);
+        List<PackedObjectInfo> entries = new ArrayList<>(objects.size());
+        byte[] checksum;
+        try {
+            MessageDigest digest = DigestUtils.getSha1Digest();
+            try (CountingOutputStream out = new CountingOutputStream(new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(tmpPackFile)), digest))) {
+                DataOutputStream dataOut = new DataOutputStream(out);
+                dataOut.write(PackFile.SIGNATURE);
+                dataOut.writeInt(PackFile.VERSION);
+                dataOut.writeInt(objects.size());
+
+                byte[] buf = new byte[8192];
+                LinkedList<ObjectToPack> window = new LinkedList<>();
+                for (ObjectToPack object : objects) {
+                    ObjectEntity objectEntity = source.read(object.getObjectId());
+                    byte[] data = objectEntity.getData();
+                    object.setOffset(out.getByteCount());
+                    entries.add(new PackedObjectInfo(object.getObjectId(), object.getOffset()));
+
+                    boolean deltaCandidate = deltaWindow > 0
+                            && objectEntity.getType() != ObjectEntity.Type.commit
+                            && data.length >= MIN_DELTA_OBJECT_SIZE
+                            && data.length <= MAX_DELTA_OBJECT_SIZE;
+                    ObjectToPack base = null;
+                    byte[] delta = null;
+                    if (deltaCandidate) {
+                        int maxDeltaSize = data.length / 2;
+                        Iterator<ObjectToPack> iterator = window.descendingIterator();
+                        while (iterator.hasNext()) {
+                            ObjectToPack candidate = iterator.next();
+                            if (candidate.getType() != objectEntity.getType()
+                                    || candidate.getDepth() >= deltaDepth
+                                    || data.length < candidate.getSize() / 32) {
+                                continue;
+                            }
+                            byte[] candidateDelta = candidate.getDeltaIndex().encode(data, maxDeltaSize);
+                            if (candidateDelta != null) {
+                                base = candidate;
+                                delta = candidateDelta;
+                                maxDeltaSize = candidateDelta.length - 1;
+                            }
+                        }
+                    }
+
+                    if (delta != null) {
+                        writeEntryHeader(out, PackFile.OBJ_OFS_DELTA, delta.length);
+                        writeBaseDistance(out, object.getOffset() - base.getOffset());
+                        deflate(objectEntity.getType(), delta, out, buf);
+                        object.setDepth(base.getDepth() + 1);
+                    } else {
+                        writeEntryHeader(out, PackFile.typeCode(objectEntity.getType()), data.length);
+                        deflate(objectEntity.getType(), data, out, buf);
+                    }
+
+                    if (deltaCandidate) {
+                        object.setType(objectEntity.getType());
+                        object.setSize(data.length);
+                        object.setData(data);
+                        window.addLast(object);
+                        if (window.size() > deltaWindow) {
+                            window.removeFirst().release();
+                        }
+                    }
+                }
+                out.flush();
+                checksum = digest.digest();
+                out.write(checksum);
+            }
+        } catch (IOException | RuntimeException e) {
+            FileUtils.deleteQuietly(tmpPackFile);
+            throw e;
+        }
+
+        String name = "pack-" + ObjectUtils.bytesToHex(checksum);
+        File packFile = new File(packDir, name + ".pack");
+        File idxFile = new File(packDir, name + ".idx");
+        if (fsync) {
+            FileUtil.fsync(tmpPackFile);
+        }
+        Files.move(tmpPackFile.toPath(), packFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        entries.sort(Comparator.comparing(PackedObjectInfo::getObjectId));
+        File tmpIdxFile = File.createTempFile("tmp_idx_", ".tmp", packDir);
+        try {
+            PackIndex.write(tmpIdxFile, entries, checksum);
+            if (fsync) {
+                FileUtil.fsync(tmpIdxFile);
+            }
+            Files.move(tmpIdxFile.toPath(), idxFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            FileUtils.deleteQuietly(tmpIdxFile);
+            throw e;
+        }
+        if (fsync) {
+            FileUtil.fsyncDir(packDir);
+        }
+        return packFile;
+    }
+
+    /**
+     * 每次取线程复用的Deflater, 不跨source.read持有
+     */
+    private void deflate(ObjectEntity.Type type, byte[] data, OutputStream out, byte[] buf) throws IOException {
+        if (compression != null) {
+            // 统计只反映写入的object, 打包(包括repack)不重复计入
+            out.write(compression.compress(type, data, compressionLevel, false));
+            return;
+        }
+        Deflater deflater = ZlibCompression.deflater(compressionLevel);
+        deflater.setInput(data);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int len = deflater.deflate(buf);
+            out.write(buf, 0, len);
+        }
+    }
+
+    static void writeBaseDistance(OutputStream out, long distance) throws IOException {
+        byte[] buf = new byte[10];
+        int n = buf.length - 1;
+        buf[n] = (byte) (distance & 0x7f);
+        while ((distance >>>= 7) != 0) {
+            buf[--n] = (byte) (0x80 | (--distance & 0x7f));
+        }
+        out.write(buf, n, buf.length - n);
+    }
+
+    static void writeEntryHeader(OutputStream out, int typeCode, long size) throws IOException {
+        int c = (typeCode << 4) | (int) (size & 15);
+        size >>>= 4;
+        while (size != 0) {
+            out.write(c | 0x80);
+            c = (int) (size & 0x7f);
+            size >>>= 7;
+        }
+        out.write(c);
+    }
+
+    public interface ObjectSource {
+        ObjectEntity read(String objectId) throws IOException;
+    }
+
+    @Data
+    private static class ObjectToPack {
+        private final String objectId;
+        private ObjectEntity.Type type;
+        private int size;
+        private long offset;
+        private int depth;
+        private byte[] data;
+        private DeltaIndex deltaIndex;
+
+        DeltaIndex getDeltaIndex() {
+            if (deltaIndex == null) {
+                deltaIndex = new DeltaIndex(data);
+            }
+            return deltaIndex;
+        }
+
+        void release() {
+            data = null;
+            deltaIndex = null;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.beyond.jgit.pack;
+
+import com.beyond.jgit.util.ObjectUtils;
+import lombok.Data;
+
+@Data
+public class PackedObjectInfo {
+    private String objectId;
+    private byte[] rawId;
+    private long offset;
+
+    public PackedObjectInfo(String objectId, long offset) {
+        this.objectId = objectId;
+        this.rawId = ObjectUtils.hexToByteArray(objectId);
+        this.offset = offset;
+    }
+}
@@ -0,0 +1,87 @@
+package com.beyond.jgit.pack;
+
+import lombok.Data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * pack文件的内存映射窗口缓存, 所有pack共享, 按LRU淘汰, 打开的窗口数不超过maxOpenWindows.
+ * 被淘汰的MappedByteBuffer由GC回收后解除映射.
+ */
+public class WindowCache {
+
+    private final int windowSize;
+    private final int maxOpenWindows;
+
+    private final LinkedHashMap<WindowKey, ByteBuffer> windows = new LinkedHashMap<>(16, 0.75f, true);
+
+    public WindowCache(int windowSize, int maxOpenWindows) {
+        if (windowSize <= 0 || maxOpenWindows <= 0) {
+            throw new IllegalArgumentException("windowSize and maxOpenWindows must be positive");
+        }
+        this.windowSize = windowSize;
+        this.maxOpenWindows = maxOpenWindows;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * 从pack的position处最多复制len个字节到dst, 可跨越多个窗口
+     *
+     * @return 实际复制的字节数, 到达文件末尾时可能小于len
+     */
+    public int copy(PackFile pack, long position, byte[] dst, int dstOffset, int len) throws IOException {
+        int copied = 0;
+        while (copied < len) {
+            long windowStart = (position / windowSize) * windowSize;
+            ByteBuffer window = get(pack, windowStart);
+            int start = (int) (position - windowStart);
+            int n = Math.min(len - copied, window.limit() - start);
+            if (n <= 0) {
+                break;
+            }
+            // duplicate后position独立, 多线程读同一个窗口互不影响
+            ByteBuffer view = window.duplicate();
+            view.position(start);
+            view.get(dst, dstOffset + copied, n);
+            copied += n;
+            position += n;
+        }
+        return copied;
+    }
+
+    private synchronized ByteBuffer get(PackFile pack, long windowStart) throws IOException {
+        WindowKey key = new WindowKey(pack, windowStart);
+        ByteBuffer window = windows.get(key);
+        if (window == null) {
+            window = pack.map(windowStart, windowSize);
+            windows.put(key, window);
+            Iterator<Map.Entry<WindowKey, ByteBuffer>> iterator = windows.entrySet().iterator();
+            while (windows.size() > maxOpenWindows && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return window;
+    }
+
+    public synchronized void remove(PackFile pack) {
+        windows.keySet().removeIf(key -> key.getPack() == pack);
+    }
+
+    public synchronized int getOpenWindowCount() {
+        return windows.size();
+    }
+
+    @Data
+    private static class WindowKey {
+        private final PackFile pack;
+        private final long windowStart;
+    }
+}
@@ -5,10 +5,44 @@ import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.TrueFileFilter;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 public class FileUtil {
 
+    /**
+     * 将文件内容刷到磁盘
+     */
+    public static void fsync(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * 将目录项(新建/rename的文件名)刷到磁盘, 部分平台(windows)不能打开目录, 此时忽略
+     */
+    public static void fsyncDir(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * 将lockFile刷盘后rename为targetFile, 再刷新所在目录, 保证断电后target要么是旧内容要么是完整的新内容
+     */
+    public static void fsyncAndMove(File lockFile, File targetFile) throws IOException {
+        fsync(lockFile);
+        Files.move(lockFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        fsyncDir(targetFile.getAbsoluteFile().getParentFile());
+    }
+
     public static Collection<File> listFilesAndDirsWithoutNameOf(String rootPath,String... excludeNames){
         Set<String> excludeNameSet = new HashSet<>(Arrays.asList(excludeNames));
         return FileUtils.listFilesAndDirs(new File(rootPath), TrueFileFilter.INSTANCE, new IOFileFilter() {
@@ -6,6 +6,7 @@ import org.apache.commons.codec.digest.DigestUtils;
 import java.io.*;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 
 public class ObjectUtils {
@@ -25,8 +26,9 @@ public class ObjectUtils {
     }
 
     public static String sha1hash(ObjectEntity.Type type, File file) throws IOException {
+        // available()是int, 超过2G的文件会算错, 用file.length()
         try(FileInputStream fileInputStream = new FileInputStream(file);
-            ByteArrayInputStream headInputStream = new ByteArrayInputStream((type.name().toLowerCase() + " " + fileInputStream.available() + "\0").getBytes());
+            ByteArrayInputStream headInputStream = new ByteArrayInputStream(buildObjectHead(type, file.length()));
             SequenceInputStream sequenceInputStream = new SequenceInputStream(headInputStream, fileInputStream)) {
             return sha1hash(sequenceInputStream);
         }
@@ -59,6 +61,10 @@ public class ObjectUtils {
         return newBytes;
     }
 
+    public static byte[] buildObjectHead(ObjectEntity.Type type, long size) {
+        return (type.name().toLowerCase() + " " + size + "\0").getBytes();
+    }
+
     public static File getObjectFile(String objectsDir, String objectId) {
         String path = ObjectUtils.path(objectId);
         Path absPath = Paths.get(objectsDir, path);
@@ -77,6 +83,11 @@ public class ObjectUtils {
         return dir + File.separator + name;
     }
 
+    /**
+     * 分块存储的大文件, entry指向的blob是ChunkManifest
+     */
+    public static final String CHUNKED_BLOB_MODE = "100640";
+
     public static String getModeByType(ObjectEntity.Type type) {
         switch (type) {
             case blob:
@@ -91,6 +102,7 @@ public class ObjectUtils {
     public static ObjectEntity.Type getTypeByMode(String mode) {
         switch (mode) {
             case "100644":
+            case CHUNKED_BLOB_MODE:
                 return ObjectEntity.Type.blob;
             case "40000":
                 return ObjectEntity.Type.tree;
@@ -99,42 +111,79 @@ public class ObjectUtils {
         }
     }
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    /**
+     * 字符到数值的查找表, 非hex字符为-1
+     */
+    private static final byte[] HEX_VALUES = new byte['f' + 1];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (char c = '0'; c <= '9'; c++) {
+            HEX_VALUES[c] = (byte) (c - '0');
+        }
+        for (char c = 'a'; c <= 'f'; c++) {
+            HEX_VALUES[c] = (byte) (c - 'a' + 10);
+        }
+        for (char c = 'A'; c <= 'F'; c++) {
+            HEX_VALUES[c] = (byte) (c - 'A' + 10);
+        }
+    }
+
     public static byte[] hexToByteArray(String inHex) {
         int hexlen = inHex.length();
-        byte[] result;
-        if (hexlen % 2 == 1) {
-            //奇数
-            hexlen++;
-            result = new byte[(hexlen / 2)];
-            inHex = "0" + inHex;
-        } else {
-            //偶数
-            result = new byte[(hexlen / 2)];
+        // 奇数长度时高位补0
+        int odd = hexlen & 1;
+        byte[] result = new byte[(hexlen + 1) / 2];
+        if (odd == 1) {
+            result[0] = (byte) hexValue(inHex.charAt(0));
         }
-        int j = 0;
-        for (int i = 0; i < hexlen; i += 2) {
-            result[j] = hexToByte(inHex.substring(i, i + 2));
-            j++;
+        for (int i = odd, j = odd; i < hexlen; i += 2, j++) {
+            result[j] = (byte) (hexValue(inHex.charAt(i)) << 4 | hexValue(inHex.charAt(i + 1)));
         }
         return result;
     }
 
-    private static byte hexToByte(String inHex) {
-        return (byte) Integer.parseInt(inHex, 16);
+    public static String bytesToHex(byte[] bytes) {
+        return bytesToHex(bytes, 0, bytes.length);
     }
 
+    public static String bytesToHex(byte[] bytes, int offset, int length) {
+        char[] chars = new char[length * 2];
+        for (int i = offset, j = 0; i < offset + length; i++) {
+            chars[j++] = HEX_DIGITS[(bytes[i] >>> 4) & 0xf];
+            chars[j++] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
 
-    public static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte aByte : bytes) {
-            String hex = Integer.toHexString(aByte & 0xFF);
-            if (hex.length() < 2) {
-                sb.append(0);
-            }
-            sb.append(hex);
+    /**
+     * 将hex[offset, offset + 8)解析为int
+     */
+    public static int hexToInt(String hex, int offset) {
+        int value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = value << 4 | hexValue(hex.charAt(i));
         }
-        return sb.toString();
+        return value;
     }
 
+    /**
+     * 将value写为8位hex到chars[offset, offset + 8)
+     */
+    public static void intToHex(int value, char[] chars, int offset) {
+        for (int i = offset + 7; i >= offset; i--) {
+            chars[i] = HEX_DIGITS[value & 0xf];
+            value >>>= 4;
+        }
+    }
+
+    private static int hexValue(char c) {
+        int value = c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("invalid hex char: " + c);
+        }
+        return value;
+    }
 
 }
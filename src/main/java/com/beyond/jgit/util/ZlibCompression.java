@@ -1,30 +1,66 @@
 package com.beyond.jgit.util;
 
-import com.jcraft.jzlib.DeflaterOutputStream;
-import com.jcraft.jzlib.InflaterInputStream;
-
 import java.io.*;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
-import java.util.zip.DeflaterInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
- * Example program to demonstrate how to use zlib compression with
- * Java.
- * Inspired by http://stackoverflow.com/q/6173920/600500.
+ * zlib压缩工具, 统一使用java.util.zip.
+ * 每个线程按压缩级别复用Deflater和Inflater, 避免每个object都创建和释放native的zlib流.
+ * 复用的实例只能在一次调用内使用, 不能跨调用持有(比如返回给调用方的流需要自己new).
  */
 public class ZlibCompression {
 
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater[Deflater.BEST_COMPRESSION + 1]);
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    /**
+     * 当前线程复用的Deflater, 已reset
+     *
+     * @param level 0-9, 或Deflater.DEFAULT_COMPRESSION
+     */
+    public static Deflater deflater(int level) {
+        if (level == Deflater.DEFAULT_COMPRESSION) {
+            level = 6;
+        }
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("invalid compression level: " + level);
+        }
+        Deflater[] deflaters = DEFLATERS.get();
+        Deflater deflater = deflaters[level];
+        if (deflater == null) {
+            deflater = new Deflater(level);
+            deflaters[level] = deflater;
+        } else {
+            deflater.reset();
+        }
+        return deflater;
+    }
+
+    /**
+     * 当前线程复用的Inflater, 已reset
+     */
+    public static Inflater inflater() {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        return inflater;
+    }
+
     /**
      * Compresses a file with zlib compression.
      */
     public static void compressFile(File raw, File compressed)
             throws IOException {
-        InputStream in = new FileInputStream(raw);
-        OutputStream out =
-                new DeflaterOutputStream(new FileOutputStream(compressed));
-        shovelInToOut(in, out);
-        in.close();
-        out.close();
+        try (InputStream in = new FileInputStream(raw);
+             OutputStream out = new DeflaterOutputStream(new FileOutputStream(compressed), deflater(Deflater.DEFAULT_COMPRESSION), BUFFER_SIZE)) {
+            shovelInToOut(in, out);
+        }
     }
 
     /**
@@ -32,12 +68,10 @@ public class ZlibCompression {
      */
     public static void decompressFile(File compressed, File raw)
             throws IOException {
-        InputStream in =
-                new InflaterInputStream(new FileInputStream(compressed));
-        OutputStream out = new FileOutputStream(raw);
-        shovelInToOut(in, out);
-        in.close();
-        out.close();
+        try (InputStream in = new InflaterInputStream(new FileInputStream(compressed), inflater(), BUFFER_SIZE);
+             OutputStream out = new FileOutputStream(raw)) {
+            shovelInToOut(in, out);
+        }
     }
 
     /**
@@ -45,36 +79,93 @@ public class ZlibCompression {
      */
     private static void shovelInToOut(InputStream in, OutputStream out)
             throws IOException {
-        byte[] buffer = new byte[1000];
+        byte[] buffer = new byte[BUFFER_SIZE];
         int len;
         while ((len = in.read(buffer)) > 0) {
             out.write(buffer, 0, len);
         }
     }
 
-    public static byte[] compressBytes(byte[] bytes) throws IOException {
-        try (InputStream in = new DeflaterInputStream(new ByteArrayInputStream(bytes));
-             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            shovelInToOut(in, out);
-            return out.toByteArray();
+    public static byte[] compressBytes(byte[] bytes) {
+        return compressBytes(bytes, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * 输出数组按zlib的最坏情况预先分配, 只在最后截一次
+     */
+    public static byte[] compressBytes(byte[] bytes, int level) {
+        Deflater deflater = deflater(level);
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] out = new byte[deflateBound(bytes.length)];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        return length == out.length ? out : Arrays.copyOf(out, length);
+    }
+
+    /**
+     * 只计算压缩后的长度, 不保留输出(试压缩用)
+     */
+    public static int compressedLength(byte[] bytes, int offset, int length, int level) {
+        Deflater deflater = deflater(level);
+        deflater.setInput(bytes, offset, length);
+        deflater.finish();
+        byte[] buf = new byte[BUFFER_SIZE];
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            compressedLength += deflater.deflate(buf);
         }
+        return compressedLength;
     }
 
     public static byte[] decompressBytes(byte[] bytes) throws IOException {
-        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes));
-             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            shovelInToOut(in, out);
-            return out.toByteArray();
+        return decompressBytes(bytes, -1);
+    }
+
+    /**
+     * @param expectedSize 已知的解压后大小, 用于预先分配输出数组; 未知时传-1, 按压缩数据大小估计并按需扩容
+     */
+    public static byte[] decompressBytes(byte[] bytes, int expectedSize) throws IOException {
+        Inflater inflater = inflater();
+        inflater.setInput(bytes);
+        byte[] out = new byte[expectedSize >= 0 ? expectedSize : Math.max(bytes.length * 4, 64)];
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, Math.max(out.length * 2, 64));
+                }
+                int n = inflater.inflate(out, length, out.length - length);
+                length += n;
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("unexpected end of zlib stream");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt zlib stream", e);
         }
+        return length == out.length ? out : Arrays.copyOf(out, length);
     }
 
+    /**
+     * 与zlib的compressBound相同: 存储块的开销 + zlib头尾
+     */
+    private static int deflateBound(int length) {
+        long bound = (long) length + (length >> 12) + (length >> 14) + (length >> 25) + 13 + 6;
+        return (int) Math.min(bound, Integer.MAX_VALUE - 8);
+    }
 
     /**
      * Main method to test it all.
      */
-    public static void main(String[] args) throws IOException, DataFormatException {
+    public static void main(String[] args) throws IOException {
         File compressed = new File("book1out.dfl");
         compressFile(new File("book1"), compressed);
         decompressFile(compressed, new File("decompressed.txt"));
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,7 @@
 package com.beyond.jgit.util.commitchain;
 
 import com.beyond.jgit.GitLite;
-import com.beyond.jgit.object.ObjectEntity;
 import com.beyond.jgit.object.ObjectManager;
-import com.beyond.jgit.object.data.CommitObjectData;
 import lombok.Data;
 
 import java.io.IOException;
@@ -28,8 +26,7 @@ public class CommitChainItemLazy extends CommitChainItem{
     @Override
     public List<CommitChainItem> getParents() {
         try {
-            ObjectEntity commitObjectEntity  = objectManager.read(getCommitObjectId());
-            List<String> parentCommitObjectIds = CommitObjectData.parseFrom(commitObjectEntity.getData()).getParents();
+            List<String> parentCommitObjectIds = objectManager.readCommitHeader(getCommitObjectId()).getParents();
             List<CommitChainItem> parents = new ArrayList<>();
             for (String parent : parentCommitObjectIds) {
                 if (Objects.equals(parent, GitLite.EMPTY_OBJECT_ID)){
@@ -1,8 +1,6 @@
 package com.beyond.jgit.util.commitchain;
 
-import com.beyond.jgit.object.ObjectEntity;
 import com.beyond.jgit.object.ObjectManager;
-import com.beyond.jgit.object.data.CommitObjectData;
 import org.apache.commons.collections4.CollectionUtils;
 
 import java.io.IOException;
@@ -34,10 +32,9 @@ public class CommitChainUtils {
             commitChainItem.setCommitObjectId(EMPTY_OBJECT_ID);
             return commitChainItem;
         }
-        ObjectEntity commitObjectEntity = objectManager.read(newerCommitObjectId);
         CommitChainItem commitChainItem = new CommitChainItem();
         commitChainItem.setCommitObjectId(newerCommitObjectId);
-        List<String> parents = CommitObjectData.parseFrom(commitObjectEntity.getData()).getParents();
+        List<String> parents = objectManager.readCommitHeader(newerCommitObjectId).getParents();
         // merge 时会有多个parent
         for (String parent : parents) {
             CommitChainItem parentItem = getCommitChainHead(parent, olderCommitObjectId, objectManager);
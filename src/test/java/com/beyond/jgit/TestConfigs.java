@@ -0,0 +1,30 @@
+package com.beyond.jgit;
+
+import com.beyond.jgit.util.PathUtils;
+
+/**
+ * 测试用的仓库配置, 所有路径都在local下
+ */
+public class TestConfigs {
+
+    private TestConfigs() {
+    }
+
+    public static GitLiteConfig config(String local) {
+        GitLiteConfig config = new GitLiteConfig();
+        config.setLocalDir(local);
+        config.setGitDir(PathUtils.concat(local, ".git"));
+        config.setHeadPath(PathUtils.concat(local, ".git", "HEAD"));
+        config.setIndexPath(PathUtils.concat(local, ".git", "index"));
+        config.setObjectsDir(PathUtils.concat(local, ".git", "objects"));
+        config.setRefsDir(PathUtils.concat(local, ".git", "refs"));
+        config.setRefsRemotesDir(PathUtils.concat(local, ".git", "refs", "remotes"));
+        config.setRefsHeadsDir(PathUtils.concat(local, ".git", "refs", "heads"));
+        config.setLogsDir(PathUtils.concat(local, ".git", "logs"));
+        config.setLogsRemotesDir(PathUtils.concat(local, ".git", "logs", "remotes"));
+        config.setLogsHeadsDir(PathUtils.concat(local, ".git", "logs", "heads"));
+        config.setCommitterName("beyond");
+        config.setCommitterEmail("beyond@example.com");
+        return config;
+    }
+}
@@ -0,0 +1,151 @@
+package com.beyond.jgit.bitmap;
+
+import com.beyond.jgit.GitLite;
+import com.beyond.jgit.object.ObjectEntity;
+import com.beyond.jgit.object.ObjectId;
+import com.beyond.jgit.object.ObjectManager;
+import com.beyond.jgit.object.data.CommitObjectData;
+import com.beyond.jgit.object.data.TreeObjectData;
+import com.beyond.jgit.util.ObjectUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReachabilityBitmapTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ewahRoundTrip() {
+        Random random = new Random(5);
+        BitSet bitSet = new BitSet();
+        bitSet.set(0, 5000);
+        bitSet.set(9000, 9001);
+        for (int i = 0; i < 300; i++) {
+            bitSet.set(20000 + random.nextInt(5000));
+        }
+        bitSet.set(40000, 100000);
+        long[] encoded = EwahCompression.encode(bitSet);
+        assertTrue(encoded.length < bitSet.toLongArray().length / 4);
+        assertEquals(bitSet, EwahCompression.decode(encoded));
+        assertEquals(new BitSet(), EwahCompression.decode(EwahCompression.encode(new BitSet())));
+    }
+
+    @Test
+    public void reachableAndNot() throws IOException {
+        String objectsDir = new File(folder.getRoot(), "objects").getAbsolutePath();
+        ObjectManager objectManager = new ObjectManager(objectsDir);
+
+        String a = blob(objectManager, "a");
+        String b = blob(objectManager, "b");
+        String sub1 = tree(objectManager, "b.txt", b, false);
+        String root1 = tree(objectManager, "a.txt", a, false, "d", sub1, true);
+        String c1 = commit(objectManager, root1, GitLite.EMPTY_OBJECT_ID);
+
+        String a2 = blob(objectManager, "a2");
+        String root2 = tree(objectManager, "a.txt", a2, false, "d", sub1, true);
+        String c2 = commit(objectManager, root2, c1);
+
+        ReachabilityWalker walker = new ReachabilityWalker(objectManager);
+        assertEquals(new HashSet<>(Arrays.asList(a, b, sub1, root1, c1)), new HashSet<>(walker.toObjectIds(walker.reachable(c1))));
+        BitSet toPush = walker.reachable(c2);
+        toPush.andNot(walker.reachable(c1));
+        // blob, tree, commit的顺序
+        assertEquals(Arrays.asList(a2, root2, c2), walker.toObjectIds(toPush));
+
+        objectManager.saveBitmaps(walker, c1);
+        ObjectManager reopened = new ObjectManager(objectsDir);
+        assertTrue(reopened.getBitmapIndex().hasBitmap(ObjectId.fromString(c1)));
+        assertFalse(reopened.getBitmapIndex().hasBitmap(ObjectId.fromString(c2)));
+
+        ReachabilityWalker reopenedWalker = new ReachabilityWalker(reopened);
+        BitSet again = reopenedWalker.reachable(c2);
+        again.andNot(reopenedWalker.reachable(c1));
+        List<String> objectIds = reopenedWalker.toObjectIds(again);
+        assertEquals(Arrays.asList(a2, root2, c2), objectIds);
+    }
+
+    @Test
+    public void renumberAfterPrune() throws IOException {
+        String objectsDir = new File(folder.getRoot(), "objects").getAbsolutePath();
+        ObjectManager objectManager = new ObjectManager(objectsDir);
+        String a = blob(objectManager, "a");
+        String c1 = commit(objectManager, tree(objectManager, "a.txt", a, false), GitLite.EMPTY_OBJECT_ID);
+        String b = blob(objectManager, "b");
+        String c2 = commit(objectManager, tree(objectManager, "a.txt", a, false, "b.txt", b, false), c1);
+        String x = blob(objectManager, "x");
+        String dropped = commit(objectManager, tree(objectManager, "x.txt", x, false), GitLite.EMPTY_OBJECT_ID);
+
+        ReachabilityWalker walker = new ReachabilityWalker(objectManager);
+        walker.reachable(c2);
+        // 只保存c1, 遍历到的其他object不写入
+        objectManager.saveBitmaps(walker, c1);
+        assertEquals(3, objectManager.getBitmapIndex().getObjectCount());
+
+        objectManager.saveBitmaps(new ReachabilityWalker(objectManager), dropped, c2);
+        assertEquals(9, objectManager.getBitmapIndex().getObjectCount());
+
+        // gc之后dropped不可达, 它的bitmap和object的位置都去掉
+        HashSet<ObjectId> reachable = new HashSet<>();
+        for (String objectId : walker.toObjectIds(walker.reachable(c2))) {
+            reachable.add(ObjectId.fromString(objectId));
+        }
+        objectManager.pruneBitmaps(reachable);
+        ObjectManager reopened = new ObjectManager(objectsDir);
+        BitmapIndex index = reopened.getBitmapIndex();
+        assertEquals(6, index.getObjectCount());
+        assertEquals(Arrays.asList(ObjectId.fromString(c1), ObjectId.fromString(c2)), index.getBitmapCommits());
+        assertEquals(-1, index.findPosition(ObjectId.fromString(x)));
+        ReachabilityWalker reopenedWalker = new ReachabilityWalker(reopened);
+        assertEquals(new HashSet<>(walker.toObjectIds(walker.reachable(c2))), new HashSet<>(reopenedWalker.toObjectIds(reopenedWalker.reachable(c2))));
+        // 类型随位置一起重新编号
+        assertTrue(index.isCommit(index.findPosition(ObjectId.fromString(c2))));
+        assertFalse(index.isCommit(index.findPosition(ObjectId.fromString(b))));
+    }
+
+    private static String blob(ObjectManager objectManager, String content) throws IOException {
+        return objectManager.write(new ObjectEntity(ObjectEntity.Type.blob, content.getBytes()));
+    }
+
+    /**
+     * @param entries name, objectId, isTree依次排列
+     */
+    private static String tree(ObjectManager objectManager, Object... entries) throws IOException {
+        TreeObjectData treeObjectData = new TreeObjectData();
+        for (int i = 0; i < entries.length; i += 3) {
+            ObjectEntity.Type type = (Boolean) entries[i + 2] ? ObjectEntity.Type.tree : ObjectEntity.Type.blob;
+            TreeObjectData.TreeEntry entry = new TreeObjectData.TreeEntry();
+            entry.setName((String) entries[i]);
+            entry.setObjectId((String) entries[i + 1]);
+            entry.setType(type);
+            entry.setMode(ObjectUtils.getModeByType(type));
+            treeObjectData.getEntries().add(entry);
+        }
+        return objectManager.write(new ObjectEntity(ObjectEntity.Type.tree, treeObjectData.toBytes()));
+    }
+
+    private static String commit(ObjectManager objectManager, String tree, String parent) throws IOException {
+        CommitObjectData commitObjectData = new CommitObjectData();
+        commitObjectData.setTree(tree);
+        commitObjectData.addParent(parent);
+        CommitObjectData.User user = new CommitObjectData.User();
+        user.setName("beyond");
+        user.setEmail("beyond@example.com");
+        commitObjectData.setAuthor(user);
+        commitObjectData.setCommitter(user);
+        commitObjectData.setCommitTime(1650000000000L);
+        commitObjectData.setMessage("m");
+        return objectManager.write(new ObjectEntity(ObjectEntity.Type.commit, commitObjectData.toBytes()));
+    }
+}
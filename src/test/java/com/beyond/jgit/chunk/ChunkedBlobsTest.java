@@ -0,0 +1,116 @@
+package com.beyond.jgit.chunk;
+
+import com.beyond.jgit.GitLite;
+import com.beyond.jgit.GitLiteConfig;
+import com.beyond.jgit.TestConfigs;
+import com.beyond.jgit.object.ObjectManager;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ChunkedBlobsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void insertOnlyChangesNearbyChunks() throws IOException {
+        FastCdcChunker chunker = new FastCdcChunker(8192);
+        byte[] data = new byte[4 * 1024 * 1024];
+        new Random(7).nextBytes(data);
+        byte[] changed = new byte[data.length + 10];
+        int at = data.length / 2;
+        System.arraycopy(data, 0, changed, 0, at);
+        System.arraycopy("new line\n\n".getBytes(), 0, changed, at, 10);
+        System.arraycopy(data, at, changed, at + 10, data.length - at);
+
+        List<byte[]> before = split(chunker, data);
+        List<byte[]> after = split(chunker, changed);
+        Set<String> beforeChunks = new HashSet<>();
+        for (byte[] chunk : before) {
+            assertTrue(chunk.length <= chunker.getMaxSize());
+            beforeChunks.add(new String(chunk, "ISO-8859-1"));
+        }
+        int shared = 0;
+        for (byte[] chunk : after) {
+            if (beforeChunks.contains(new String(chunk, "ISO-8859-1"))) {
+                shared++;
+            }
+        }
+        assertTrue(after.size() - shared <= 2);
+        assertArrayEquals(changed, concat(after));
+    }
+
+    @Test
+    public void commitCheckoutAndGcChunkedFile() throws IOException {
+        String local = folder.getRoot().getAbsolutePath();
+        GitLiteConfig config = TestConfigs.config(local);
+        config.setChunkedBlobThreshold(64 * 1024);
+        config.setChunkAverageSize(4096);
+        config.setGcPruneExpire(0);
+        GitLite gitLite = new GitLite(config);
+        gitLite.init();
+
+        byte[] v1 = new byte[512 * 1024];
+        new Random(3).nextBytes(v1);
+        byte[] v2 = v1.clone();
+        v2[300 * 1024] ^= 1;
+        File big = new File(local, "data/big.bin");
+        FileUtils.writeByteArrayToFile(big, v1);
+        FileUtils.writeByteArrayToFile(new File(local, "small.txt"), "small".getBytes());
+        gitLite.add();
+        gitLite.commit("c1");
+        String c1 = gitLite.findLocalCommitObjectId();
+        int objectsAfterC1 = gitLite.getObjectManager().listLooseObjectIds().size();
+
+        FileUtils.writeByteArrayToFile(big, v2);
+        gitLite.add();
+        gitLite.commit("c2");
+        String c2 = gitLite.findLocalCommitObjectId();
+        // 新增: 1-2个块, manifest, 2个tree, commit
+        int added = gitLite.getObjectManager().listLooseObjectIds().size() - objectsAfterC1;
+        assertTrue("added " + added, added <= 6);
+
+        gitLite.gc();
+        ObjectManager objectManager = new ObjectManager(config.getObjectsDir(), config);
+        assertEquals(0, objectManager.listLooseObjectIds().size());
+
+        gitLite.checkout(c1);
+        assertArrayEquals(v1, FileUtils.readFileToByteArray(big));
+        FileUtils.deleteQuietly(big);
+        gitLite.checkout(c2);
+        assertArrayEquals(v2, FileUtils.readFileToByteArray(big));
+        assertEquals("small", FileUtils.readFileToString(new File(local, "small.txt"), "UTF-8"));
+    }
+
+    private static List<byte[]> split(FastCdcChunker chunker, byte[] data) throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        chunker.split(new ByteArrayInputStream(data), (buf, offset, length) -> {
+            byte[] chunk = new byte[length];
+            System.arraycopy(buf, offset, chunk, 0, length);
+            chunks.add(chunk);
+        });
+        return chunks;
+    }
+
+    private static byte[] concat(List<byte[]> chunks) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] chunk : chunks) {
+            out.write(chunk, 0, chunk.length);
+        }
+        return out.toByteArray();
+    }
+}
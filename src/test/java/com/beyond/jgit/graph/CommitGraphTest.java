@@ -0,0 +1,83 @@
+package com.beyond.jgit.graph;
+
+import com.beyond.jgit.GitLite;
+import com.beyond.jgit.object.ObjectEntity;
+import com.beyond.jgit.object.ObjectManager;
+import com.beyond.jgit.object.data.CommitHeader;
+import com.beyond.jgit.object.data.CommitObjectData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class CommitGraphTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private long time = 1650000000000L;
+
+    @Test
+    public void incrementalUpdateAndMergeBase() throws IOException {
+        String objectsDir = new File(folder.getRoot(), "objects").getAbsolutePath();
+        ObjectManager objectManager = new ObjectManager(objectsDir);
+
+        //      c1 - c2 - c3 ------ m
+        //             \           /
+        //              b1 - b2 --+
+        String c1 = commit(objectManager, GitLite.EMPTY_OBJECT_ID);
+        String c2 = commit(objectManager, c1);
+        String c3 = commit(objectManager, c2);
+        String b1 = commit(objectManager, c2);
+        objectManager.updateCommitGraph(c3);
+        assertEquals(3, objectManager.getCommitGraph().getCommitCount());
+
+        String b2 = commit(objectManager, b1);
+        String m = commit(objectManager, c3, b2, b1);
+        objectManager.updateCommitGraph(m);
+        CommitGraph graph = objectManager.getCommitGraph();
+        assertEquals(6, graph.getCommitCount());
+        assertEquals(1, graph.getGeneration(graph.findPosition(c1)));
+        assertEquals(3, graph.getGeneration(graph.findPosition(c3)));
+        assertEquals(5, graph.getGeneration(graph.findPosition(m)));
+
+        // 重新加载文件, 与直接解析commit object的结果一致
+        ObjectManager reopened = new ObjectManager(objectsDir);
+        CommitGraph loaded = reopened.getCommitGraph();
+        assertEquals(6, loaded.getCommitCount());
+        for (String id : new String[]{c1, c2, c3, b1, b2, m}) {
+            CommitHeader expected = CommitHeader.parseFrom(objectManager.read(id).getData());
+            assertEquals(expected, loaded.getHeader(loaded.findPosition(id)));
+            assertEquals(expected, reopened.readCommitHeader(id));
+        }
+
+        assertEquals(c2, MergeBase.find(reopened, c3, b2));
+        assertEquals(b2, MergeBase.find(reopened, m, b2));
+        assertEquals(c3, MergeBase.find(reopened, c3, m));
+
+        // 不在graph中的commit回退到读取object
+        String n = commit(objectManager, b2);
+        assertFalse(reopened.getCommitGraph().contains(n));
+        assertEquals(b2, MergeBase.find(reopened, n, m));
+    }
+
+    private String commit(ObjectManager objectManager, String... parents) throws IOException {
+        CommitObjectData commitObjectData = new CommitObjectData();
+        commitObjectData.setTree(objectManager.write(new ObjectEntity(ObjectEntity.Type.tree, new byte[0])));
+        for (String parent : parents) {
+            commitObjectData.addParent(parent);
+        }
+        CommitObjectData.User user = new CommitObjectData.User();
+        user.setName("beyond");
+        user.setEmail("beyond@example.com");
+        commitObjectData.setAuthor(user);
+        commitObjectData.setCommitter(user);
+        commitObjectData.setCommitTime(time += 1000);
+        commitObjectData.setMessage("m");
+        return objectManager.write(new ObjectEntity(ObjectEntity.Type.commit, commitObjectData.toBytes()));
+    }
+}
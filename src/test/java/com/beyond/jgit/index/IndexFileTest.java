@@ -0,0 +1,77 @@
+package com.beyond.jgit.index;
+
+import com.beyond.jgit.object.ObjectEntity;
+import com.beyond.jgit.util.JsonUtils;
+import com.beyond.jgit.util.ObjectUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class IndexFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void saveAndLookup() throws IOException {
+        Index index = new Index();
+        for (String path : new String[]{"a.txt", "d/b.txt", "d/e/文件.txt", "z"}) {
+            index.getEntries().add(entry(path, Index.Entry.Flag.NONE));
+        }
+        index.getEntries().add(entry("big.bin", Index.Entry.Flag.CHUNKED));
+        String indexPath = new File(folder.getRoot(), "index").getAbsolutePath();
+        new IndexManager(indexPath).save(index);
+
+        IndexFile indexFile = IndexFile.open(new File(indexPath));
+        assertEquals(5, indexFile.getEntryCount());
+        assertEquals("a.txt", indexFile.getPath(0));
+        assertEquals(entry("d/e/文件.txt", Index.Entry.Flag.NONE), indexFile.findEntry("d/e/文件.txt"));
+        assertEquals(Index.Entry.Flag.CHUNKED, indexFile.findEntry("big.bin").getFlag());
+        assertNull(indexFile.findEntry("d"));
+        assertEquals(index, IndexManager.parseIndex(indexPath));
+    }
+
+    @Test
+    public void migrateFromJson() throws IOException {
+        Index index = new Index();
+        index.getEntries().add(entry("a.txt", Index.Entry.Flag.NONE));
+        File file = new File(folder.getRoot(), "index");
+        FileUtils.writeByteArrayToFile(file, JsonUtils.writeValueAsBytes(index));
+        assertFalse(IndexFile.isIndexFile(file));
+
+        IndexManager indexManager = new IndexManager(file.getAbsolutePath());
+        Index parsed = IndexManager.parseIndex(file.getAbsolutePath());
+        assertEquals(index, parsed);
+        indexManager.save(parsed);
+        assertTrue(IndexFile.isIndexFile(file));
+        assertEquals(index, IndexManager.parseIndex(file.getAbsolutePath()));
+    }
+
+    @Test(expected = IOException.class)
+    public void detectCorruption() throws IOException {
+        Index index = new Index();
+        index.getEntries().add(entry("a.txt", Index.Entry.Flag.NONE));
+        File file = new File(folder.getRoot(), "index");
+        IndexFile.write(file, index);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(14);
+            randomAccessFile.write('b');
+        }
+        IndexFile.open(file);
+    }
+
+    private static Index.Entry entry(String path, Index.Entry.Flag flag) {
+        Index.Entry entry = new Index.Entry();
+        entry.setPath(path);
+        entry.setObjectId(ObjectUtils.sha1hash(ObjectEntity.Type.blob, path.getBytes()));
+        entry.setFlag(flag);
+        return entry;
+    }
+}
@@ -0,0 +1,76 @@
+package com.beyond.jgit.index;
+
+import com.beyond.jgit.GitLite;
+import com.beyond.jgit.GitLiteConfig;
+import com.beyond.jgit.TestConfigs;
+import com.beyond.jgit.object.ObjectEntity;
+import com.beyond.jgit.util.ObjectUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class StatCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void skipHashWhenStatUnchanged() throws IOException {
+        String local = folder.getRoot().getAbsolutePath();
+        GitLiteConfig config = TestConfigs.config(local);
+        GitLite gitLite = new GitLite(config);
+        gitLite.init();
+        File file = new File(local, "a.txt");
+        FileUtils.write(file, "a1", StandardCharsets.UTF_8);
+        long mtime = System.currentTimeMillis() - 10_000;
+        file.setLastModified(mtime);
+        gitLite.add();
+        Index.Entry entry = IndexManager.parseIndex(config.getIndexPath()).getEntries().get(0);
+        assertEquals(2, entry.getSize());
+        assertNotEquals(0, entry.getMtime());
+
+        // 内容变了但stat相同, 说明没有重新hash
+        FileUtils.write(file, "a2", StandardCharsets.UTF_8);
+        file.setLastModified(mtime);
+        gitLite.add();
+        assertEquals(blobId("a1"), IndexManager.parseIndex(config.getIndexPath()).getEntries().get(0).getObjectId());
+        Index localIndex = Index.generateFromLocalDir(local, null, 0, IndexManager.openStatCache(config.getIndexPath()));
+        assertEquals(blobId("a1"), localIndex.getEntries().get(0).getObjectId());
+
+        // mtime变化后重新hash
+        file.setLastModified(mtime + 1000);
+        gitLite.add();
+        assertEquals(blobId("a2"), IndexManager.parseIndex(config.getIndexPath()).getEntries().get(0).getObjectId());
+    }
+
+    @Test
+    public void rehashRacyEntries() throws IOException {
+        String local = folder.getRoot().getAbsolutePath();
+        GitLiteConfig config = TestConfigs.config(local);
+        GitLite gitLite = new GitLite(config);
+        gitLite.init();
+        File file = new File(local, "a.txt");
+        FileUtils.write(file, "a1", StandardCharsets.UTF_8);
+        // 不早于index写入时间的stat不保存
+        long mtime = System.currentTimeMillis() + 60_000;
+        file.setLastModified(mtime);
+        gitLite.add();
+        assertEquals(0, IndexManager.parseIndex(config.getIndexPath()).getEntries().get(0).getMtime());
+
+        FileUtils.write(file, "a2", StandardCharsets.UTF_8);
+        file.setLastModified(mtime);
+        gitLite.add();
+        assertEquals(blobId("a2"), IndexManager.parseIndex(config.getIndexPath()).getEntries().get(0).getObjectId());
+    }
+
+    private static String blobId(String content) {
+        return ObjectUtils.sha1hash(ObjectEntity.Type.blob, content.getBytes());
+    }
+}
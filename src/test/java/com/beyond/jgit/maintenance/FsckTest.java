@@ -0,0 +1,91 @@
+package com.beyond.jgit.maintenance;
+
+import com.beyond.jgit.GitLite;
+import com.beyond.jgit.GitLiteConfig;
+import com.beyond.jgit.TestConfigs;
+import com.beyond.jgit.object.ObjectEntity;
+import com.beyond.jgit.util.ObjectUtils;
+import com.beyond.jgit.util.ZlibCompression;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class FsckTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void detectCorruptAndMissingObjects() throws IOException {
+        String local = folder.getRoot().getAbsolutePath();
+        GitLiteConfig config = TestConfigs.config(local);
+        config.setFsckThreads(2);
+        GitLite gitLite = new GitLite(config);
+        gitLite.init();
+        FileUtils.write(new File(local, "a.txt"), "a1", StandardCharsets.UTF_8);
+        FileUtils.write(new File(local, "d/b.txt"), "b1", StandardCharsets.UTF_8);
+        gitLite.add();
+        gitLite.commit("c1");
+        gitLite.repack();
+        FileUtils.write(new File(local, "a.txt"), "a2", StandardCharsets.UTF_8);
+        FileUtils.write(new File(local, "c.txt"), "c1", StandardCharsets.UTF_8);
+        gitLite.add();
+        gitLite.commit("c2");
+
+        FsckResult result = gitLite.fsck();
+        assertTrue(result.getProblems().toString(), result.isOk());
+        assertTrue(result.getCheckedObjects() >= 9);
+
+        // a2的loose文件内容被替换, c1的blob丢失, 新增一个指向不存在commit的ref
+        String a2 = ObjectUtils.sha1hash(ObjectEntity.Type.blob, "a2".getBytes());
+        FileUtils.writeByteArrayToFile(ObjectUtils.getObjectFile(config.getObjectsDir(), a2),
+                ZlibCompression.compressBytes(ObjectUtils.buildObjectBytes(ObjectEntity.Type.blob, "xx".getBytes())));
+        String c1 = ObjectUtils.sha1hash(ObjectEntity.Type.blob, "c1".getBytes());
+        FileUtils.forceDelete(ObjectUtils.getObjectFile(config.getObjectsDir(), c1));
+        FileUtils.write(new File(config.getRefsHeadsDir(), "broken"), "0123456789012345678901234567890123456789", StandardCharsets.UTF_8);
+
+        result = new GitLite(config).fsck();
+        assertFalse(result.isOk());
+        assertEquals(1, result.getCorruptObjects());
+        assertEquals(1, result.getMissingObjects());
+        assertEquals(1, result.getBadRefs());
+    }
+
+    @Test
+    public void checkAppendLogBackend() throws IOException {
+        String local = folder.getRoot().getAbsolutePath();
+        GitLiteConfig config = TestConfigs.config(local);
+        config.setObjectStorage(GitLiteConfig.ObjectStorage.APPEND_LOG);
+        // 不压缩, 可以在log文件中找到blob的内容
+        config.setLooseCompressionLevel(0);
+        GitLite gitLite = new GitLite(config);
+        gitLite.init();
+        String content = "content of a blob in the append log";
+        FileUtils.write(new File(local, "a.txt"), content, StandardCharsets.UTF_8);
+        gitLite.add();
+        gitLite.commit("c1");
+
+        FsckResult result = gitLite.fsck();
+        assertTrue(result.getProblems().toString(), result.isOk());
+        assertEquals(3, result.getCheckedObjects());
+        gitLite.getObjectManager().close();
+
+        File logFile = new File(config.getObjectsDir(), "objects.log");
+        byte[] data = FileUtils.readFileToByteArray(logFile);
+        int position = new String(data, StandardCharsets.ISO_8859_1).indexOf(content);
+        assertTrue(position > 0);
+        data[position] ^= 1;
+        FileUtils.writeByteArrayToFile(logFile, data);
+
+        result = new GitLite(config).fsck();
+        assertFalse(result.isOk());
+        assertEquals(1, result.getCorruptObjects());
+    }
+}
@@ -0,0 +1,76 @@
+package com.beyond.jgit.maintenance;
+
+import com.beyond.jgit.GitLite;
+import com.beyond.jgit.GitLiteConfig;
+import com.beyond.jgit.TestConfigs;
+import com.beyond.jgit.object.ObjectEntity;
+import com.beyond.jgit.object.ObjectManager;
+import com.beyond.jgit.util.ObjectUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class GarbageCollectorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void pruneUnreachableAfterGracePeriod() throws IOException {
+        String local = folder.getRoot().getAbsolutePath();
+        GitLiteConfig config = TestConfigs.config(local);
+        GitLite gitLite = new GitLite(config);
+        gitLite.init();
+        FileUtils.write(new File(local, "a.txt"), "a1", StandardCharsets.UTF_8);
+        FileUtils.write(new File(local, "d/b.txt"), "b1", StandardCharsets.UTF_8);
+        gitLite.add();
+        gitLite.commit("c1");
+        gitLite.repack();
+        FileUtils.write(new File(local, "a.txt"), "a2", StandardCharsets.UTF_8);
+        gitLite.add();
+        gitLite.commit("c2");
+
+        long old = System.currentTimeMillis() - config.getGcPruneExpire() - 60_000;
+        String oldGarbage = write(config, "old garbage", old);
+        String freshGarbage = write(config, "fresh garbage", System.currentTimeMillis());
+        // 只被index引用的blob
+        FileUtils.write(new File(local, "staged.txt"), "staged", StandardCharsets.UTF_8);
+        gitLite.add();
+        File stagedObject = ObjectUtils.getObjectFile(config.getObjectsDir(), ObjectUtils.sha1hash(ObjectEntity.Type.blob, "staged".getBytes()));
+        stagedObject.setLastModified(old);
+
+        GcResult result = gitLite.gc();
+        assertEquals(1, result.getPrunedObjects());
+        assertEquals(1, result.getRemovedPacks());
+
+        ObjectManager objectManager = new ObjectManager(config.getObjectsDir(), config);
+        assertFalse(objectManager.exists(oldGarbage));
+        assertTrue(objectManager.exists(freshGarbage));
+        assertEquals(1, objectManager.getPacks().size());
+        // 保护期内的不可达object保留为loose
+        assertEquals(1, objectManager.listLooseObjectIds().size());
+
+        String head = gitLite.findLocalCommitObjectId();
+        FileUtils.deleteQuietly(new File(local, "a.txt"));
+        gitLite.checkout(head);
+        assertEquals("a2", FileUtils.readFileToString(new File(local, "a.txt"), StandardCharsets.UTF_8));
+        assertEquals("b1", FileUtils.readFileToString(new File(local, "d/b.txt"), StandardCharsets.UTF_8));
+        // 历史中的commit也可达
+        String parent = objectManager.readCommitHeader(head).getParents().get(0);
+        assertTrue(objectManager.exists(objectManager.readCommitHeader(parent).getTree()));
+    }
+
+    private static String write(GitLiteConfig config, String content, long mtime) throws IOException {
+        ObjectManager objectManager = new ObjectManager(config.getObjectsDir(), config);
+        String objectId = objectManager.write(new ObjectEntity(ObjectEntity.Type.blob, content.getBytes()));
+        ObjectUtils.getObjectFile(config.getObjectsDir(), objectId).setLastModified(mtime);
+        return objectId;
+    }
+}
@@ -0,0 +1,90 @@
+package com.beyond.jgit.maintenance;
+
+import com.beyond.jgit.GitLite;
+import com.beyond.jgit.GitLiteConfig;
+import com.beyond.jgit.TestConfigs;
+import com.beyond.jgit.object.ObjectManager;
+import com.beyond.jgit.util.PathUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class MaintenanceSchedulerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void packLooseObjectsWhenIdle() throws IOException {
+        String local = folder.getRoot().getAbsolutePath();
+        GitLiteConfig config = TestConfigs.config(local);
+        config.setMaintenanceLooseObjectLimit(3);
+        config.setMaintenanceRepackBatchSize(2);
+        config.setMaintenanceGcInterval(0);
+        config.setMaintenanceIdleTime(60_000);
+        GitLite gitLite = new GitLite(config);
+        gitLite.init();
+        FileUtils.write(new File(local, "a.txt"), "a1", StandardCharsets.UTF_8);
+        FileUtils.write(new File(local, "d/b.txt"), "b1", StandardCharsets.UTF_8);
+        gitLite.add();
+        gitLite.commit("c1");
+        String head = gitLite.findLocalCommitObjectId();
+        FileUtils.deleteQuietly(new File(config.getObjectsDir(), PathUtils.concat("info", "commit-graph")));
+
+        // 刚提交过, 不空闲: 只更新commit-graph
+        MaintenanceScheduler scheduler = new MaintenanceScheduler(new GitLite(config));
+        scheduler.runPendingTasks();
+        ObjectManager objectManager = new ObjectManager(config.getObjectsDir(), config);
+        assertTrue(objectManager.getCommitGraph().contains(head));
+        assertEquals(0, objectManager.getPacks().size());
+        assertEquals(5, objectManager.listLooseObjectIds().size());
+
+        config.setMaintenanceIdleTime(0);
+        scheduler.runPendingTasks();
+        scheduler.runPendingTasks();
+        // 每次最多打包2个, 剩余1个低于阈值
+        objectManager = new ObjectManager(config.getObjectsDir(), config);
+        assertEquals(2, objectManager.getPacks().size());
+        assertEquals(1, objectManager.listLooseObjectIds().size());
+        assertTrue(objectManager.exists(head));
+    }
+
+    @Test
+    public void mergeSmallPacksWithinLimit() throws IOException {
+        String local = folder.getRoot().getAbsolutePath();
+        GitLiteConfig config = TestConfigs.config(local);
+        config.setMaintenancePackLimit(1);
+        config.setMaintenanceGcInterval(0);
+        config.setMaintenanceIdleTime(0);
+        GitLite gitLite = new GitLite(config);
+        gitLite.init();
+        for (int i = 0; i < 3; i++) {
+            FileUtils.write(new File(local, "a.txt"), "a" + i, StandardCharsets.UTF_8);
+            gitLite.add();
+            gitLite.commit("c" + i);
+            gitLite.getObjectManager().packLooseObjects();
+        }
+        String head = gitLite.findLocalCommitObjectId();
+        ObjectManager objectManager = gitLite.getObjectManager();
+        assertEquals(3, objectManager.getPacks().size());
+
+        // 最小的两个pack也超过限制时不合并
+        config.setMaintenanceRepackMaxBytes(1);
+        new MaintenanceScheduler(gitLite).runPendingTasks();
+        assertEquals(3, objectManager.getPacks().size());
+
+        config.setMaintenanceRepackMaxBytes(1024 * 1024);
+        new MaintenanceScheduler(gitLite).runPendingTasks();
+        objectManager = new ObjectManager(config.getObjectsDir(), config);
+        assertEquals(1, objectManager.getPacks().size());
+        assertTrue(new GitLite(config).fsck().isOk());
+        assertTrue(objectManager.exists(head));
+    }
+}
@@ -0,0 +1,36 @@
+package com.beyond.jgit.object;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ObjectCacheTest {
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        ObjectCache cache = new ObjectCache(3 * (1000 + 160));
+        for (int i = 0; i < 3; i++) {
+            cache.put("id" + i, new ObjectEntity(ObjectEntity.Type.blob, new byte[1000]));
+        }
+        assertNotNull(cache.get("id0"));
+
+        cache.put("id3", new ObjectEntity(ObjectEntity.Type.blob, new byte[1000]));
+        assertNull(cache.get("id1"));
+        assertNotNull(cache.get("id0"));
+        assertNotNull(cache.get("id3"));
+
+        assertEquals(3, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertTrue(cache.getCurrentBytes() <= cache.getMaxBytes());
+    }
+
+    @Test
+    public void skipObjectLargerThanCache() {
+        ObjectCache cache = new ObjectCache(100);
+        cache.put("big", new ObjectEntity(ObjectEntity.Type.blob, new byte[1000]));
+        assertNull(cache.get("big"));
+        assertEquals(0, cache.getCurrentBytes());
+    }
+}
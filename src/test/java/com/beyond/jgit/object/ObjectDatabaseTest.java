@@ -0,0 +1,135 @@
+package com.beyond.jgit.object;
+
+import com.beyond.jgit.GitLite;
+import com.beyond.jgit.GitLiteConfig;
+import com.beyond.jgit.TestConfigs;
+import com.beyond.jgit.util.ObjectUtils;
+import com.beyond.jgit.util.ZlibCompression;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ObjectDatabaseTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readWriteAllBackends() throws IOException {
+        verifyReadWrite(new ObjectDb(folder.newFolder("loose").getAbsolutePath()));
+        verifyReadWrite(new InMemoryObjectDatabase());
+        verifyReadWrite(new AppendLogObjectDatabase(new File(folder.getRoot(), "log/objects.log"), 1, true));
+    }
+
+    private void verifyReadWrite(ObjectDatabase objectDatabase) throws IOException {
+        try (ObjectDatabase db = objectDatabase) {
+            String small = db.write(new ObjectEntity(ObjectEntity.Type.blob, "hello".getBytes()).toBytes());
+            assertEquals(ObjectUtils.sha1hash(ObjectEntity.Type.blob, "hello".getBytes()), small);
+            assertEquals(small, db.write(new ObjectEntity(ObjectEntity.Type.blob, "hello".getBytes()).toBytes()));
+            assertArrayEquals("hello".getBytes(), db.readObject(small).getData());
+
+            byte[] large = new byte[3 * 1024 * 1024];
+            new Random(1).nextBytes(large);
+            String largeId = db.write(ObjectEntity.Type.blob, large.length, new ByteArrayInputStream(large));
+            assertEquals(ObjectUtils.sha1hash(ObjectEntity.Type.blob, large), largeId);
+            assertEquals(largeId, db.write(ObjectEntity.Type.blob, large.length, new ByteArrayInputStream(large)));
+            ObjectLoader loader = db.open(largeId);
+            assertEquals(ObjectEntity.Type.blob, loader.getType());
+            assertEquals(large.length, loader.getSize());
+            assertArrayEquals(large, loader.getBytes());
+
+            try {
+                db.write(ObjectEntity.Type.blob, 10, new ByteArrayInputStream(new byte[5]));
+                fail();
+            } catch (IOException e) {
+                // expected
+            }
+            assertTrue(db.exists(small));
+            assertFalse(db.exists(ObjectUtils.sha1hash("missing".getBytes())));
+            try {
+                db.readObject(ObjectUtils.sha1hash("missing".getBytes()));
+                fail();
+            } catch (FileNotFoundException e) {
+                // expected
+            }
+            db.sync();
+        }
+    }
+
+    @Test
+    public void writeTempObjectFileForUpload() throws IOException {
+        ObjectManager objectManager = new ObjectManager(folder.getRoot().getAbsolutePath(), new GitLiteConfig(), new InMemoryObjectDatabase());
+        byte[] bytes = new ObjectEntity(ObjectEntity.Type.blob, "hello".getBytes()).toBytes();
+        String objectId = objectManager.write(ObjectEntity.parseFrom(bytes));
+        assertNull(objectManager.findLooseObjectFile(objectId));
+        File tmpFile = objectManager.writeTempObjectFile(objectId);
+        assertArrayEquals(bytes, ZlibCompression.decompressBytes(FileUtils.readFileToByteArray(tmpFile)));
+        assertTrue(tmpFile.delete());
+    }
+
+    @Test
+    public void appendLogReopenTruncatesIncompleteRecord() throws IOException {
+        File file = new File(folder.getRoot(), "objects.log");
+        AppendLogObjectDatabase db = new AppendLogObjectDatabase(file, 1, false);
+        String a = db.write(new ObjectEntity(ObjectEntity.Type.blob, "a".getBytes()).toBytes());
+        String b = db.write(new ObjectEntity(ObjectEntity.Type.blob, "b".getBytes()).toBytes());
+        db.close();
+        long length = file.length();
+        // 模拟写入中断: 只写了一半的record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(length);
+            raf.write(ObjectId.fromString(a).toRaw());
+            raf.writeInt(100);
+            raf.write(new byte[10]);
+        }
+
+        db = new AppendLogObjectDatabase(file, 1, false);
+        assertEquals(2, db.size());
+        assertEquals(length, file.length());
+        assertArrayEquals("b".getBytes(), db.readObject(b).getData());
+        String c = db.write(new ObjectEntity(ObjectEntity.Type.blob, "c".getBytes()).toBytes());
+        db.close();
+
+        db = new AppendLogObjectDatabase(file, 1, false);
+        assertEquals(3, db.size());
+        assertArrayEquals("c".getBytes(), db.readObject(c).getData());
+        db.close();
+    }
+
+    @Test
+    public void commitAndCheckoutWithAppendLog() throws IOException {
+        String local = folder.getRoot().getAbsolutePath();
+        GitLiteConfig config = TestConfigs.config(local);
+        config.setObjectStorage(GitLiteConfig.ObjectStorage.APPEND_LOG);
+
+        GitLite gitLite = new GitLite(config);
+        gitLite.init();
+        FileUtils.write(new File(local, "a.txt"), "a1", StandardCharsets.UTF_8);
+        FileUtils.write(new File(local, "d/b.txt"), "b1", StandardCharsets.UTF_8);
+        gitLite.add();
+        gitLite.commit("c1");
+        String head = gitLite.findLocalCommitObjectId();
+        gitLite.getObjectManager().close();
+
+        // 没有loose文件
+        assertTrue(new ObjectManager(config.getObjectsDir()).listLooseObjectIds().isEmpty());
+        FileUtils.deleteQuietly(new File(local, "a.txt"));
+        FileUtils.deleteQuietly(new File(local, "d"));
+        GitLite reopened = new GitLite(config);
+        reopened.checkout(head);
+        assertEquals("a1", FileUtils.readFileToString(new File(local, "a.txt"), StandardCharsets.UTF_8));
+        assertEquals("b1", FileUtils.readFileToString(new File(local, "d/b.txt"), StandardCharsets.UTF_8));
+        reopened.getObjectManager().close();
+    }
+}
@@ -0,0 +1,254 @@
+package com.beyond.jgit.object;
+
+import com.beyond.jgit.GitLiteConfig;
+import com.beyond.jgit.pack.PackFile;
+import com.beyond.jgit.util.ObjectUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ObjectDbTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readFromPack() throws IOException {
+        readFromPack(new GitLiteConfig());
+    }
+
+    @Test
+    public void readAcrossSmallWindows() throws IOException {
+        GitLiteConfig config = new GitLiteConfig();
+        config.setPackedGitWindowSize(4096);
+        config.setPackedGitOpenWindows(2);
+        readFromPack(config);
+    }
+
+    @Test
+    public void writeBlobStreaming() throws IOException {
+        ObjectDb objectDb = new ObjectDb(new File(folder.getRoot(), "objects").getAbsolutePath());
+        byte[] content = new byte[300_000];
+        new Random(3).nextBytes(content);
+        File file = folder.newFile("blob.bin");
+        FileUtils.writeByteArrayToFile(file, content);
+
+        String objectId = objectDb.writeBlob(file);
+        assertEquals(ObjectUtils.sha1hash(ObjectEntity.Type.blob, content), objectId);
+        assertEquals(ObjectUtils.sha1hash(ObjectEntity.Type.blob, file), objectId);
+        ObjectEntity objectEntity = objectDb.readObject(objectId);
+        assertEquals(ObjectEntity.Type.blob, objectEntity.getType());
+        assertArrayEquals(content, objectEntity.getData());
+
+        // 临时文件已被rename
+        assertEquals(1, objectDb.listLooseObjectIds().size());
+        assertEquals(0, new File(folder.getRoot(), "objects").listFiles(File::isFile).length);
+    }
+
+    @Test
+    public void storeIncompressibleUncompressed() throws IOException {
+        String objectsDir = new File(folder.getRoot(), "objects").getAbsolutePath();
+        ObjectDb objectDb = new ObjectDb(objectsDir);
+        byte[] random = new byte[200_000];
+        new Random(5).nextBytes(random);
+        File file = folder.newFile("random.bin");
+        FileUtils.writeByteArrayToFile(file, random);
+        byte[] text = new byte[200_000];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) ('a' + i % 7);
+        }
+
+        String randomId = objectDb.writeBlob(file);
+        String smallRandomId = objectDb.write(ObjectUtils.buildObjectBytes(ObjectEntity.Type.blob, Arrays.copyOf(random, 4096)));
+        String textId = objectDb.write(ObjectUtils.buildObjectBytes(ObjectEntity.Type.blob, text));
+
+        // level 0的zlib头
+        byte[] randomFile = FileUtils.readFileToByteArray(ObjectUtils.getObjectFile(objectsDir, randomId));
+        assertEquals(0x01, randomFile[1]);
+        assertTrue(randomFile.length > random.length);
+        assertTrue(ObjectUtils.getObjectFile(objectsDir, textId).length() < text.length / 10);
+        assertArrayEquals(random, objectDb.readObject(randomId).getData());
+        assertArrayEquals(Arrays.copyOf(random, 4096), objectDb.readObject(smallRandomId).getData());
+        assertArrayEquals(text, objectDb.readObject(textId).getData());
+
+        AdaptiveCompression.Stats stats = objectDb.getCompressionStats().get(ObjectEntity.Type.blob);
+        assertEquals(2, stats.getStoredObjects());
+        assertEquals(1, stats.getCompressedObjects());
+
+        // 打包后仍然可读, 统计不重复计入
+        objectDb.packLooseObjects();
+        assertArrayEquals(random, objectDb.readObject(randomId).getData());
+        assertArrayEquals(text, objectDb.readObject(textId).getData());
+        stats = objectDb.getCompressionStats().get(ObjectEntity.Type.blob);
+        assertEquals(2, stats.getStoredObjects());
+        assertEquals(1, stats.getCompressedObjects());
+    }
+
+    @Test
+    public void skipWriteWhenExists() throws IOException {
+        ObjectDb objectDb = new ObjectDb(folder.getRoot().getAbsolutePath());
+        byte[] bytes = ObjectUtils.buildObjectBytes(ObjectEntity.Type.blob, "hello".getBytes());
+        String objectId = objectDb.write(bytes);
+        File file = ObjectUtils.getObjectFile(folder.getRoot().getAbsolutePath(), objectId);
+        // 临时文件已被rename
+        assertEquals(0, folder.getRoot().listFiles(File::isFile).length);
+        // mtime较新时不重写也不修改
+        long recent = (System.currentTimeMillis() - 10 * 60 * 1000) / 1000 * 1000;
+        assertTrue(file.setLastModified(recent));
+        assertEquals(objectId, objectDb.write(bytes));
+        assertEquals(recent, file.lastModified());
+
+        // mtime很旧时只更新mtime(freshen), 避免被gc当作过期的不可达object
+        assertTrue(file.setLastModified(1000_000L));
+        assertEquals(objectId, objectDb.write(bytes));
+        assertTrue(file.lastModified() > recent);
+        assertTrue(objectDb.exists(objectId));
+        assertFalse(objectDb.exists(ObjectUtils.sha1hash("missing".getBytes())));
+
+        // 新实例从已有的loose object重建过滤器
+        ObjectDb reopened = new ObjectDb(folder.getRoot().getAbsolutePath());
+        assertTrue(reopened.exists(objectId));
+        reopened.packLooseObjects();
+        assertFalse(file.exists());
+        assertTrue(reopened.exists(objectId));
+    }
+
+    @Test
+    public void repackKeepsFreshenedPack() throws IOException {
+        String objectsDir = folder.getRoot().getAbsolutePath();
+        ObjectDb objectDb = new ObjectDb(objectsDir);
+        String reachableId = objectDb.write(ObjectUtils.buildObjectBytes(ObjectEntity.Type.blob, "reachable".getBytes()));
+        String unreachableId = objectDb.write(ObjectUtils.buildObjectBytes(ObjectEntity.Type.blob, "unreachable".getBytes()));
+        objectDb.packLooseObjects();
+        List<PackFile> oldPacks = objectDb.getPacks();
+        assertEquals(1, oldPacks.size());
+
+        // gc标记时pack已过期, 打包期间被freshen
+        long expireTime = System.currentTimeMillis() - 60 * 1000;
+        objectDb.repack(Collections.singletonList(reachableId), oldPacks, expireTime);
+        assertFalse(oldPacks.get(0).getPackFile().exists());
+        assertTrue(ObjectUtils.getObjectFile(objectsDir, unreachableId).exists());
+        assertEquals("unreachable", new String(objectDb.readObject(unreachableId).getData()));
+        assertFalse(ObjectUtils.getObjectFile(objectsDir, reachableId).exists());
+        assertTrue(objectDb.exists(reachableId));
+
+        // 删除前仍是过期的pack, 不可达object直接丢弃
+        String expiredId = objectDb.write(ObjectUtils.buildObjectBytes(ObjectEntity.Type.blob, "expired".getBytes()));
+        assertTrue(objectDb.pruneLooseObject(unreachableId, Long.MAX_VALUE));
+        objectDb.packLooseObjects();
+        List<PackFile> packs = objectDb.getPacks();
+        for (PackFile pack : packs) {
+            assertTrue(pack.getPackFile().setLastModified(1000_000L));
+        }
+        objectDb.repack(Collections.singletonList(reachableId), packs, expireTime);
+        assertFalse(objectDb.exists(expiredId));
+        assertTrue(objectDb.exists(reachableId));
+    }
+
+    @Test
+    public void rewriteWhenPrunedConcurrently() throws IOException {
+        String objectsDir = folder.getRoot().getAbsolutePath();
+        ObjectDb objectDb = new ObjectDb(objectsDir);
+        byte[] bytes = ObjectUtils.buildObjectBytes(ObjectEntity.Type.blob, "hello".getBytes());
+        String objectId = objectDb.write(bytes);
+        objectDb.packLooseObjects();
+        // 另一个进程的gc删除了pack, 本实例的pack列表还没有刷新
+        for (PackFile pack : objectDb.getPacks()) {
+            assertTrue(pack.getPackFile().delete());
+        }
+        assertTrue(objectDb.exists(objectId));
+        assertEquals(objectId, objectDb.write(bytes));
+        assertTrue(ObjectUtils.getObjectFile(objectsDir, objectId).exists());
+    }
+
+    @Test
+    public void syncAfterPacked() throws IOException {
+        GitLiteConfig config = new GitLiteConfig();
+        config.setDurability(GitLiteConfig.Durability.BATCH);
+        ObjectDb objectDb = new ObjectDb(folder.getRoot().getAbsolutePath(), config);
+        String objectId = objectDb.write(ObjectUtils.buildObjectBytes(ObjectEntity.Type.blob, "hello".getBytes()));
+        // 队列中的loose文件已被打包删除
+        objectDb.packLooseObjects(100);
+        objectDb.sync();
+        assertTrue(objectDb.exists(objectId));
+    }
+
+    @Test
+    public void openStreaming() throws IOException {
+        GitLiteConfig config = new GitLiteConfig();
+        config.setPackedGitWindowSize(4096);
+        ObjectDb objectDb = new ObjectDb(folder.getRoot().getAbsolutePath(), config);
+        byte[] base = new byte[100_000];
+        new Random(4).nextBytes(base);
+        byte[] changed = base.clone();
+        changed[500] ^= 1;
+        String baseId = objectDb.write(ObjectUtils.buildObjectBytes(ObjectEntity.Type.blob, base));
+        String changedId = objectDb.write(ObjectUtils.buildObjectBytes(ObjectEntity.Type.blob, changed));
+        assertOpen(objectDb, baseId, base);
+
+        objectDb.packLooseObjects();
+        // 一个是整体存储, 一个是delta
+        assertOpen(objectDb, baseId, base);
+        assertOpen(objectDb, changedId, changed);
+    }
+
+    private static void assertOpen(ObjectDb objectDb, String objectId, byte[] expected) throws IOException {
+        ObjectLoader loader = objectDb.open(objectId);
+        assertEquals(ObjectEntity.Type.blob, loader.getType());
+        assertEquals(expected.length, loader.getSize());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        loader.copyTo(out);
+        assertArrayEquals(expected, out.toByteArray());
+        assertArrayEquals(expected, loader.getBytes());
+    }
+
+    private void readFromPack(GitLiteConfig config) throws IOException {
+        ObjectDb objectDb = new ObjectDb(folder.getRoot().getAbsolutePath(), config);
+        List<byte[]> objects = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < i * 50; j++) {
+                sb.append("line ").append(j).append('\n');
+            }
+            objects.add(ObjectUtils.buildObjectBytes(ObjectEntity.Type.blob, sb.toString().getBytes()));
+        }
+        for (byte[] object : objects) {
+            objectDb.write(object);
+        }
+
+        File packFile = objectDb.packLooseObjects();
+        assertNotNull(packFile);
+        // 每个blob都是下一个的前缀, delta之后pack应远小于原始内容
+        long rawSize = objects.stream().mapToLong(x -> x.length).sum();
+        assertTrue(packFile.length() < rawSize / 20);
+        assertTrue(objectDb.listLooseObjectIds().isEmpty());
+
+        for (byte[] object : objects) {
+            String objectId = ObjectUtils.sha1hash(object);
+            assertTrue(objectDb.exists(objectId));
+            assertArrayEquals(object, objectDb.read(objectId));
+            assertArrayEquals(object, objectDb.readObject(objectId).toBytes());
+        }
+        assertFalse(objectDb.exists(ObjectUtils.sha1hash("missing".getBytes())));
+
+        // 新实例从pack目录加载
+        ObjectDb reopened = new ObjectDb(folder.getRoot().getAbsolutePath(), config);
+        String objectId = ObjectUtils.sha1hash(objects.get(42));
+        assertArrayEquals(objects.get(42), reopened.read(objectId));
+        // 只在pack中的object不解出loose文件
+        assertNull(reopened.findLooseObjectFile(objectId));
+        assertTrue(reopened.listLooseObjectIds().isEmpty());
+    }
+}
@@ -0,0 +1,56 @@
+package com.beyond.jgit.object;
+
+import com.beyond.jgit.util.ObjectUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ObjectIdMapTest {
+
+    @Test
+    public void hexRoundTrip() {
+        String hex = ObjectUtils.sha1hash("hello".getBytes());
+        ObjectId objectId = ObjectId.fromString(hex);
+        assertEquals(hex, objectId.name());
+        assertEquals(hex, ObjectUtils.bytesToHex(objectId.toRaw()));
+        assertEquals(objectId, ObjectId.fromRaw(ObjectUtils.hexToByteArray(hex)));
+        assertEquals(ObjectId.fromString(hex.toUpperCase()), objectId);
+        assertArrayEquals(new byte[]{0x0a, (byte) 0xbc}, ObjectUtils.hexToByteArray("abc"));
+    }
+
+    @Test
+    public void putAndGetWithGrow() {
+        ObjectIdMap<Integer> map = new ObjectIdMap<>(4);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            ids.add(ObjectUtils.sha1hash(String.valueOf(i).getBytes()));
+            assertNull(map.put(ids.get(i), i));
+        }
+        assertEquals(10_000, map.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(Integer.valueOf(i), map.get(ids.get(i)));
+        }
+        assertEquals(Integer.valueOf(0), map.put(ids.get(0), -1));
+        assertEquals(10_000, map.size());
+        assertNull(map.get(ObjectUtils.sha1hash("missing".getBytes())));
+
+        List<String> iterated = new ArrayList<>();
+        map.forEach((objectId, value) -> iterated.add(objectId.name()));
+        Collections.sort(ids);
+        Collections.sort(iterated);
+        assertEquals(ids, iterated);
+    }
+
+    @Test
+    public void compareAsUnsignedBytes() {
+        ObjectId low = ObjectId.fromString("7fffffffffffffffffffffffffffffffffffffff");
+        ObjectId high = ObjectId.fromString("8000000000000000000000000000000000000000");
+        assertTrue(low.compareTo(high) < 0);
+        assertTrue(high.compareTo(low.toRaw(), 0) > 0);
+        assertEquals(0, high.compareTo(high.toRaw(), 0));
+    }
+}
@@ -0,0 +1,55 @@
+package com.beyond.jgit.object;
+
+import com.beyond.jgit.GitLiteConfig;
+import com.beyond.jgit.util.ObjectUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.*;
+
+public class ObjectManagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readAllAsyncKeepsOrder() throws IOException {
+        for (int readThreads : new int[]{1, 4}) {
+            GitLiteConfig config = new GitLiteConfig();
+            config.setReadThreads(readThreads);
+            config.setObjectCacheBytes(0);
+            ObjectManager objectManager = new ObjectManager(folder.newFolder().getAbsolutePath(), config);
+            List<String> objectIds = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                objectIds.add(objectManager.write(new ObjectEntity(ObjectEntity.Type.blob, ("blob" + i).getBytes())));
+            }
+            List<ObjectEntity> objectEntities = objectManager.readAllAsync(objectIds).join();
+            for (int i = 0; i < 100; i++) {
+                assertArrayEquals(("blob" + i).getBytes(), objectEntities.get(i).getData());
+            }
+
+            String missing = ObjectUtils.sha1hash("missing".getBytes());
+            try {
+                objectManager.readAsync(missing).join();
+                fail();
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof FileNotFoundException);
+            }
+            try {
+                objectManager.readAll(Arrays.asList(objectIds.get(0), missing));
+                fail();
+            } catch (FileNotFoundException e) {
+                // expected
+            }
+            objectManager.close();
+        }
+    }
+}
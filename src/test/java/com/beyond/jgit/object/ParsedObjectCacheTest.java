@@ -0,0 +1,81 @@
+package com.beyond.jgit.object;
+
+import com.beyond.jgit.GitLiteConfig;
+import com.beyond.jgit.object.data.CommitHeader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ParsedObjectCacheTest {
+
+    private static final String TREE = "4b825dc642cb6eb9a060e54bf8d69288fbee4904";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        ParsedObjectCache cache = new ParsedObjectCache(2);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        assertEquals("A", cache.get("a", String.class));
+        cache.put("c", "C");
+
+        // b最久未访问, 被淘汰
+        assertEquals(2, cache.getSize());
+        assertNull(cache.get("b", String.class));
+        assertEquals("A", cache.get("a", String.class));
+        assertEquals("C", cache.get("c", String.class));
+        // 类型不匹配视为未命中
+        assertNull(cache.get("a", Integer.class));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void cacheCommitHeader() throws IOException {
+        GitLiteConfig config = new GitLiteConfig();
+        config.setParsedObjectCacheSize(1);
+        ObjectManager objectManager = new ObjectManager(folder.getRoot().getAbsolutePath(), config);
+        String first = objectManager.write(commit(null, 1));
+        String second = objectManager.write(commit(first, 2));
+
+        CommitHeader header = objectManager.readCommitHeader(second);
+        assertSame(header, objectManager.readCommitHeader(second));
+        assertEquals(first, header.getParents().get(0));
+        assertEquals(2000, header.getCommitTime());
+        try {
+            header.getParents().clear();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // 共享的对象不能修改
+        }
+
+        // 超过大小后淘汰, 重新解析
+        objectManager.readCommitHeader(first);
+        ParsedObjectCache cache = objectManager.getParsedObjectCache();
+        assertEquals(1, cache.getSize());
+        assertNotSame(header, objectManager.readCommitHeader(second));
+        assertEquals(header, objectManager.readCommitHeader(second));
+
+        // 完整的commit不缓存, 每次返回新对象
+        assertNotSame(objectManager.readCommit(second), objectManager.readCommit(second));
+    }
+
+    private static ObjectEntity commit(String parent, long seconds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("tree ").append(TREE).append('\n');
+        if (parent != null) {
+            sb.append("parent ").append(parent).append('\n');
+        }
+        sb.append("author a <a@b> ").append(seconds).append(" +0800\n");
+        sb.append("committer a <a@b> ").append(seconds).append(" +0800\n");
+        sb.append('\n').append("message ").append(seconds).append('\n');
+        return new ObjectEntity(ObjectEntity.Type.commit, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
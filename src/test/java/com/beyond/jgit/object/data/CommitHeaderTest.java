@@ -0,0 +1,47 @@
+package com.beyond.jgit.object.data;
+
+import com.beyond.jgit.util.ObjectUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CommitHeaderTest {
+
+    @Test
+    public void sameAsFullParser() {
+        CommitObjectData commitObjectData = new CommitObjectData();
+        commitObjectData.setTree(ObjectUtils.sha1hash("tree".getBytes()));
+        commitObjectData.addParent(ObjectUtils.sha1hash("p1".getBytes()));
+        commitObjectData.addParent(ObjectUtils.sha1hash("p2".getBytes()));
+        CommitObjectData.User user = new CommitObjectData.User();
+        user.setName("beyond");
+        user.setEmail("beyond@example.com");
+        commitObjectData.setAuthor(user);
+        commitObjectData.setCommitter(user);
+        commitObjectData.setCommitTime(1650000000000L);
+        commitObjectData.setMessage("committer fake\nparent fake\n");
+        byte[] bytes = commitObjectData.toBytes();
+
+        CommitHeader header = CommitHeader.parseFrom(bytes);
+        CommitObjectData parsed = CommitObjectData.parseFrom(bytes);
+        assertEquals(parsed.getTree(), header.getTree());
+        assertEquals(parsed.getParents(), header.getParents());
+        assertEquals(parsed.getCommitTime(), header.getCommitTime());
+        assertEquals(1650000000000L, header.getCommitTime());
+    }
+
+    @Test
+    public void rootCommit() {
+        String tree = ObjectUtils.sha1hash("tree".getBytes());
+        byte[] bytes = ("tree " + tree + "\n"
+                + "author a b <a@b> 1 +0800\n"
+                + "committer a b <a@b> 2 +0800\n"
+                + "\nmsg").getBytes();
+        CommitHeader header = CommitHeader.parseFrom(bytes);
+        assertEquals(tree, header.getTree());
+        assertEquals(Arrays.asList(), header.getParents());
+        assertEquals(2000L, header.getCommitTime());
+    }
+}
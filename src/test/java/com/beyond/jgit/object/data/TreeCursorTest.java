@@ -0,0 +1,50 @@
+package com.beyond.jgit.object.data;
+
+import com.beyond.jgit.object.ObjectEntity;
+import com.beyond.jgit.object.ObjectId;
+import com.beyond.jgit.util.ObjectUtils;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TreeCursorTest {
+
+    @Test
+    public void sameAsFullParser() {
+        TreeObjectData treeObjectData = new TreeObjectData();
+        treeObjectData.getEntries().add(entry("100644", ObjectEntity.Type.blob, "a.txt"));
+        treeObjectData.getEntries().add(entry("40000", ObjectEntity.Type.tree, "dir"));
+        treeObjectData.getEntries().add(entry("100644", ObjectEntity.Type.blob, "中文.md"));
+        byte[] bytes = treeObjectData.toBytes();
+
+        List<TreeObjectData.TreeEntry> entries = TreeObjectData.parseFrom(bytes).getEntries();
+        TreeCursor cursor = new TreeCursor(bytes);
+        for (TreeObjectData.TreeEntry entry : entries) {
+            assertTrue(cursor.next());
+            assertEquals(entry.getMode(), cursor.getMode());
+            assertEquals(entry.getType(), cursor.getType());
+            assertEquals(entry.getName(), cursor.getName());
+            assertTrue(cursor.nameEquals(entry.getName().getBytes()));
+            assertEquals(entry.getObjectId(), cursor.getObjectIdString());
+            assertEquals(ObjectId.fromString(entry.getObjectId()), cursor.getObjectId());
+            assertEquals(entry.getType() == ObjectEntity.Type.tree, cursor.isTree());
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void emptyTree() {
+        assertFalse(new TreeCursor(new byte[0]).next());
+    }
+
+    private static TreeObjectData.TreeEntry entry(String mode, ObjectEntity.Type type, String name) {
+        TreeObjectData.TreeEntry entry = new TreeObjectData.TreeEntry();
+        entry.setMode(mode);
+        entry.setType(type);
+        entry.setName(name);
+        entry.setObjectId(ObjectUtils.sha1hash(name.getBytes()));
+        return entry;
+    }
+}
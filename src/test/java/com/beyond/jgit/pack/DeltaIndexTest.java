@@ -0,0 +1,55 @@
+package com.beyond.jgit.pack;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DeltaIndexTest {
+
+    @Test
+    public void encodeAndApply() throws IOException {
+        Random random = new Random(1);
+        byte[] base = new byte[100_000];
+        random.nextBytes(base);
+
+        // 中间插入, 删除, 末尾追加
+        byte[] target = new byte[base.length + 500];
+        System.arraycopy(base, 0, target, 0, 40_000);
+        for (int i = 40_000; i < 41_000; i++) {
+            target[i] = (byte) i;
+        }
+        System.arraycopy(base, 50_000, target, 41_000, 50_000);
+        System.arraycopy(base, 0, target, 91_000, target.length - 91_000);
+
+        byte[] delta = new DeltaIndex(base).encode(target, target.length);
+        assertNotNull(delta);
+        assertTrue("delta too large: " + delta.length, delta.length < 2_000);
+        assertEquals(base.length, BinaryDelta.getBaseSize(delta));
+        assertEquals(target.length, BinaryDelta.getResultSize(delta));
+        assertArrayEquals(target, BinaryDelta.apply(base, delta));
+    }
+
+    @Test
+    public void unrelatedContent() throws IOException {
+        Random random = new Random(2);
+        byte[] base = new byte[4096];
+        byte[] target = new byte[4096];
+        random.nextBytes(base);
+        random.nextBytes(target);
+
+        assertNull(new DeltaIndex(base).encode(target, target.length / 2));
+        byte[] delta = new DeltaIndex(base).encode(target, Integer.MAX_VALUE);
+        assertArrayEquals(target, BinaryDelta.apply(base, delta));
+    }
+
+    @Test
+    public void shortInputs() throws IOException {
+        byte[] base = "hello".getBytes();
+        byte[] target = "hello world".getBytes();
+        assertArrayEquals(target, BinaryDelta.apply(base, new DeltaIndex(base).encode(target, Integer.MAX_VALUE)));
+        assertArrayEquals(new byte[0], BinaryDelta.apply(base, new DeltaIndex(base).encode(new byte[0], Integer.MAX_VALUE)));
+    }
+}
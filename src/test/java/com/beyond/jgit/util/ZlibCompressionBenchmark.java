@@ -0,0 +1,107 @@
+package com.beyond.jgit.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 对比每次新建压缩流(旧实现)与线程复用Deflater/Inflater的吞吐量, 手动运行
+ */
+public class ZlibCompressionBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        List<byte[]> objects = generateObjects(20_000);
+        long totalBytes = 0;
+        for (byte[] object : objects) {
+            totalBytes += object.length;
+        }
+        System.out.printf("%d objects, %.1f MB%n", objects.size(), totalBytes / 1024.0 / 1024.0);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            List<byte[]> compressed = new ArrayList<>(objects.size());
+            for (byte[] object : objects) {
+                compressed.add(legacyCompress(object));
+            }
+            long compressNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (byte[] bytes : compressed) {
+                legacyDecompress(bytes);
+            }
+            long decompressNanos = System.nanoTime() - start;
+            print("legacy", totalBytes, compressNanos, decompressNanos);
+
+            for (int level : new int[]{Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION}) {
+                start = System.nanoTime();
+                compressed = new ArrayList<>(objects.size());
+                for (byte[] object : objects) {
+                    compressed.add(ZlibCompression.compressBytes(object, level));
+                }
+                compressNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < compressed.size(); i++) {
+                    ZlibCompression.decompressBytes(compressed.get(i), objects.get(i).length);
+                }
+                decompressNanos = System.nanoTime() - start;
+                print("pooled level " + level, totalBytes, compressNanos, decompressNanos);
+            }
+        }
+    }
+
+    private static void print(String name, long totalBytes, long compressNanos, long decompressNanos) {
+        double mb = totalBytes / 1024.0 / 1024.0;
+        System.out.printf("%-18s compress %8.1f MB/s, decompress %8.1f MB/s%n", name,
+                mb / (compressNanos / 1e9), mb / (decompressNanos / 1e9));
+    }
+
+    /**
+     * 类似源码文件的内容, 大小从几十字节到几十KB
+     */
+    private static List<byte[]> generateObjects(int count) {
+        Random random = new Random(1);
+        String[] words = {"public", "private", "static", "final", "class", "return", "new", "int", "String", "void", "if", "for", "=", "{", "}", "(", ")", ";"};
+        List<byte[]> objects = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int size = 64 + (int) Math.min(64 * 1024, Math.abs(random.nextGaussian()) * 4096);
+            StringBuilder sb = new StringBuilder(size);
+            while (sb.length() < size) {
+                sb.append(words[random.nextInt(words.length)]).append(random.nextInt(10) == 0 ? '\n' : ' ');
+            }
+            objects.add(sb.toString().getBytes());
+        }
+        return objects;
+    }
+
+    private static byte[] legacyCompress(byte[] bytes) throws IOException {
+        try (InputStream in = new DeflaterInputStream(new ByteArrayInputStream(bytes));
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            copy(in, out);
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] legacyDecompress(byte[] bytes) throws IOException {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes));
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            copy(in, out);
+            return out.toByteArray();
+        }
+    }
+
+    private static void copy(InputStream in, ByteArrayOutputStream out) throws IOException {
+        byte[] buffer = new byte[1000];
+        int len;
+        while ((len = in.read(buffer)) > 0) {
+            out.write(buffer, 0, len);
+        }
+    }
+}